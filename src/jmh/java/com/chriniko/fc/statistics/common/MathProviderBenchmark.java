@@ -0,0 +1,36 @@
+package com.chriniko.fc.statistics.common;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MathProviderBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private MathProvider mathProvider;
+    private double[] values;
+
+    private int idx;
+
+    @Setup
+    public void setup() {
+        mathProvider = new MathProvider();
+
+        Random random = new Random(42);
+        values = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            values[i] = random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public double scale() {
+        idx = (idx + 1) & (SAMPLES - 1);
+        return mathProvider.scale(values[idx], 2);
+    }
+}
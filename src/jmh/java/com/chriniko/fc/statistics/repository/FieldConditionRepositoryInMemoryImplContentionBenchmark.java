@@ -0,0 +1,101 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: write scaling of `save` when every writer hits the same day (today), from 1 to 16 writer threads.
+
+          `dayStripes=1` is a single append buffer per day (all the writers serialize on it),
+          `dayStripes=0` is one stripe per available processor, so the throughput should grow with the writer threads up to the cores.
+
+          mvn -Pjmh test-compile exec:exec -Djmh.args="ContentionBenchmark -f 1 -wi 5 -i 5"
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class FieldConditionRepositoryInMemoryImplContentionBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    @Param({"1", "0"})
+    private int dayStripes;
+
+    private ForkJoinPool computationWorkers;
+    private FieldConditionRepositoryInMemoryImpl repository;
+
+    private FieldConditionCapture[] captures;
+
+    @Setup
+    public void setup() {
+        computationWorkers = new ForkJoinPool(4);
+        repository = new FieldConditionRepositoryInMemoryImpl(new MathProvider(), Clock.systemUTC(), computationWorkers, false, true, dayStripes, 256, false);
+
+        Random random = new Random(42);
+        Instant now = Instant.now();
+
+        captures = new FieldConditionCapture[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            captures[i] = new FieldConditionCapture(random.nextDouble(), now);
+        }
+    }
+
+    // Note: the captures are kept in memory, so the repository is cleared between iterations.
+    @TearDown(Level.Iteration)
+    public void clearRepository() {
+        repository.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        computationWorkers.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadCursor {
+        int idx;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void save_1_writer(ThreadCursor cursor) {
+        save(cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void save_2_writers(ThreadCursor cursor) {
+        save(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void save_4_writers(ThreadCursor cursor) {
+        save(cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void save_8_writers(ThreadCursor cursor) {
+        save(cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void save_16_writers(ThreadCursor cursor) {
+        save(cursor);
+    }
+
+    private void save(ThreadCursor cursor) {
+        cursor.idx = (cursor.idx + 1) & (SAMPLES - 1);
+        repository.save(captures[cursor.idx]);
+    }
+}
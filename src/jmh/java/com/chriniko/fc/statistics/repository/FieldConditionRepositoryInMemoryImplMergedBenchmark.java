@@ -0,0 +1,72 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: `findAllMergedOrderByOccurrenceDesc` per calculation strategy and data size (captures spread over 60 days),
+          the numbers to choose `memoRepo.merged-captures.single-thread-approach` / `running-aggregates` with.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FieldConditionRepositoryInMemoryImplMergedBenchmark {
+
+    private static final int DAYS = 60;
+    private static final int PAST_DAYS = 30;
+
+    @Param({"single-thread", "fork-join", "running-aggregates"})
+    private String strategy;
+
+    @Param({"10000", "1000000", "10000000"})
+    private int captures;
+
+    private ForkJoinPool computationWorkers;
+    private FieldConditionRepositoryInMemoryImpl repository;
+
+    @Setup
+    public void setup() {
+        // Note: same pool as `AppConfiguration#computationWorkers`.
+        computationWorkers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        repository = new FieldConditionRepositoryInMemoryImpl(
+                new MathProvider(),
+                Clock.systemUTC(),
+                computationWorkers,
+                "single-thread".equals(strategy),
+                "running-aggregates".equals(strategy),
+                0,
+                256,
+                false
+        );
+
+        Random random = new Random(42);
+        Instant now = Instant.now();
+
+        CaptureBatch batch = new CaptureBatch(captures);
+        for (int i = 0; i < captures; i++) {
+            batch.add(now.minus(random.nextInt(DAYS), ChronoUnit.DAYS).toEpochMilli(), random.nextDouble());
+        }
+        repository.saveAll(batch);
+    }
+
+    @TearDown
+    public void tearDown() {
+        computationWorkers.shutdown();
+    }
+
+    @Benchmark
+    public List<MergedFieldConditionCapture> findAllMergedOrderByOccurrenceDesc() {
+        return repository.findAllMergedOrderByOccurrenceDesc(PAST_DAYS);
+    }
+}
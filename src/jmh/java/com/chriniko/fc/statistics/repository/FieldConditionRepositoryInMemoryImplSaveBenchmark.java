@@ -0,0 +1,83 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: `save` under contention, with `days=1` all the threads write to the same day (same map key).
+
+          Run with different thread counts: mvn -Pjmh test-compile exec:exec -Djmh.args="SaveBenchmark -t 1 -f 1 -wi 5 -i 5"
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+@State(Scope.Benchmark)
+public class FieldConditionRepositoryInMemoryImplSaveBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    @Param({"1", "30"})
+    private int days;
+
+    private ForkJoinPool computationWorkers;
+    private FieldConditionRepositoryInMemoryImpl repository;
+
+    private FieldConditionCapture[] captures;
+
+    @Setup
+    public void setup() {
+        computationWorkers = new ForkJoinPool(4);
+        repository = new FieldConditionRepositoryInMemoryImpl(new MathProvider(), Clock.systemUTC(), computationWorkers, false, true, 0, 256, false);
+
+        Random random = new Random(42);
+        Instant now = Instant.now();
+
+        captures = new FieldConditionCapture[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            captures[i] = new FieldConditionCapture(random.nextDouble(), now.minus(random.nextInt(days), ChronoUnit.DAYS));
+        }
+    }
+
+    // Note: the captures are kept in memory, so the repository is cleared between iterations.
+    @TearDown(Level.Iteration)
+    public void clearRepository() {
+        repository.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        computationWorkers.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadCursor {
+        int idx;
+    }
+
+    @Benchmark
+    public void save(ThreadCursor cursor) {
+        cursor.idx = (cursor.idx + 1) & (SAMPLES - 1);
+        repository.save(captures[cursor.idx]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public void saveAll(ThreadCursor cursor) {
+        CaptureBatch batch = new CaptureBatch(64);
+        for (int i = 0; i < 64; i++) {
+            cursor.idx = (cursor.idx + 1) & (SAMPLES - 1);
+            FieldConditionCapture capture = captures[cursor.idx];
+            batch.add(capture.getOccurrenceAt().toEpochMilli(), capture.getVegetation());
+        }
+        repository.saveAll(batch);
+    }
+}
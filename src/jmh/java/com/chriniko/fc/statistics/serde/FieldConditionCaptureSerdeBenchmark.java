@@ -0,0 +1,59 @@
+package com.chriniko.fc.statistics.serde;
+
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: binding of a capture (which goes through `InstantSerializer` / `InstantDeserializer`).
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FieldConditionCaptureSerdeBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private ObjectReader captureReader;
+    private ObjectWriter captureWriter;
+
+    private FieldConditionCapture[] captures;
+    private byte[][] payloads;
+
+    private int idx;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        captureReader = objectMapper.readerFor(FieldConditionCapture.class);
+        captureWriter = objectMapper.writerFor(FieldConditionCapture.class);
+
+        Random random = new Random(42);
+        captures = new FieldConditionCapture[SAMPLES];
+        payloads = new byte[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            captures[i] = new FieldConditionCapture(random.nextDouble(), Instant.ofEpochMilli(1_500_000_000_000L + (long) (random.nextDouble() * 200_000_000_000L)));
+            payloads[i] = captureWriter.writeValueAsBytes(captures[i]);
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        idx = (idx + 1) & (SAMPLES - 1);
+        return captureWriter.writeValueAsBytes(captures[idx]);
+    }
+
+    @Benchmark
+    public FieldConditionCapture deserialize() throws IOException {
+        idx = (idx + 1) & (SAMPLES - 1);
+        return captureReader.readValue(payloads[idx]);
+    }
+}
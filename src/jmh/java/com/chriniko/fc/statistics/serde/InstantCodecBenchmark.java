@@ -0,0 +1,77 @@
+package com.chriniko.fc.statistics.serde;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: compares the hand-rolled `Iso8601Codec` with the JDK (`Instant#parse`, `Instant#toString`).
+
+          Run (with allocation rates): mvn -Pjmh test-compile exec:exec -Djmh.args="InstantCodecBenchmark -f 1 -wi 5 -i 5 -prof gc"
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class InstantCodecBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private Instant[] instants;
+    private char[][] texts;
+    private char[] buffer;
+
+    private int idx;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+
+        instants = new Instant[SAMPLES];
+        texts = new char[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            instants[i] = Instant.ofEpochMilli(1_500_000_000_000L + (long) (random.nextDouble() * 200_000_000_000L));
+            texts[i] = instants[i].toString().toCharArray();
+        }
+
+        buffer = new char[Iso8601Codec.MAX_FORMATTED_LENGTH];
+    }
+
+    @Benchmark
+    public Instant parse_jdk() {
+        char[] text = texts[next()];
+        return Instant.parse(new String(text));
+    }
+
+    @Benchmark
+    public Instant parse_codec() {
+        char[] text = texts[next()];
+        return Iso8601Codec.parseInstant(text, 0, text.length);
+    }
+
+    @Benchmark
+    public long parseEpochMillis_codec() {
+        char[] text = texts[next()];
+        return Iso8601Codec.parseEpochMillis(text, 0, text.length);
+    }
+
+    @Benchmark
+    public void format_jdk(Blackhole blackhole) {
+        blackhole.consume(instants[next()].toString());
+    }
+
+    @Benchmark
+    public void format_codec(Blackhole blackhole) {
+        Instant instant = instants[next()];
+        blackhole.consume(Iso8601Codec.format(instant.getEpochSecond(), instant.getNano(), buffer));
+        blackhole.consume(buffer);
+    }
+
+    private int next() {
+        idx = (idx + 1) & (SAMPLES - 1);
+        return idx;
+    }
+}
@@ -0,0 +1,55 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.health.FieldStatisticsCalculatorHealthContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class FieldStatisticsCalculatorBenchmark {
+
+    @Param({"30", "365"})
+    private int days;
+
+    private FieldStatisticsCalculator calculator;
+    private List<MergedFieldConditionCapture> mergedCaptures;
+
+    @Setup
+    public void setup() {
+        calculator = new FieldStatisticsCalculator(
+                null,
+                null,
+                new PoolHandler(),
+                new MathProvider(),
+                new FieldStatisticsCalculatorHealthContext(Clock.systemUTC()),
+                Clock.systemUTC(),
+                new ObjectMapper(),
+                Collections.emptyList()
+        );
+
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+
+        mergedCaptures = new ArrayList<>(days);
+        for (int i = 0; i < days; i++) {
+            mergedCaptures.add(new MergedFieldConditionCapture(today.minusDays(i), random.nextDouble()));
+        }
+    }
+
+    @Benchmark
+    public VegetationStatistic extractStatistic() {
+        return calculator.extractStatistic(mergedCaptures);
+    }
+}
@@ -6,24 +6,19 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 
 import java.time.Clock;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 
 @Profile("dev")
 @Configuration
 public class AppConfiguration {
 
+    /*
+        Note: work-stealing pool of the merged captures calculation (days and ranges of a day are split into fork-join tasks).
+     */
     @Bean
     @Qualifier("computation-workers")
-    ExecutorService computationWorkers() {
-        return new ThreadPoolExecutor(
-                20,
-                40,
-                30, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(3000)
-        );
+    ForkJoinPool computationWorkers() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     }
 
     @Bean
@@ -0,0 +1,15 @@
+package com.chriniko.fc.statistics.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchItemError {
+
+    private int index;
+    private String message;
+
+}
@@ -0,0 +1,21 @@
+package com.chriniko.fc.statistics.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchSaveResult {
+
+    private int received;
+    private int accepted;
+    private int rejected;
+
+    private List<BatchItemError> errors = new ArrayList<>();
+
+}
@@ -0,0 +1,20 @@
+package com.chriniko.fc.statistics.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+    Note: statistics of the captures (not of the daily averages) of a window of days: the number of captures, their average
+          (each capture weighs the same, so a day with more captures weighs more) and their standard deviation (population).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CaptureStatistics {
+
+    private long count;
+    private double avg;
+    private double stddev;
+
+}
@@ -25,4 +25,12 @@ public class FieldConditionCapture {
     @JsonDeserialize(using = InstantDeserializer.class)
     @JsonSerialize(using = InstantSerializer.class)
     private Instant occurrenceAt;
+
+    // Note: optional, the captures without a field identifier belong to the default field (see `FieldRepositoryShards`).
+    private String fieldId;
+
+    public FieldConditionCapture(Double vegetation, Instant occurrenceAt) {
+        this.vegetation = vegetation;
+        this.occurrenceAt = occurrenceAt;
+    }
 }
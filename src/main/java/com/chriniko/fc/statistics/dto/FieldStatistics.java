@@ -1,5 +1,6 @@
 package com.chriniko.fc.statistics.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -11,4 +12,21 @@ public class FieldStatistics {
 
     private VegetationStatistic vegetation = new VegetationStatistic();
 
+    // Note: quantiles of the captures of the window, absent if the repository does not keep quantile sketches (or no captures).
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private VegetationQuantiles quantiles;
+
+    // Note: count, average and standard deviation of the captures of the window, absent if the repository does not keep them.
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private CaptureStatistics captures;
+
+    public FieldStatistics(VegetationStatistic vegetation) {
+        this.vegetation = vegetation;
+    }
+
+    public FieldStatistics(VegetationStatistic vegetation, VegetationQuantiles quantiles) {
+        this.vegetation = vegetation;
+        this.quantiles = quantiles;
+    }
+
 }
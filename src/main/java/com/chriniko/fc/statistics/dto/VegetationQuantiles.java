@@ -0,0 +1,19 @@
+package com.chriniko.fc.statistics.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+    Note: quantiles of the vegetation of the captures of a window of days, within 1% of the exact values (see `QuantileSketch`).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VegetationQuantiles {
+
+    private double median;
+    private double p90;
+    private double p99;
+
+}
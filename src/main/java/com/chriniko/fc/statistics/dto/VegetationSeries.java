@@ -0,0 +1,23 @@
+package com.chriniko.fc.statistics.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Note: time series of the vegetation, one point per bucket with captures (a bucket without captures has no point), ordered by time.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VegetationSeries {
+
+    // Note: minute | hour | day
+    private String resolution;
+
+    private List<VegetationSeriesPoint> points = new ArrayList<>();
+
+}
@@ -0,0 +1,31 @@
+package com.chriniko.fc.statistics.dto;
+
+import com.chriniko.fc.statistics.serde.InstantDeserializer;
+import com.chriniko.fc.statistics.serde.InstantSerializer;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/*
+    Note: statistics of the captures of one bucket of a time series, the bucket starts at `from` and it is as wide as the resolution of the series.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VegetationSeriesPoint {
+
+    @JsonDeserialize(using = InstantDeserializer.class)
+    @JsonSerialize(using = InstantSerializer.class)
+    private Instant from;
+
+    private long count;
+    private double min;
+    private double max;
+    private double avg;
+    private double stddev;
+
+}
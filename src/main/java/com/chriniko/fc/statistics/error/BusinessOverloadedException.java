@@ -0,0 +1,8 @@
+package com.chriniko.fc.statistics.error;
+
+public class BusinessOverloadedException extends RuntimeException {
+
+    public BusinessOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -67,6 +67,21 @@ public class CustomizedResponseEntityExceptionHandler extends ResponseEntityExce
         return new ResponseEntity<>(errorDetails, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
+    @ExceptionHandler(BusinessOverloadedException.class)
+    public final ResponseEntity<ErrorDetails> handleBusinessOverloadedException(BusinessOverloadedException ex,
+                                                                                WebRequest request) {
+
+        log.warn(">> handleBusinessOverloadedException error occurred: " + ex.getMessage());
+
+        ErrorDetails errorDetails = new ErrorDetails(
+                new Date(),
+                ex.getMessage(),
+                request.getDescription(false)
+        );
+
+        return new ResponseEntity<>(errorDetails, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
     @Override
     protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException ex,
                                                                   HttpHeaders headers,
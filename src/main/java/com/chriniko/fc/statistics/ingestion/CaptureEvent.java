@@ -0,0 +1,15 @@
+package com.chriniko.fc.statistics.ingestion;
+
+/*
+    Note: preallocated (mutable) slot of the ingestion ring buffer, the producers overwrite its fields in place.
+ */
+final class CaptureEvent {
+
+    long occurrenceAtEpochMillis;
+    double vegetation;
+
+    void set(long occurrenceAtEpochMillis, double vegetation) {
+        this.occurrenceAtEpochMillis = occurrenceAtEpochMillis;
+        this.vegetation = vegetation;
+    }
+}
@@ -0,0 +1,366 @@
+package com.chriniko.fc.statistics.ingestion;
+
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.persistence.WriteAheadLog;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.lmax.disruptor.*;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    Note: asynchronous ingestion of single captures (`ingestion.mode=disruptor`).
+
+          Request threads publish the capture into a preallocated ring buffer (LMAX disruptor) and return, a consumer thread per
+          shard (`ingestion.disruptor.shards`) collects the published captures into a `CaptureBatch` and applies the batch with
+          one `saveAll` (or one write-ahead log append, if the log is enabled) at the end of every disruptor batch
+          or every `ingestion.disruptor.max-batch-size` captures.
+
+          So the writes of the hot day (today) are no longer a `compute` per request contended by all the request threads,
+          but a bulk append per batch by a few consumers. A request thread picks its shard by its thread id.
+
+          Backpressure (`ingestion.disruptor.backpressure`), when the ring buffer of the shard is full:
+            block:       the request thread waits until a slot is free.
+            reject:      the capture is rejected with `BusinessOverloadedException` (429 Too Many Requests).
+            drop-oldest: the consumer discards the oldest pending capture of the shard and the request thread takes the freed slot,
+                         so a request waits for at most the batch in progress instead of the whole backlog.
+
+          The consumer reports its sequence after every applied batch (and after a dropped capture, when nothing is pending),
+          not only at the end of the disruptor batch, which is the whole backlog when the ring buffer is full. So the slots
+          are freed one `ingestion.disruptor.max-batch-size` batch at a time, while a slot still counts in the backlog until
+          its capture has been applied (see `close`).
+
+          Note: a capture is acknowledged when it is published, so it is visible to the statistics (and durable, if the
+                write-ahead log is enabled) shortly after the request has returned.
+ */
+
+@Log4j2
+
+@Component
+public class IngestionPipeline {
+
+    private static final String MODE_DIRECT = "direct";
+    private static final String MODE_DISRUPTOR = "disruptor";
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+    private static final long DRAIN_POLL_NANOS = TimeUnit.NANOSECONDS.convert(1, TimeUnit.MILLISECONDS);
+
+    enum Backpressure {
+        BLOCK, REJECT, DROP_OLDEST
+    }
+
+    private final FieldConditionRepository fieldConditionRepository;
+    private final WriteAheadLog writeAheadLog;
+
+    private final boolean enabled;
+    private final int ringSize;
+    private final int shards;
+    private final int maxBatchSize;
+    private final String waitStrategy;
+    private final Backpressure backpressure;
+
+    private final Counter rejected;
+    private final Counter dropped;
+    private final Counter failed;
+
+    private volatile Shard[] activeShards;
+
+    @Autowired
+    public IngestionPipeline(FieldConditionRepository fieldConditionRepository,
+                             WriteAheadLog writeAheadLog,
+                             MeterRegistry meterRegistry,
+                             @Value("${ingestion.mode}") String mode,
+                             @Value("${ingestion.disruptor.ring-size}") int ringSize,
+                             @Value("${ingestion.disruptor.shards}") int shards,
+                             @Value("${ingestion.disruptor.max-batch-size}") int maxBatchSize,
+                             @Value("${ingestion.disruptor.wait-strategy}") String waitStrategy,
+                             @Value("${ingestion.disruptor.backpressure}") String backpressure) {
+
+        if (!MODE_DIRECT.equals(mode) && !MODE_DISRUPTOR.equals(mode)) {
+            throw new BusinessProcessingException("not valid ingestion.mode: " + mode + ", supported: direct | disruptor");
+        }
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new BusinessProcessingException("ingestion.disruptor.ring-size should be a power of 2, provided: " + ringSize);
+        }
+        if (shards < 1 || maxBatchSize < 1) {
+            throw new BusinessProcessingException("ingestion.disruptor.shards and ingestion.disruptor.max-batch-size should be positive");
+        }
+
+        this.fieldConditionRepository = fieldConditionRepository;
+        this.writeAheadLog = writeAheadLog;
+
+        this.enabled = MODE_DISRUPTOR.equals(mode);
+        this.ringSize = ringSize;
+        this.shards = shards;
+        this.maxBatchSize = maxBatchSize;
+        this.waitStrategy = waitStrategy;
+        this.backpressure = backpressure(backpressure);
+        waitStrategy(waitStrategy); // Note: fail fast on a not valid wait strategy.
+
+        this.rejected = meterRegistry.counter("ingestion.rejected");
+        this.dropped = meterRegistry.counter("ingestion.dropped");
+        this.failed = meterRegistry.counter("ingestion.failed");
+
+        this.activeShards = new Shard[0];
+        meterRegistry.gauge("ingestion.backlog", this, IngestionPipeline::backlog);
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+
+        Shard[] started = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            started[i] = new Shard(i);
+        }
+        activeShards = started;
+
+        log.info("ingestion pipeline started, shards: " + shards
+                + ", ring-size: " + ringSize
+                + ", wait-strategy: " + waitStrategy
+                + ", backpressure: " + backpressure);
+    }
+
+    /*
+        Note: the published captures are drained (and applied) before the shutdown of the write-ahead log and the repository.
+
+              The drain waits on the capacity of the ring buffer and not on `Disruptor#shutdown`, since the latter does not
+              wait for a consumer which has not started running yet.
+     */
+    @PreDestroy
+    void close() {
+        Shard[] stopped = activeShards;
+        activeShards = new Shard[0];
+
+        long deadline = System.nanoTime() + TimeUnit.NANOSECONDS.convert(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        for (Shard shard : stopped) {
+            while (shard.backlog() > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(DRAIN_POLL_NANOS);
+            }
+            if (shard.backlog() > 0) {
+                log.warn("ingestion shard: " + shard.id + " did not drain in time, lost captures: " + shard.backlog());
+            }
+            shard.disruptor.halt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void publish(long occurrenceAtEpochMillis, double vegetation) {
+        Shard[] current = activeShards;
+        if (current.length == 0) {
+            throw new BusinessProcessingException("ingestion pipeline is not running");
+        }
+
+        Shard shard = current[(int) (Thread.currentThread().getId() % current.length)];
+        RingBuffer<CaptureEvent> ringBuffer = shard.ringBuffer;
+
+        long sequence;
+        switch (backpressure) {
+            case BLOCK:
+                sequence = ringBuffer.next();
+                break;
+
+            case REJECT:
+                try {
+                    sequence = ringBuffer.tryNext();
+                } catch (InsufficientCapacityException e) {
+                    rejected.increment();
+                    throw new BusinessOverloadedException("ingestion is overloaded, capture is rejected, please retry later.");
+                }
+                break;
+
+            case DROP_OLDEST:
+                try {
+                    sequence = ringBuffer.tryNext();
+                } catch (InsufficientCapacityException e) {
+                    dropped.increment();
+                    shard.pendingDrops.incrementAndGet();
+                    sequence = ringBuffer.next();
+                }
+                break;
+
+            default:
+                throw new IllegalStateException("not supported backpressure: " + backpressure);
+        }
+
+        try {
+            ringBuffer.get(sequence).set(occurrenceAtEpochMillis, vegetation);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+    }
+
+    // ------ internals ------
+
+    private final class Shard implements SequenceReportingEventHandler<CaptureEvent> {
+
+        private final int id;
+        private final Disruptor<CaptureEvent> disruptor;
+        private final RingBuffer<CaptureEvent> ringBuffer;
+
+        // Note: number of the oldest pending captures to discard (drop-oldest backpressure), requested by the producers.
+        private final AtomicLong pendingDrops;
+
+        // Note: only accessed by the consumer thread of the shard.
+        private final CaptureBatch batch;
+        private Sequence sequenceCallback;
+
+        private Shard(int id) {
+            this.id = id;
+            this.pendingDrops = new AtomicLong();
+            this.batch = new CaptureBatch(maxBatchSize);
+
+            AtomicInteger threadIdx = new AtomicInteger();
+            this.disruptor = new Disruptor<>(
+                    CaptureEvent::new,
+                    ringSize,
+                    r -> {
+                        Thread t = new Thread(r);
+                        t.setName("ingestion-consumer-" + id + "-" + threadIdx.getAndIncrement());
+                        return t;
+                    },
+                    ProducerType.MULTI,
+                    waitStrategy(waitStrategy)
+            );
+
+            // Note: `handleEventsWith` takes generic varargs, a generic array cannot be created without an unchecked conversion
+            //       and the disruptor only reads the handlers of the array.
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            EventHandler<CaptureEvent>[] handlers = new EventHandler[]{this};
+            this.disruptor.handleEventsWith(handlers);
+            this.disruptor.setDefaultExceptionHandler(new ShardExceptionHandler());
+            this.ringBuffer = disruptor.start();
+        }
+
+        @Override
+        public void setSequenceCallback(Sequence sequenceCallback) {
+            this.sequenceCallback = sequenceCallback;
+        }
+
+        @Override
+        public void onEvent(CaptureEvent event, long sequence, boolean endOfBatch) {
+            if (!tryDrop()) {
+                batch.add(event.occurrenceAtEpochMillis, event.vegetation);
+            } else if (batch.isEmpty()) {
+                sequenceCallback.set(sequence);
+            }
+
+            if (endOfBatch || batch.size() >= maxBatchSize) {
+                flush();
+                sequenceCallback.set(sequence);
+            }
+        }
+
+        private boolean tryDrop() {
+            long drops;
+            while ((drops = pendingDrops.get()) > 0) {
+                if (pendingDrops.compareAndSet(drops, drops - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            int size = batch.size();
+            try {
+                if (writeAheadLog.isEnabled()) {
+                    writeAheadLog.appendAll(batch);
+                } else {
+                    fieldConditionRepository.saveAll(batch);
+                }
+            } catch (Exception e) {
+                failed.increment(size);
+                log.error("could not apply ingestion batch of shard: " + id + ", lost captures: " + size + ", message: " + e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        private long backlog() {
+            return ringBuffer.getBufferSize() - ringBuffer.remainingCapacity();
+        }
+    }
+
+    private static final class ShardExceptionHandler implements ExceptionHandler<CaptureEvent> {
+
+        @Override
+        public void handleEventException(Throwable ex, long sequence, CaptureEvent event) {
+            log.error("critical error occurred during ingestion of sequence: " + sequence + ", message: " + ex.getMessage(), ex);
+        }
+
+        @Override
+        public void handleOnStartException(Throwable ex) {
+            log.error("could not start ingestion consumer, message: " + ex.getMessage(), ex);
+        }
+
+        @Override
+        public void handleOnShutdownException(Throwable ex) {
+            log.error("could not shutdown ingestion consumer, message: " + ex.getMessage(), ex);
+        }
+    }
+
+    private double backlog() {
+        long backlog = 0;
+        for (Shard shard : activeShards) {
+            backlog += shard.backlog();
+        }
+        return backlog;
+    }
+
+    private static Backpressure backpressure(String value) {
+        switch (value) {
+            case "block":
+                return Backpressure.BLOCK;
+            case "reject":
+                return Backpressure.REJECT;
+            case "drop-oldest":
+                return Backpressure.DROP_OLDEST;
+            default:
+                throw new BusinessProcessingException("not valid ingestion.disruptor.backpressure: " + value
+                        + ", supported: block | reject | drop-oldest");
+        }
+    }
+
+    /*
+        Note: blocking and sleeping keep the consumers cheap when idle, yielding and busy-spin trade a core per shard for latency.
+     */
+    private static WaitStrategy waitStrategy(String value) {
+        switch (value) {
+            case "blocking":
+                return new BlockingWaitStrategy();
+            case "sleeping":
+                return new SleepingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busy-spin":
+                return new BusySpinWaitStrategy();
+            default:
+                throw new BusinessProcessingException("not valid ingestion.disruptor.wait-strategy: " + value
+                        + ", supported: blocking | sleeping | yielding | busy-spin");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.chriniko.fc.statistics.persistence;
+
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.DayCapturesSnapshot;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldConditionRepositoryInMemoryImpl;
+import com.chriniko.fc.statistics.worker.PoolHandler;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Note: coordinates the persistence of the in-memory repository.
+
+          On startup: loads the newest snapshot (if snapshots are enabled) and then replays only the tail of the write-ahead log
+          (records after the sequence of the snapshot).
+
+          At fixed delay (and on shutdown): writes a snapshot of the repository, then the covered write-ahead log segments are deleted.
+ */
+
+@Log4j2
+
+@Component
+public class PersistenceManager {
+
+    private final FieldConditionRepository fieldConditionRepository;
+    private final WriteAheadLog writeAheadLog;
+    private final SnapshotStore snapshotStore;
+    private final PoolHandler poolHandler;
+
+    @Value("${snapshot.enabled}")
+    private boolean snapshotEnabled;
+
+    @Value("${snapshot.interval-ms}")
+    private long snapshotInterval;
+
+    private ScheduledExecutorService scheduledExecutorService;
+
+    @Autowired
+    public PersistenceManager(FieldConditionRepository fieldConditionRepository,
+                              WriteAheadLog writeAheadLog,
+                              SnapshotStore snapshotStore,
+                              PoolHandler poolHandler) {
+        this.fieldConditionRepository = fieldConditionRepository;
+        this.writeAheadLog = writeAheadLog;
+        this.snapshotStore = snapshotStore;
+        this.poolHandler = poolHandler;
+    }
+
+    @PostConstruct
+    void init() {
+        long fromSequence = 0;
+
+        if (snapshotEnabled) {
+            fromSequence = snapshotStore.loadLatest(inMemoryRepository());
+
+            scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setName("repository-snapshot-writer");
+                return t;
+            });
+
+            scheduledExecutorService.scheduleWithFixedDelay(
+                    this::takeSnapshotScheduledTask,
+                    snapshotInterval,
+                    snapshotInterval,
+                    TimeUnit.MILLISECONDS
+            );
+        }
+
+        writeAheadLog.start(fromSequence);
+    }
+
+    @PreDestroy
+    void clear() {
+        if (scheduledExecutorService != null) {
+            poolHandler.shutdownAndAwaitTermination(scheduledExecutorService);
+            takeSnapshotScheduledTask();
+        }
+    }
+
+    public void takeSnapshot() {
+        FieldConditionRepositoryInMemoryImpl repository = inMemoryRepository();
+
+        AtomicReference<List<DayCapturesSnapshot>> days = new AtomicReference<>();
+        AtomicReference<VegetationStatistic> statistic = new AtomicReference<>();
+
+        // Note: O(days) (the state of the days is merged), the captures are written after the point is released (views of append-only columns).
+        long walSequence = writeAheadLog.atConsistentPoint(() -> {
+            days.set(repository.snapshotDays());
+            statistic.set(repository.vegetationStatistics());
+        });
+
+        snapshotStore.write(walSequence, statistic.get(), days.get());
+
+        if (writeAheadLog.isEnabled()) {
+            writeAheadLog.requestRollover();
+            writeAheadLog.deleteSegmentsBefore(snapshotStore.oldestRetainedSequence());
+        }
+    }
+
+    // ------ internals ------
+
+    private void takeSnapshotScheduledTask() {
+        try {
+            takeSnapshot();
+        } catch (Exception e) {
+            // Note: subsequent executions of a scheduled task are suppressed if an execution throws.
+            log.error("critical error occurred during snapshot of repository, message: " + e.getMessage(), e);
+        }
+    }
+
+    private FieldConditionRepositoryInMemoryImpl inMemoryRepository() {
+        if (!(fieldConditionRepository instanceof FieldConditionRepositoryInMemoryImpl)) {
+            throw new BusinessProcessingException("snapshots are only supported with the in-memory repository (memoRepo)");
+        }
+        return (FieldConditionRepositoryInMemoryImpl) fieldConditionRepository;
+    }
+}
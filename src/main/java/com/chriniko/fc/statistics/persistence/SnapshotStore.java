@@ -0,0 +1,393 @@
+package com.chriniko.fc.statistics.persistence;
+
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.DayCapturesSnapshot;
+import com.chriniko.fc.statistics.repository.DayCapturesState;
+import com.chriniko.fc.statistics.repository.FieldConditionRepositoryInMemoryImpl;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+    Note: compact binary snapshots of the in-memory repository.
+
+          Layout of `snapshot-<wal sequence>.bin`:
+            header (64 bytes): magic(int), version(int), walSequence(long), createdAt epoch millis(long),
+                               statistic min(double), max(double), avg(double), days(int), padding
+            day index (28 bytes per day): epochDay(long), captures(int), data offset(long), crc32 of day data(int), state bytes(int)
+            day data: occurrenceAt epoch millis column (long per capture) followed by vegetation column (double per capture),
+                      followed by the state of the day (see `DayCapturesState`)
+
+          The state of the day keeps the statistics of the captures which a downsampling discarded (see `RetentionWorker`),
+          so a restored day is not recalculated from its captures. A snapshot of version 1 (no state, the index entry is 24 bytes)
+          is still loaded, its days are recalculated from their captures.
+
+          A snapshot is first written to a temporary file, fsync-ed and then atomically renamed, so a crash never leaves a partial snapshot.
+          On recovery the day index is read and the days are decoded in parallel (each day is mapped and bulk copied into
+          primitive arrays), so the recovery time is bounded by the disk bandwidth.
+ */
+
+@Log4j2
+
+@Component
+public class SnapshotStore {
+
+    private static final String FILE_PREFIX = "snapshot-";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x46435353; // FCSS
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_DAY_STATE = 1;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int INDEX_ENTRY_BYTES_WITHOUT_DAY_STATE = Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int INDEX_ENTRY_BYTES = INDEX_ENTRY_BYTES_WITHOUT_DAY_STATE + Integer.BYTES;
+    private static final int WRITE_BUFFER_BYTES = 1024 * 1024;
+
+    private final Clock clock;
+
+    private final Path directory;
+    private final int retained;
+    private final int recoveryParallelism;
+
+    @Autowired
+    public SnapshotStore(Clock clock,
+                         @Value("${snapshot.directory}") String directory,
+                         @Value("${snapshot.retained}") int retained,
+                         @Value("${snapshot.recovery.parallelism}") int recoveryParallelism) {
+        this.clock = clock;
+        this.directory = Paths.get(directory);
+        this.retained = Math.max(1, retained);
+        this.recoveryParallelism = recoveryParallelism;
+    }
+
+    public void write(long walSequence, VegetationStatistic statistic, List<DayCapturesSnapshot> days) {
+        long startTime = System.nanoTime();
+
+        Path target = directory.resolve(fileName(walSequence));
+        Path temporary = directory.resolve(fileName(walSequence) + TEMPORARY_FILE_SUFFIX);
+
+        long captures = 0;
+        try {
+            Files.createDirectories(directory);
+
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+                ByteBuffer headerAndIndex = ByteBuffer.allocate(HEADER_BYTES + days.size() * INDEX_ENTRY_BYTES);
+                headerAndIndex
+                        .putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putLong(walSequence)
+                        .putLong(clock.millis())
+                        .putDouble(statistic.getMin())
+                        .putDouble(statistic.getMax())
+                        .putDouble(statistic.getAvg())
+                        .putInt(days.size());
+                headerAndIndex.position(HEADER_BYTES);
+
+                long dataOffset = HEADER_BYTES + (long) days.size() * INDEX_ENTRY_BYTES;
+                channel.position(dataOffset);
+
+                ChecksummedWriter writer = new ChecksummedWriter(channel);
+                for (DayCapturesSnapshot day : days) {
+                    writer.resetChecksum();
+                    day.forEachOccurrenceAt(writer::putLong);
+                    day.forEachVegetation(writer::putDouble);
+
+                    ByteBuffer state = ByteBuffer.allocate(day.state().encodedBytes());
+                    day.state().encodeTo(state);
+                    state.flip();
+                    writer.put(state);
+                    writer.flush();
+
+                    headerAndIndex
+                            .putLong(day.date().toEpochDay())
+                            .putInt(day.size())
+                            .putLong(dataOffset)
+                            .putInt(writer.checksum())
+                            .putInt(state.capacity());
+
+                    dataOffset += (long) day.size() * (Long.BYTES + Double.BYTES) + state.capacity();
+                    captures += day.size();
+                }
+
+                headerAndIndex.flip();
+                long position = 0;
+                while (headerAndIndex.hasRemaining()) {
+                    position += channel.write(headerAndIndex, position);
+                }
+
+                channel.force(true);
+            }
+
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException | UncheckedIOException e) {
+            throw new BusinessProcessingException("could not write snapshot: " + target, e);
+        }
+
+        deleteOldSnapshots();
+
+        long totalTime = System.nanoTime() - startTime;
+        log.info("snapshot written: " + target
+                + ", days: " + days.size()
+                + ", captures: " + captures
+                + ", in ms: " + TimeUnit.MILLISECONDS.convert(totalTime, TimeUnit.NANOSECONDS));
+    }
+
+    /*
+        Note: loads the newest valid snapshot into the (empty) repository and returns its write-ahead log sequence,
+              or zero if there is no valid snapshot. A snapshot which fails to decode is skipped in favour of the previous one.
+     */
+    public long loadLatest(FieldConditionRepositoryInMemoryImpl repository) {
+        List<Path> snapshots = listSnapshots();
+        Collections.reverse(snapshots);
+
+        for (Path snapshot : snapshots) {
+            try {
+                return load(snapshot, repository);
+            } catch (Exception e) {
+                log.error("could not load snapshot: " + snapshot + ", trying previous one, message: " + e.getMessage(), e);
+                repository.clear();
+            }
+        }
+        return 0;
+    }
+
+    /*
+        Note: write-ahead log records before this sequence are covered by every retained snapshot.
+     */
+    public long oldestRetainedSequence() {
+        List<Path> snapshots = listSnapshots();
+        return snapshots.isEmpty() ? 0 : sequenceOf(snapshots.get(0));
+    }
+
+    // ------ internals ------
+
+    private long load(Path snapshot, FieldConditionRepositoryInMemoryImpl repository) throws IOException, InterruptedException, ExecutionException {
+        long startTime = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAGIC || (version != VERSION && version != VERSION_WITHOUT_DAY_STATE)) {
+                throw new BusinessProcessingException("not a valid snapshot: " + snapshot);
+            }
+            boolean withDayState = version == VERSION;
+
+            long walSequence = header.getLong();
+            header.getLong(); // Note: createdAt
+            VegetationStatistic statistic = new VegetationStatistic(header.getDouble(), header.getDouble(), header.getDouble());
+            int days = header.getInt();
+
+            ByteBuffer index = readFully(channel, HEADER_BYTES, days * (withDayState ? INDEX_ENTRY_BYTES : INDEX_ENTRY_BYTES_WITHOUT_DAY_STATE));
+            List<DayIndexEntry> entries = new ArrayList<>(days);
+            for (int i = 0; i < days; i++) {
+                entries.add(new DayIndexEntry(
+                        LocalDate.ofEpochDay(index.getLong()),
+                        index.getInt(),
+                        index.getLong(),
+                        index.getInt(),
+                        withDayState ? index.getInt() : -1
+                ));
+            }
+
+            ForkJoinPool recoveryPool = new ForkJoinPool(recoveryParallelism);
+            try {
+                recoveryPool.submit(() -> entries.parallelStream().forEach(entry -> decodeDay(channel, entry, repository))).get();
+            } finally {
+                recoveryPool.shutdown();
+            }
+
+            repository.updateVegetationStatistics(statistic);
+
+            long totalTime = System.nanoTime() - startTime;
+            log.info("snapshot loaded: " + snapshot
+                    + ", days: " + days
+                    + ", in ms: " + TimeUnit.MILLISECONDS.convert(totalTime, TimeUnit.NANOSECONDS));
+
+            return walSequence;
+        }
+    }
+
+    private void decodeDay(FileChannel channel, DayIndexEntry entry, FieldConditionRepositoryInMemoryImpl repository) {
+        try {
+            long capturesBytes = (long) entry.captures * (Long.BYTES + Double.BYTES);
+            long bytes = capturesBytes + Math.max(0, entry.stateBytes);
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, bytes);
+
+            CRC32 crc = new CRC32();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != entry.checksum) {
+                throw new BusinessProcessingException("snapshot day: " + entry.date + " is corrupted");
+            }
+
+            long[] occurrenceAt = new long[entry.captures];
+            double[] vegetation = new double[entry.captures];
+
+            data.asLongBuffer().get(occurrenceAt);
+            data.position(entry.captures * Long.BYTES);
+            data.slice().asDoubleBuffer().get(vegetation);
+
+            if (entry.stateBytes < 0) {
+                repository.restoreDay(entry.date, occurrenceAt, vegetation);
+                return;
+            }
+            data.position((int) capturesBytes);
+            repository.restoreDay(entry.date, DayCapturesState.decode(data.slice()), occurrenceAt, vegetation);
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteOldSnapshots() {
+        List<Path> snapshots = listSnapshots();
+        for (int i = 0; i < snapshots.size() - retained; i++) {
+            try {
+                Files.deleteIfExists(snapshots.get(i));
+            } catch (IOException e) {
+                log.error("could not delete snapshot: " + snapshots.get(i) + ", message: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private List<Path> listSnapshots() {
+        List<Path> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            paths.forEach(snapshots::add);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not list snapshots of directory: " + directory, e);
+        }
+        // Note: the sequence is zero padded, so the lexicographic order is the sequence order.
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new BusinessProcessingException("unexpected end of snapshot");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String fileName(long walSequence) {
+        return String.format("%s%020d%s", FILE_PREFIX, walSequence, FILE_SUFFIX);
+    }
+
+    private static long sequenceOf(Path snapshot) {
+        String fileName = snapshot.getFileName().toString();
+        return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+    }
+
+    private static final class DayIndexEntry {
+
+        private final LocalDate date;
+        private final int captures;
+        private final long offset;
+        private final int checksum;
+        // Note: -1 for a snapshot without the state of the days.
+        private final int stateBytes;
+
+        private DayIndexEntry(LocalDate date, int captures, long offset, int checksum, int stateBytes) {
+            this.date = date;
+            this.captures = captures;
+            this.offset = offset;
+            this.checksum = checksum;
+            this.stateBytes = stateBytes;
+        }
+    }
+
+    /*
+        Note: buffered writer which keeps the crc32 of the bytes written since the last reset.
+     */
+    private static final class ChecksummedWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32 crc;
+
+        private ChecksummedWriter(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+            this.crc = new CRC32();
+        }
+
+        void putLong(long value) {
+            if (buffer.remaining() < Long.BYTES) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) {
+            if (buffer.remaining() < Double.BYTES) {
+                flush();
+            }
+            buffer.putDouble(value);
+        }
+
+        void put(ByteBuffer source) {
+            while (source.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int length = Math.min(source.remaining(), buffer.remaining());
+                ByteBuffer chunk = source.duplicate();
+                chunk.limit(chunk.position() + length);
+                buffer.put(chunk);
+                source.position(source.position() + length);
+            }
+        }
+
+        void flush() {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+
+        void resetChecksum() {
+            crc.reset();
+        }
+
+        int checksum() {
+            return (int) crc.getValue();
+        }
+    }
+}
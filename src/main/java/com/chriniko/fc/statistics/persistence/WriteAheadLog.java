@@ -0,0 +1,546 @@
+package com.chriniko.fc.statistics.persistence;
+
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldConditionRepositoryInMemoryImpl;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/*
+    Note: append-only write-ahead log of the accepted captures, so the in-memory repository can be rebuilt after a restart.
+
+          Group commit: request threads enqueue their captures and wait, a single committer thread (`wal-group-committer`) drains
+          the queue until `wal.group-commit.max-batch-size` records are collected or `wal.group-commit.max-wait-ms` elapsed,
+          writes them with one write and one fsync, applies them to the repository and only then releases the waiting threads.
+          So the cost of an fsync is shared by all the concurrent writes of the batch.
+
+          Since the committer applies the captures to the repository, when the log is enabled there is a single writer of the repository.
+
+          Layout: segment files `wal-<sequence of first record>.log` with fixed-width records:
+                  occurrenceAt epoch millis(long), vegetation(double), crc32 of the previous 16 bytes(int).
+          On startup the segments are replayed in order (skipping the records which are already part of the loaded snapshot),
+          and a torn/corrupted tail (crash during a write) is truncated. The records after a corrupted record can not be
+          replayed in order, so the following segments are moved aside (`<segment>.discarded`) and the log continues after
+          the last valid record.
+
+          A failed commit truncates the segment back to its last committed record, so no rejected capture is replayed and the
+          sequence of every record stays its position in the log. If that is not possible, the log stops accepting appends.
+
+    Note: the log is started by `PersistenceManager`, after the latest repository snapshot has been loaded.
+ */
+
+@Log4j2
+
+@Component
+public class WriteAheadLog {
+
+    static final String SEGMENT_PREFIX = "wal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final String DISCARDED_SEGMENT_SUFFIX = ".discarded";
+
+    static final int RECORD_PAYLOAD_BYTES = Long.BYTES + Double.BYTES;
+    static final int RECORD_BYTES = RECORD_PAYLOAD_BYTES + Integer.BYTES;
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final FieldConditionRepository fieldConditionRepository;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long segmentSizeBytes;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<PendingAppend> pendingAppends;
+
+    // Note: guards the application of a committed batch to the repository together with the advance of `nextSequence`.
+    private final Object applyLock;
+
+    // Note: the following are only accessed by the committer thread (or by the init thread before the committer starts).
+    private final CRC32 crc;
+    private final ByteBuffer recordPayload;
+    private final ByteBuffer writeBuffer;
+    private FileChannel segmentChannel;
+    private long nextSequence;
+
+    private volatile boolean rolloverRequested;
+    private volatile boolean running;
+
+    // Note: set when the log could not be kept consistent with the repository, from then on every append is rejected.
+    private volatile Throwable failure;
+    private Thread groupCommitter;
+
+    @Autowired
+    public WriteAheadLog(FieldConditionRepository fieldConditionRepository,
+                         @Value("${wal.enabled}") boolean enabled,
+                         @Value("${wal.directory}") String directory,
+                         @Value("${wal.segment-size-bytes}") long segmentSizeBytes,
+                         @Value("${wal.group-commit.max-batch-size}") int maxBatchSize,
+                         @Value("${wal.group-commit.max-wait-ms}") long maxWaitMs) {
+        this.fieldConditionRepository = fieldConditionRepository;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.NANOSECONDS.convert(maxWaitMs, TimeUnit.MILLISECONDS);
+
+        this.pendingAppends = new LinkedBlockingQueue<>();
+        this.applyLock = new Object();
+
+        this.crc = new CRC32();
+        this.recordPayload = ByteBuffer.allocate(RECORD_PAYLOAD_BYTES);
+        this.writeBuffer = ByteBuffer.allocateDirect(maxBatchSize * RECORD_BYTES);
+    }
+
+    /*
+        Note: replays the records with sequence >= `fromSequence` into the repository and starts accepting appends.
+     */
+    public void start(long fromSequence) {
+        if (!enabled) {
+            return;
+        }
+
+        if (!(fieldConditionRepository instanceof FieldConditionRepositoryInMemoryImpl)) {
+            throw new BusinessProcessingException("write-ahead log is only supported with the in-memory repository (memoRepo)");
+        }
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not create write-ahead log directory: " + directory, e);
+        }
+
+        replay(fromSequence);
+        openSegment(nextSequence);
+
+        running = true;
+        groupCommitter = new Thread(this::groupCommitLoop);
+        groupCommitter.setName("wal-group-committer");
+        groupCommitter.start();
+    }
+
+    @PreDestroy
+    void close() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        try {
+            groupCommitter.join(TimeUnit.MILLISECONDS.convert(60, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Note: appends which were enqueued after the committer found the queue empty (see `appendAll`).
+        failPendingAppends();
+
+        closeSegment();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+        Note: returns when the capture is durable and applied to the repository.
+     */
+    public void append(FieldConditionCapture capture) {
+        appendAll(CaptureBatch.of(capture));
+    }
+
+    /*
+        Note: runs the provided action while no committed batch is applied to the repository, and returns the sequence of the
+              next record, so the repository state observed by the action contains exactly the records before this sequence.
+     */
+    public long atConsistentPoint(Runnable action) {
+        synchronized (applyLock) {
+            checkNotFailed();
+            action.run();
+            return nextSequence;
+        }
+    }
+
+    /*
+        Note: the committer starts a new segment after its next commit, so older segments can be deleted once they are covered by a snapshot.
+     */
+    public void requestRollover() {
+        rolloverRequested = true;
+    }
+
+    /*
+        Note: deletes the segments which only contain records before the provided sequence (the active segment is never deleted).
+     */
+    public void deleteSegmentsBefore(long sequence) {
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            long nextSegmentFirstSequence = firstSequenceOf(segments.get(i + 1));
+            if (nextSegmentFirstSequence > sequence) {
+                break;
+            }
+
+            try {
+                Files.deleteIfExists(segments.get(i));
+            } catch (IOException e) {
+                log.error("could not delete write-ahead log segment: " + segments.get(i) + ", message: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public void appendAll(CaptureBatch batch) {
+        if (!running) {
+            throw new BusinessProcessingException("write-ahead log is not running");
+        }
+        checkNotFailed();
+
+        PendingAppend pendingAppend = new PendingAppend(batch);
+        pendingAppends.add(pendingAppend);
+
+        /*
+            Note: the committer may have stopped between the check above and the enqueue. If the append is still queued it is
+                  withdrawn here, otherwise the committer or `close` has taken it and completes it.
+         */
+        if (!running && pendingAppends.remove(pendingAppend)) {
+            throw new BusinessProcessingException("write-ahead log is not running");
+        }
+
+        try {
+            pendingAppend.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessProcessingException("interrupted while waiting for write-ahead log commit", e);
+        } catch (ExecutionException e) {
+            throw new BusinessProcessingException("write-ahead log commit failed", e.getCause());
+        }
+    }
+
+    // ------ internals ------
+
+    private void groupCommitLoop() {
+        final List<PendingAppend> batch = new ArrayList<>();
+
+        while (running || !pendingAppends.isEmpty()) {
+            try {
+                PendingAppend first = pendingAppends.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                int records = first.batch.size();
+
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (records < maxBatchSize) {
+                    PendingAppend next = pendingAppends.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        next = pendingAppends.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                    records += next.batch.size();
+                }
+
+                commit(batch);
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.forEach(pendingAppend -> pendingAppend.done.completeExceptionally(e));
+                return;
+            } catch (Exception e) {
+                log.error("critical error occurred during write-ahead log group commit, message: " + e.getMessage(), e);
+                batch.forEach(pendingAppend -> pendingAppend.done.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void failPendingAppends() {
+        List<PendingAppend> remaining = new ArrayList<>();
+        pendingAppends.drainTo(remaining);
+
+        BusinessProcessingException notRunning = new BusinessProcessingException("write-ahead log is not running");
+        remaining.forEach(pendingAppend -> pendingAppend.done.completeExceptionally(notRunning));
+    }
+
+    private void commit(List<PendingAppend> batch) throws IOException {
+        checkNotFailed();
+
+        CaptureBatch committed = batch.get(0).batch;
+        if (batch.size() > 1) {
+            committed = new CaptureBatch();
+            for (PendingAppend pendingAppend : batch) {
+                committed.addAll(pendingAppend.batch);
+            }
+        }
+
+        long batchStartPosition = segmentChannel.size();
+        try {
+            for (int i = 0; i < committed.size(); i++) {
+                if (!writeBuffer.hasRemaining()) {
+                    flushWriteBuffer();
+                }
+                writeRecord(committed.occurrenceAt(i), committed.vegetation(i));
+            }
+            flushWriteBuffer();
+            segmentChannel.force(false);
+        } catch (IOException | RuntimeException e) {
+            rollback(batchStartPosition, e);
+            throw e;
+        }
+
+        synchronized (applyLock) {
+            try {
+                fieldConditionRepository.saveAll(committed);
+            } catch (RuntimeException e) {
+                // Note: a part of the batch may be applied already, so the repository no longer matches the log.
+                rollback(batchStartPosition, e);
+                failure = e;
+                throw e;
+            }
+            nextSequence += committed.size();
+        }
+
+        /*
+            Note: the rollover takes place before the waiting threads are released, so a writer which returns after
+                  `requestRollover` finds its records in a closed segment, and the records of its next append in a new one.
+         */
+        try {
+            if (rolloverRequested || segmentChannel.size() >= segmentSizeBytes) {
+                rolloverRequested = false;
+                closeSegment();
+                openSegment(nextSequence);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Note: the batch is durable and applied, so its writers succeed, but there is no segment for the next batches.
+            failure = e;
+            log.error("could not roll the write-ahead log segment over, the log stops accepting captures, message: " + e.getMessage(), e);
+        }
+
+        batch.forEach(pendingAppend -> pendingAppend.done.complete(null));
+    }
+
+    /*
+        Note: discards the (partially) written records of a failed batch, so the segment ends with the last committed record.
+     */
+    private void rollback(long batchStartPosition, Exception cause) {
+        writeBuffer.clear();
+        try {
+            segmentChannel.truncate(batchStartPosition);
+            segmentChannel.force(false);
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+            log.error("could not discard the records of a failed write-ahead log commit, the log stops accepting captures, message: " + e.getMessage(), e);
+        }
+    }
+
+    private void checkNotFailed() {
+        Throwable cause = failure;
+        if (cause != null) {
+            throw new BusinessProcessingException("write-ahead log has failed and does not accept captures", cause);
+        }
+    }
+
+    private void writeRecord(long occurrenceAtEpochMillis, double vegetation) {
+        recordPayload.clear();
+        recordPayload.putLong(occurrenceAtEpochMillis).putDouble(vegetation);
+
+        crc.reset();
+        crc.update(recordPayload.array(), 0, RECORD_PAYLOAD_BYTES);
+
+        writeBuffer.putLong(occurrenceAtEpochMillis).putDouble(vegetation).putInt((int) crc.getValue());
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            segmentChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    private void replay(long fromSequence) {
+        long startTime = System.nanoTime();
+        long replayed = 0;
+        nextSequence = fromSequence;
+
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+
+            long firstSequence = firstSequenceOf(segment);
+            long recordsToSkip = Math.max(0, fromSequence - firstSequence);
+            long sizeBeforeReplay = sizeOf(segment);
+            long records = replaySegment(segment, recordsToSkip);
+
+            replayed += Math.max(0, records - recordsToSkip);
+            nextSequence = Math.max(nextSequence, firstSequence + records);
+
+            if (sizeBeforeReplay != records * RECORD_BYTES && i != segments.size() - 1) {
+                log.error("write-ahead log segment: " + segment + " is corrupted, following segments are not replayed");
+                discardSegments(segments.subList(i + 1, segments.size()));
+                break;
+            }
+        }
+
+        long totalTime = System.nanoTime() - startTime;
+        log.info("write-ahead log replayed records: " + replayed
+                + ", segments: " + segments.size()
+                + ", in ms: " + TimeUnit.MILLISECONDS.convert(totalTime, TimeUnit.NANOSECONDS));
+    }
+
+    /*
+        Note: returns the number of valid records, a torn or corrupted record truncates the segment at its position.
+     */
+    private long replaySegment(Path segment, long recordsToSkip) {
+        long records = 0;
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            ByteBuffer readBuffer = ByteBuffer.allocate(maxBatchSize * RECORD_BYTES);
+            CaptureBatch replayBatch = new CaptureBatch(maxBatchSize);
+            boolean corrupted = false;
+
+            while (!corrupted && channel.read(readBuffer) > 0) {
+                readBuffer.flip();
+
+                while (readBuffer.remaining() >= RECORD_BYTES) {
+                    long occurrenceAtEpochMillis = readBuffer.getLong();
+                    double vegetation = readBuffer.getDouble();
+                    int storedCrc = readBuffer.getInt();
+
+                    recordPayload.clear();
+                    recordPayload.putLong(occurrenceAtEpochMillis).putDouble(vegetation);
+                    crc.reset();
+                    crc.update(recordPayload.array(), 0, RECORD_PAYLOAD_BYTES);
+
+                    if ((int) crc.getValue() != storedCrc) {
+                        corrupted = true;
+                        break;
+                    }
+
+                    if (records >= recordsToSkip) {
+                        replayBatch.add(occurrenceAtEpochMillis, vegetation);
+                    }
+                    records++;
+                }
+
+                readBuffer.compact();
+
+                fieldConditionRepository.saveAll(replayBatch);
+                replayBatch.clear();
+            }
+
+            long validBytes = records * RECORD_BYTES;
+            if (channel.size() > validBytes) {
+                log.warn("write-ahead log segment: " + segment + " has a torn/corrupted tail, truncating it at record: " + records);
+                channel.truncate(validBytes);
+            }
+
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not replay write-ahead log segment: " + segment, e);
+        }
+
+        return records;
+    }
+
+    /*
+        Note: the discarded segments are kept for inspection, but they are no longer listed (replayed, deleted or reopened) by the log.
+     */
+    private void discardSegments(List<Path> segments) {
+        for (Path segment : segments) {
+            Path discarded = segment.resolveSibling(segment.getFileName() + DISCARDED_SEGMENT_SUFFIX);
+            try {
+                Files.move(segment, discarded, StandardCopyOption.REPLACE_EXISTING);
+                log.error("write-ahead log segment: " + segment + " is not replayed, moved to: " + discarded);
+            } catch (IOException e) {
+                throw new BusinessProcessingException("could not move aside write-ahead log segment: " + segment, e);
+            }
+        }
+    }
+
+    private void openSegment(long firstSequence) {
+        Path segment = directory.resolve(segmentFileName(firstSequence));
+        try {
+            segmentChannel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not open write-ahead log segment: " + segment, e);
+        }
+    }
+
+    private void closeSegment() {
+        try {
+            segmentChannel.force(false);
+            segmentChannel.close();
+        } catch (IOException e) {
+            log.error("could not close write-ahead log segment, message: " + e.getMessage(), e);
+        }
+    }
+
+    private List<Path> listSegments() {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            paths.forEach(segments::add);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not list write-ahead log segments of directory: " + directory, e);
+        }
+        // Note: the sequence is zero padded, so the lexicographic order is the sequence order.
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static String segmentFileName(long firstSequence) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX);
+    }
+
+    static long firstSequenceOf(Path segment) {
+        String fileName = segment.getFileName().toString();
+        return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not read size of: " + path, e);
+        }
+    }
+
+    private static final class PendingAppend {
+
+        private final CaptureBatch batch;
+        private final CompletableFuture<Void> done;
+
+        private PendingAppend(CaptureBatch batch) {
+            this.batch = batch;
+            this.done = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Note: growable primitive columns (epoch millis, vegetation) of a batch of captures, the unit of work of the ingestion path
+          (batch reader -> write-ahead log -> repository), so a batch never materializes `FieldConditionCapture` or `Instant` objects.
+
+          Not thread safe, a batch is filled by one thread and then handed over.
+ */
+public final class CaptureBatch {
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private long[] occurrenceAt;
+    private double[] vegetation;
+    private int size;
+
+    public CaptureBatch() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public CaptureBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.occurrenceAt = new long[capacity];
+        this.vegetation = new double[capacity];
+    }
+
+    public static CaptureBatch of(FieldConditionCapture capture) {
+        CaptureBatch batch = new CaptureBatch(1);
+        batch.add(capture.getOccurrenceAt().toEpochMilli(), capture.getVegetation());
+        return batch;
+    }
+
+    public static CaptureBatch of(List<FieldConditionCapture> captures) {
+        CaptureBatch batch = new CaptureBatch(captures.size());
+        captures.forEach(capture -> batch.add(capture.getOccurrenceAt().toEpochMilli(), capture.getVegetation()));
+        return batch;
+    }
+
+    public void add(long occurrenceAtEpochMillis, double vegetation) {
+        if (size == occurrenceAt.length) {
+            grow(size + 1);
+        }
+        occurrenceAt[size] = occurrenceAtEpochMillis;
+        this.vegetation[size] = vegetation;
+        size++;
+    }
+
+    public void addAll(CaptureBatch other) {
+        if (size + other.size > occurrenceAt.length) {
+            grow(size + other.size);
+        }
+        System.arraycopy(other.occurrenceAt, 0, occurrenceAt, size, other.size);
+        System.arraycopy(other.vegetation, 0, vegetation, size, other.size);
+        size += other.size;
+    }
+
+    public long occurrenceAt(int index) {
+        return occurrenceAt[index];
+    }
+
+    public double vegetation(int index) {
+        return vegetation[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Note: the backing columns, valid up to `size()`.
+
+    long[] occurrenceAtColumn() {
+        return occurrenceAt;
+    }
+
+    double[] vegetationColumn() {
+        return vegetation;
+    }
+
+    // ------ internals ------
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, occurrenceAt.length * 2);
+        occurrenceAt = Arrays.copyOf(occurrenceAt, capacity);
+        vegetation = Arrays.copyOf(vegetation, capacity);
+    }
+}
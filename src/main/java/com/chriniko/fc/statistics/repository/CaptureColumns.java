@@ -0,0 +1,166 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/*
+    Note: append-only primitive columnar storage of the captures of one day (occurrence at as epoch millis, vegetation).
+
+          The columns are split in chunks which double in size (16, 32, 64, ...), so a growth never copies already stored
+          captures and a quiet day costs only a few hundred bytes, while the allocated capacity is at most twice the size.
+
+          Single writer semantics: `append` must not be invoked concurrently (the repository serializes writers of the same day),
+          readers first read the `volatile` size and then only access positions below it, so the writes of these positions are visible.
+ */
+final class CaptureColumns {
+
+    private static final int FIRST_CHUNK_SIZE_SHIFT = 4;
+    private static final int FIRST_CHUNK_SIZE = 1 << FIRST_CHUNK_SIZE_SHIFT;
+    private static final int MAX_CHUNKS = Integer.SIZE - FIRST_CHUNK_SIZE_SHIFT;
+
+    private final long[][] occurrenceAtChunks;
+    private final double[][] vegetationChunks;
+
+    private volatile int size;
+
+    CaptureColumns() {
+        this.occurrenceAtChunks = new long[MAX_CHUNKS][];
+        this.vegetationChunks = new double[MAX_CHUNKS][];
+    }
+
+    void append(long occurrenceAtEpochMillis, double vegetation) {
+        int position = size;
+
+        int chunk = chunkOf(position);
+        if (vegetationChunks[chunk] == null) {
+            int chunkSize = FIRST_CHUNK_SIZE << chunk;
+            occurrenceAtChunks[chunk] = new long[chunkSize];
+            vegetationChunks[chunk] = new double[chunkSize];
+        }
+
+        int offset = offsetOf(position, chunk);
+        occurrenceAtChunks[chunk][offset] = occurrenceAtEpochMillis;
+        vegetationChunks[chunk][offset] = vegetation;
+
+        size = position + 1;
+    }
+
+    /*
+        Note: bulk append (used on recovery), copies the provided columns chunk by chunk.
+     */
+    void appendAll(long[] occurrenceAtEpochMillis, double[] vegetation, int count) {
+        int position = size;
+        int copied = 0;
+
+        while (copied < count) {
+            int chunk = chunkOf(position);
+            if (vegetationChunks[chunk] == null) {
+                int chunkSize = FIRST_CHUNK_SIZE << chunk;
+                occurrenceAtChunks[chunk] = new long[chunkSize];
+                vegetationChunks[chunk] = new double[chunkSize];
+            }
+
+            int offset = offsetOf(position, chunk);
+            int length = Math.min(vegetationChunks[chunk].length - offset, count - copied);
+
+            System.arraycopy(occurrenceAtEpochMillis, copied, occurrenceAtChunks[chunk], offset, length);
+            System.arraycopy(vegetation, copied, vegetationChunks[chunk], offset, length);
+
+            copied += length;
+            position += length;
+        }
+
+        size = position;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEachOccurrenceAt(int count, LongConsumer consumer) {
+        int remaining = count;
+        for (int chunk = 0; remaining > 0; chunk++) {
+            long[] values = occurrenceAtChunks[chunk];
+            int length = Math.min(values.length, remaining);
+            for (int i = 0; i < length; i++) {
+                consumer.accept(values[i]);
+            }
+            remaining -= length;
+        }
+    }
+
+    void forEachVegetation(int count, DoubleConsumer consumer) {
+        int remaining = count;
+        for (int chunk = 0; remaining > 0; chunk++) {
+            double[] values = vegetationChunks[chunk];
+            int length = Math.min(values.length, remaining);
+            for (int i = 0; i < length; i++) {
+                consumer.accept(values[i]);
+            }
+            remaining -= length;
+        }
+    }
+
+    long occurrenceAt(int position) {
+        int chunk = chunkOf(position);
+        return occurrenceAtChunks[chunk][offsetOf(position, chunk)];
+    }
+
+    double vegetation(int position) {
+        int chunk = chunkOf(position);
+        return vegetationChunks[chunk][offsetOf(position, chunk)];
+    }
+
+    /*
+        Note: tight scan over the primitive chunks (no boxing, no iterator), used when an aggregate needs to be (re)calculated from the captures.
+     */
+    double sumOfVegetation(int count) {
+        return sumOfVegetation(0, count);
+    }
+
+    /*
+        Note: sum of the positions [from, to), so a day can be split in ranges which are summed in parallel.
+     */
+    double sumOfVegetation(int from, int to) {
+        double sum = 0.0D;
+        int position = from;
+        while (position < to) {
+            int chunk = chunkOf(position);
+            double[] values = vegetationChunks[chunk];
+            int offset = offsetOf(position, chunk);
+            int length = Math.min(values.length - offset, to - position);
+            for (int i = offset; i < offset + length; i++) {
+                sum += values[i];
+            }
+            position += length;
+        }
+        return sum;
+    }
+
+    double averageOfVegetation() {
+        int count = size;
+        return count == 0 ? 0.0D : sumOfVegetation(count) / count;
+    }
+
+    /*
+        Note: approximation of the heap bytes retained by the allocated chunks.
+     */
+    long allocatedBytes() {
+        long bytes = 0;
+        for (int chunk = 0; chunk < MAX_CHUNKS && vegetationChunks[chunk] != null; chunk++) {
+            bytes += (long) vegetationChunks[chunk].length * (Long.BYTES + Double.BYTES);
+        }
+        return bytes;
+    }
+
+    // ------ internals ------
+
+    private static int chunkOf(int position) {
+        // Note: chunk k holds positions [FIRST_CHUNK_SIZE * (2^k - 1), FIRST_CHUNK_SIZE * (2^(k+1) - 1)).
+        return (Integer.SIZE - 1) - Integer.numberOfLeadingZeros((position >>> FIRST_CHUNK_SIZE_SHIFT) + 1);
+    }
+
+    private static int offsetOf(int position, int chunk) {
+        return position - FIRST_CHUNK_SIZE * ((1 << chunk) - 1);
+    }
+}
@@ -0,0 +1,57 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Note: groups a batch of captures by the day of their occurrence (in the provided zone),
+          so a repository can store each day of the batch with one bulk append (one `compute` per day instead of one per capture).
+
+          With a fixed offset zone (e.g. UTC) the day is calculated from the epoch millis without allocations,
+          and a batch which belongs to a single day (the common case) is returned as is.
+ */
+final class CapturesByDay {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private CapturesByDay() {
+    }
+
+    static Map<LocalDate, CaptureBatch> group(CaptureBatch batch, ZoneId zone) {
+        if (batch.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        ZoneId normalizedZone = zone.normalized();
+        long offsetMillis = normalizedZone instanceof ZoneOffset ? ((ZoneOffset) normalizedZone).getTotalSeconds() * 1000L : 0;
+
+        long[] epochDays = new long[batch.size()];
+        boolean singleDay = true;
+        for (int i = 0; i < batch.size(); i++) {
+            epochDays[i] = normalizedZone instanceof ZoneOffset
+                    ? Math.floorDiv(batch.occurrenceAt(i) + offsetMillis, MILLIS_PER_DAY)
+                    : Instant.ofEpochMilli(batch.occurrenceAt(i)).atZone(normalizedZone).toLocalDate().toEpochDay();
+
+            singleDay &= epochDays[i] == epochDays[0];
+        }
+
+        if (singleDay) {
+            return Collections.singletonMap(LocalDate.ofEpochDay(epochDays[0]), batch);
+        }
+
+        final Map<Long, CaptureBatch> byEpochDay = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            byEpochDay.computeIfAbsent(epochDays[i], epochDay -> new CaptureBatch())
+                    .add(batch.occurrenceAt(i), batch.vegetation(i));
+        }
+
+        final Map<LocalDate, CaptureBatch> result = new HashMap<>();
+        byEpochDay.forEach((epochDay, dayBatch) -> result.put(LocalDate.ofEpochDay(epochDay), dayBatch));
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package com.chriniko.fc.statistics.repository;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/*
+    Note: immutable running aggregate (count, sum, min, max and the sum of squared deviations) of the captures of one day,
+          every save produces a new instance so readers always see a consistent tuple.
+
+          The sum is compensated (Neumaier): `compensation` keeps the low-order bits which are lost by the additions to `sum`,
+          so the sum of millions of captures does not drift. `m2` is the sum of squared deviations from the mean (Welford),
+          so the variance is updated in the same pass and without the cancellation of `sum of squares - square of sum`.
+          Two aggregates merge exactly (Chan et al.), so the aggregates of the stripes, the days and the windows are merged
+          without a scan of their captures.
+ */
+
+@Getter
+@ToString
+@EqualsAndHashCode
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class DailyAggregate {
+
+    public static final DailyAggregate EMPTY = new DailyAggregate(0, 0.0D, 0.0D, 0.0D, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+    private final long count;
+    private final double sum;
+    private final double compensation;
+    private final double m2;
+    private final double min;
+    private final double max;
+
+    public static DailyAggregate of(long count, double sum, double compensation, double m2, double min, double max) {
+        return count == 0 ? EMPTY : new DailyAggregate(count, sum, compensation, m2, min, max);
+    }
+
+    /*
+        Note: aggregate of the values, one pass.
+     */
+    public static DailyAggregate of(double[] values, int count) {
+        return EMPTY.addAll(values, count);
+    }
+
+    public DailyAggregate add(double vegetation) {
+        double mean = average();
+        long n = count + 1;
+        double delta = vegetation - mean;
+
+        double t = sum + vegetation;
+        return new DailyAggregate(
+                n,
+                t,
+                compensation + lostBits(sum, vegetation, t),
+                m2 + delta * (vegetation - (mean + delta / n)),
+                Math.min(min, vegetation),
+                Math.max(max, vegetation)
+        );
+    }
+
+    /*
+        Note: same as `add` for every value, with one instance for the whole batch.
+     */
+    public DailyAggregate addAll(double[] values, int length) {
+        if (length == 0) {
+            return this;
+        }
+
+        long n = count;
+        double s = sum;
+        double c = compensation;
+        double mean = average();
+        double squares = m2;
+        double lo = min;
+        double hi = max;
+        for (int i = 0; i < length; i++) {
+            double v = values[i];
+            n++;
+
+            double delta = v - mean;
+            mean += delta / n;
+            squares += delta * (v - mean);
+
+            double t = s + v;
+            c += lostBits(s, v, t);
+            s = t;
+
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        return new DailyAggregate(n, s, c, squares, lo, hi);
+    }
+
+    public DailyAggregate merge(DailyAggregate other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        long n = count + other.count;
+        double delta = other.average() - average();
+
+        double t = sum + other.sum;
+        return new DailyAggregate(
+                n,
+                t,
+                compensation + other.compensation + lostBits(sum, other.sum, t),
+                m2 + other.m2 + delta * delta * ((double) count * other.count / n),
+                Math.min(min, other.min),
+                Math.max(max, other.max)
+        );
+    }
+
+    public double compensatedSum() {
+        return sum + compensation;
+    }
+
+    public double average() {
+        return count == 0 ? 0.0D : compensatedSum() / count;
+    }
+
+    /*
+        Note: population variance of the captures.
+     */
+    public double variance() {
+        return count == 0 ? 0.0D : Math.max(0.0D, m2 / count);
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // ------ internals ------
+
+    // Note: the low-order bits of `a + b` which are lost by the rounding of `t` (Neumaier, the smaller operand loses its bits).
+    static double lostBits(double a, double b, double t) {
+        return Math.abs(a) >= Math.abs(b) ? (a - t) + b : (b - t) + a;
+    }
+}
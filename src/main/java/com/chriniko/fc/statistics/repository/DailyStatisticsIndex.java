@@ -0,0 +1,145 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/*
+    Note: immutable index over the daily vegetation values (the averages of the days), built by the statistics calculator and published through
+          the repository (same as `VegetationStatistic`), so any [from, to] range of days is answered in O(1) without touching the captures.
+
+          The days are dense (one position per day from the first to the last day, a day without captures has no value):
+            prefix sums of the values and of the days with a value, for the avg.
+            sparse tables (level k holds the min/max of the 2^k days which start at a position), for the min/max of two overlapping levels.
+
+          Building costs O(days * log(days)) and the calculator rebuilds it on every calculation (a few hundred days) from the
+          running aggregates of the days, so the captures of the days are not scanned.
+ */
+public final class DailyStatisticsIndex {
+
+    public static final DailyStatisticsIndex EMPTY = new DailyStatisticsIndex(0, new double[]{0.0D}, new int[]{0}, new double[0][], new double[0][]);
+
+    private final long firstEpochDay;
+    private final double[] prefixSums;
+    private final int[] prefixCounts;
+    private final double[][] minTable;
+    private final double[][] maxTable;
+
+    private DailyStatisticsIndex(long firstEpochDay, double[] prefixSums, int[] prefixCounts, double[][] minTable, double[][] maxTable) {
+        this.firstEpochDay = firstEpochDay;
+        this.prefixSums = prefixSums;
+        this.prefixCounts = prefixCounts;
+        this.minTable = minTable;
+        this.maxTable = maxTable;
+    }
+
+    /*
+        Note: the daily value is the average of the aggregate of the day (same as the merged capture of the day), O(days).
+     */
+    public static DailyStatisticsIndex of(Map<LocalDate, DailyAggregate> aggregatesByDay) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (Map.Entry<LocalDate, DailyAggregate> entry : aggregatesByDay.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            long epochDay = entry.getKey().toEpochDay();
+            first = Math.min(first, epochDay);
+            last = Math.max(last, epochDay);
+        }
+        if (first > last) {
+            return EMPTY;
+        }
+
+        int days = (int) (last - first + 1);
+        double[] values = new double[days];
+        boolean[] present = new boolean[days];
+        for (Map.Entry<LocalDate, DailyAggregate> entry : aggregatesByDay.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            int position = (int) (entry.getKey().toEpochDay() - first);
+            values[position] = entry.getValue().average();
+            present[position] = true;
+        }
+
+        return of(first, values, present);
+    }
+
+    private static DailyStatisticsIndex of(long first, double[] values, boolean[] present) {
+        int days = values.length;
+
+        double[] prefixSums = new double[days + 1];
+        int[] prefixCounts = new int[days + 1];
+        for (int i = 0; i < days; i++) {
+            prefixSums[i + 1] = prefixSums[i] + (present[i] ? values[i] : 0.0D);
+            prefixCounts[i + 1] = prefixCounts[i] + (present[i] ? 1 : 0);
+        }
+
+        int levels = levelOf(days) + 1;
+        double[][] minTable = new double[levels][];
+        double[][] maxTable = new double[levels][];
+
+        minTable[0] = new double[days];
+        maxTable[0] = new double[days];
+        for (int i = 0; i < days; i++) {
+            minTable[0][i] = present[i] ? values[i] : Double.POSITIVE_INFINITY;
+            maxTable[0][i] = present[i] ? values[i] : Double.NEGATIVE_INFINITY;
+        }
+
+        for (int level = 1; level < levels; level++) {
+            int half = 1 << (level - 1);
+            int positions = days - (1 << level) + 1;
+
+            minTable[level] = new double[positions];
+            maxTable[level] = new double[positions];
+            for (int i = 0; i < positions; i++) {
+                minTable[level][i] = Math.min(minTable[level - 1][i], minTable[level - 1][i + half]);
+                maxTable[level][i] = Math.max(maxTable[level - 1][i], maxTable[level - 1][i + half]);
+            }
+        }
+
+        return new DailyStatisticsIndex(first, prefixSums, prefixCounts, minTable, maxTable);
+    }
+
+    /*
+        Note: min, max and avg (not scaled) of the daily values of the days [from, to], all zero if none of these days has a value.
+     */
+    public VegetationStatistic query(LocalDate from, LocalDate to) {
+        long days = prefixCounts.length - 1;
+
+        long left = Math.max(0, from.toEpochDay() - firstEpochDay);
+        long right = Math.min(days - 1, to.toEpochDay() - firstEpochDay);
+        if (left > right) {
+            return new VegetationStatistic();
+        }
+
+        int l = (int) left;
+        int r = (int) right;
+
+        int count = prefixCounts[r + 1] - prefixCounts[l];
+        if (count == 0) {
+            return new VegetationStatistic();
+        }
+
+        int level = levelOf(r - l + 1);
+        int secondStart = r - (1 << level) + 1;
+
+        double min = Math.min(minTable[level][l], minTable[level][secondStart]);
+        double max = Math.max(maxTable[level][l], maxTable[level][secondStart]);
+        double avg = (prefixSums[r + 1] - prefixSums[l]) / count;
+
+        return new VegetationStatistic(min, max, avg);
+    }
+
+    public boolean isEmpty() {
+        return prefixCounts[prefixCounts.length - 1] == 0;
+    }
+
+    // ------ internals ------
+
+    private static int levelOf(int length) {
+        return (Integer.SIZE - 1) - Integer.numberOfLeadingZeros(length);
+    }
+}
@@ -0,0 +1,338 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+    Note: captures of one day (kept in primitive columns) together with their running aggregate, their quantile sketch
+          and their rollups (hour buckets, and minute buckets if enabled, see `RollupBuckets`).
+
+          The day is striped: every stripe has its own columns, running aggregate and lock, and a writer appends to the stripe
+          of its thread (thread id & mask), so the concurrent writers of the same day (today) are spread over the locks and
+          the columns tails of the stripes instead of serializing on one. Stripes are created on their first write, so a day written by one thread (e.g. recovery) has one stripe.
+
+          Readers merge the stripes lazily (O(stripes)): the aggregate of the day is the merge of the stripe aggregates and the
+          captures of the day are the captures of every stripe, stripe after stripe (so not in insertion order).
+          Same as the rest of the repository the merge is weakly consistent, a stripe is read at its latest state.
+
+          An old day can be downsampled (see `downsample`): its captures and its minute buckets are discarded and its running aggregate,
+          its sketch and its hour buckets are kept, so the day keeps serving its statistics with memory bounded by its buckets.
+ */
+final class DayCaptures {
+
+    static final int MAX_STRIPES = 64;
+
+    private final AtomicReferenceArray<Stripe> stripes;
+    private final int stripeMask;
+    private final boolean minuteRollups;
+
+    private volatile boolean downsampled;
+
+    DayCaptures() {
+        this(defaultStripes());
+    }
+
+    DayCaptures(int stripes) {
+        this(stripes, false);
+    }
+
+    DayCaptures(int stripes, boolean minuteRollups) {
+        if (stripes < 1 || stripes > MAX_STRIPES || Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("stripes should be a power of 2 up to " + MAX_STRIPES + ", provided: " + stripes);
+        }
+        this.stripes = new AtomicReferenceArray<>(stripes);
+        this.stripeMask = stripes - 1;
+        this.minuteRollups = minuteRollups;
+    }
+
+    /*
+        Note: smallest power of 2 which is not below the available processors (capped to `MAX_STRIPES`).
+     */
+    static int defaultStripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return processors <= 1 ? 1 : Math.min(MAX_STRIPES, Integer.highestOneBit(processors - 1) << 1);
+    }
+
+    void add(FieldConditionCapture capture) {
+        add(capture.getOccurrenceAt().toEpochMilli(), capture.getVegetation());
+    }
+
+    void add(long occurrenceAtEpochMillis, double vegetation) {
+        stripeOfCurrentThread().add(occurrenceAtEpochMillis, vegetation);
+    }
+
+    /*
+        Note: bulk load of captures (used on recovery and batch saves), appended to one stripe with one scan over the provided columns.
+     */
+    void addAll(long[] occurrenceAtEpochMillis, double[] vegetation, int count) {
+        stripeOfCurrentThread().addAll(occurrenceAtEpochMillis, vegetation, count);
+    }
+
+    /*
+        Note: bulk load of a day of a snapshot, the captures are appended to one stripe and the state of the snapshot (which also
+              covers the captures discarded by a downsampling) is merged to the stripe as is, the minute buckets are rebuilt from the captures.
+     */
+    void restore(DayCapturesState state, long[] occurrenceAtEpochMillis, double[] vegetation, int count) {
+        if (state.isDownsampled()) {
+            downsampled = true;
+        }
+        stripeOfCurrentThread().restore(state, occurrenceAtEpochMillis, vegetation, count);
+    }
+
+    /*
+        Note: every stripe is added under its lock (O(bins + buckets) per stripe), see `DayCapturesSnapshot`.
+     */
+    DayCapturesSnapshot snapshot(LocalDate date) {
+        DayCapturesSnapshot result = new DayCapturesSnapshot(date);
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                stripe.snapshotTo(result);
+            }
+        }
+        // Note: read after the stripes, a stripe which was already downsampled belongs to a day which is marked as downsampled.
+        if (downsampled) {
+            result.state().markDownsampled();
+        }
+        return result;
+    }
+
+    void collectTo(List<FieldConditionCapture> result) {
+        for (CaptureColumns columns : stripeColumns()) {
+            int size = columns.size();
+            for (int i = 0; i < size; i++) {
+                result.add(new FieldConditionCapture(columns.vegetation(i), Instant.ofEpochMilli(columns.occurrenceAt(i))));
+            }
+        }
+    }
+
+    /*
+        Note: the columns of the created stripes, each one is append-only with its own size.
+     */
+    List<CaptureColumns> stripeColumns() {
+        final List<CaptureColumns> result = new ArrayList<>(1);
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                result.add(stripe.columns);
+            }
+        }
+        return result;
+    }
+
+    /*
+        Note: the merge of the quantile sketches of the stripes, every stripe is merged under its lock (O(bins) per stripe).
+     */
+    QuantileSketch sketch() {
+        QuantileSketch result = new QuantileSketch();
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                stripe.mergeSketchTo(result);
+            }
+        }
+        return result;
+    }
+
+    /*
+        Note: merges the buckets of the resolution (hour or minute) which start in [fromMillis, toMillis) to the target,
+              a downsampled day (or a day without minute rollups) has no minute buckets.
+     */
+    void mergeRollupsTo(RollupResolution resolution, Map<Instant, DailyAggregate> target, long fromMillis, long toMillis) {
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                stripe.mergeRollupsTo(resolution, target, fromMillis, toMillis);
+            }
+        }
+    }
+
+    /*
+        Note: discards the captures and the minute buckets of the day, returns the bytes they were holding.
+              A capture of the day which is saved afterwards is kept until the next downsampling of the day.
+     */
+    long downsample() {
+        downsampled = true;
+
+        long bytes = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                bytes += stripe.downsample();
+            }
+        }
+        return bytes;
+    }
+
+    /*
+        Note: whether captures of the day were discarded, so the captures of the day are not all of its captures any more.
+     */
+    boolean isDownsampled() {
+        return downsampled;
+    }
+
+    DailyAggregate aggregate() {
+        DailyAggregate result = DailyAggregate.EMPTY;
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                result = result.merge(stripe.aggregate);
+            }
+        }
+        return result;
+    }
+
+    /*
+        Note: recalculated from the captures (and not from the running aggregates), a downsampled day only has its running aggregate.
+     */
+    double averageOfVegetation() {
+        if (downsampled) {
+            return aggregate().average();
+        }
+
+        double sum = 0.0D;
+        long count = 0;
+        for (CaptureColumns columns : stripeColumns()) {
+            int size = columns.size();
+            sum += columns.sumOfVegetation(size);
+            count += size;
+        }
+        return count == 0 ? 0.0D : sum / count;
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                size += stripe.columns.size();
+            }
+        }
+        return size;
+    }
+
+    /*
+        Note: approximation of the heap bytes retained by the columns of the stripes.
+     */
+    long allocatedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            Stripe stripe = stripes.get(i);
+            if (stripe != null) {
+                bytes += stripe.columns.allocatedBytes() + stripe.sketchAndRollupsAllocatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // ------ internals ------
+
+    private Stripe stripeOfCurrentThread() {
+        int idx = (int) Thread.currentThread().getId() & stripeMask;
+
+        Stripe stripe = stripes.get(idx);
+        if (stripe == null) {
+            Stripe created = new Stripe(minuteRollups && !downsampled);
+            stripe = stripes.compareAndSet(idx, null, created) ? created : stripes.get(idx);
+        }
+        return stripe;
+    }
+
+    /*
+        Note: the threads whose ids are equal under the mask share a stripe and its lock (e.g. 32 request threads over 8 stripes
+              are 4 writers per stripe), so the striping divides the contention of a day by the stripes and does not remove it.
+              With the write-ahead log or the ingestion pipeline the captures are saved by one thread (the committer or the consumer
+              of a shard), so the lock is uncontended.
+              The lock gives the columns their single writer, readers only need visibility of the latest aggregate and columns (`volatile`).
+              The sketch and the buckets are mutable, so they are read under the lock too (by the calculator and the time series queries).
+     */
+    private static final class Stripe {
+
+        private volatile CaptureColumns columns = new CaptureColumns();
+
+        private final QuantileSketch sketch = new QuantileSketch();
+
+        private final RollupBuckets hours = new RollupBuckets(RollupResolution.HOUR);
+
+        // Note: null if the minute rollups are disabled (or the day is downsampled).
+        private RollupBuckets minutes;
+
+        private volatile DailyAggregate aggregate = DailyAggregate.EMPTY;
+
+        private Stripe(boolean minuteRollups) {
+            this.minutes = minuteRollups ? new RollupBuckets(RollupResolution.MINUTE) : null;
+        }
+
+        synchronized void add(long occurrenceAtEpochMillis, double vegetation) {
+            columns.append(occurrenceAtEpochMillis, vegetation);
+            sketch.add(vegetation);
+            addToRollups(occurrenceAtEpochMillis, vegetation);
+            aggregate = aggregate.add(vegetation);
+        }
+
+        synchronized void mergeSketchTo(QuantileSketch target) {
+            target.merge(sketch);
+        }
+
+        synchronized void mergeRollupsTo(RollupResolution resolution, Map<Instant, DailyAggregate> target, long fromMillis, long toMillis) {
+            RollupBuckets buckets = resolution == RollupResolution.MINUTE ? minutes : hours;
+            if (buckets != null) {
+                buckets.mergeTo(target, fromMillis, toMillis);
+            }
+        }
+
+        synchronized long sketchAndRollupsAllocatedBytes() {
+            return sketch.allocatedBytes() + hours.allocatedBytes() + (minutes == null ? 0 : minutes.allocatedBytes());
+        }
+
+        synchronized void addAll(long[] occurrenceAtEpochMillis, double[] vegetation, int count) {
+            columns.appendAll(occurrenceAtEpochMillis, vegetation, count);
+
+            for (int i = 0; i < count; i++) {
+                sketch.add(vegetation[i]);
+                addToRollups(occurrenceAtEpochMillis[i], vegetation[i]);
+            }
+            aggregate = aggregate.addAll(vegetation, count);
+        }
+
+        synchronized void restore(DayCapturesState state, long[] occurrenceAtEpochMillis, double[] vegetation, int count) {
+            columns.appendAll(occurrenceAtEpochMillis, vegetation, count);
+
+            if (minutes != null) {
+                for (int i = 0; i < count; i++) {
+                    minutes.add(occurrenceAtEpochMillis[i], vegetation[i]);
+                }
+            }
+            sketch.merge(state.sketch());
+            hours.merge(state.hours());
+            aggregate = aggregate.merge(state.aggregate());
+        }
+
+        synchronized void snapshotTo(DayCapturesSnapshot target) {
+            target.addStripe(columns, aggregate, sketch, hours);
+        }
+
+        /*
+            Note: a reader which still holds the discarded columns keeps reading them, they are not recycled.
+         */
+        synchronized long downsample() {
+            long bytes = columns.allocatedBytes() + (minutes == null ? 0 : minutes.allocatedBytes());
+            columns = new CaptureColumns();
+            minutes = null;
+            return bytes;
+        }
+
+        private void addToRollups(long occurrenceAtEpochMillis, double vegetation) {
+            hours.add(occurrenceAtEpochMillis, vegetation);
+            if (minutes != null) {
+                minutes.add(occurrenceAtEpochMillis, vegetation);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/*
+    Note: point in time, read-only view of the captures of one day and of its state (see `DayCapturesState`).
+
+          The columns (one per stripe of the day) are append-only, so the first `sizes[i]` captures of each one never change
+          and the view can be read while new captures are appended (no copy is needed). The state of every stripe is merged
+          under the lock of the stripe together with the size of its columns, so the state covers the same captures as the view
+          (plus the captures which a downsampling discarded).
+ */
+public final class DayCapturesSnapshot {
+
+    private final LocalDate date;
+    private final List<CaptureColumns> columns = new ArrayList<>(1);
+    private int[] sizes = new int[0];
+    private int size;
+    private final DayCapturesState state = new DayCapturesState();
+
+    DayCapturesSnapshot(LocalDate date) {
+        this.date = date;
+    }
+
+    public LocalDate date() {
+        return date;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public DayCapturesState state() {
+        return state;
+    }
+
+    // Note: both iterate the stripes in the same order, so the n-th occurrence belongs to the n-th vegetation.
+
+    public void forEachOccurrenceAt(LongConsumer consumer) {
+        for (int i = 0; i < sizes.length; i++) {
+            columns.get(i).forEachOccurrenceAt(sizes[i], consumer);
+        }
+    }
+
+    public void forEachVegetation(DoubleConsumer consumer) {
+        for (int i = 0; i < sizes.length; i++) {
+            columns.get(i).forEachVegetation(sizes[i], consumer);
+        }
+    }
+
+    /*
+        Note: adds one stripe, the caller holds the lock of the stripe.
+     */
+    void addStripe(CaptureColumns stripeColumns, DailyAggregate stripeAggregate, QuantileSketch stripeSketch, RollupBuckets stripeHours) {
+        int stripeSize = stripeColumns.size();
+
+        columns.add(stripeColumns);
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        sizes[sizes.length - 1] = stripeSize;
+        size += stripeSize;
+
+        state.add(stripeAggregate, stripeSketch, stripeHours);
+    }
+}
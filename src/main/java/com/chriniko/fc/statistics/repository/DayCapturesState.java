@@ -0,0 +1,93 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.nio.ByteBuffer;
+
+/*
+    Note: the state of one day which is not kept in its captures: the running aggregate, the quantile sketch and the hour buckets
+          (merged over the stripes), and whether the day is downsampled. The captures of a downsampled day are not all of its captures,
+          so this state is the only source of its statistics and it is written to the snapshots (see `SnapshotStore`).
+
+          Layout: downsampled(int), aggregate count(long), sum, compensation, m2, min, max(double),
+                  then the quantile sketch (see `QuantileSketch#encodeTo`) and the hour buckets (see `RollupBuckets#encodeTo`).
+ */
+public final class DayCapturesState {
+
+    private static final int AGGREGATE_BYTES = Long.BYTES + 5 * Double.BYTES;
+
+    private boolean downsampled;
+    private DailyAggregate aggregate;
+    private final QuantileSketch sketch;
+    private final RollupBuckets hours;
+
+    DayCapturesState() {
+        this(false, DailyAggregate.EMPTY, new QuantileSketch(), new RollupBuckets(RollupResolution.HOUR));
+    }
+
+    private DayCapturesState(boolean downsampled, DailyAggregate aggregate, QuantileSketch sketch, RollupBuckets hours) {
+        this.downsampled = downsampled;
+        this.aggregate = aggregate;
+        this.sketch = sketch;
+        this.hours = hours;
+    }
+
+    public static DayCapturesState decode(ByteBuffer source) {
+        boolean downsampled = source.getInt() != 0;
+        DailyAggregate aggregate = DailyAggregate.of(
+                source.getLong(),
+                source.getDouble(),
+                source.getDouble(),
+                source.getDouble(),
+                source.getDouble(),
+                source.getDouble()
+        );
+        QuantileSketch sketch = QuantileSketch.decode(source);
+        RollupBuckets hours = RollupBuckets.decode(RollupResolution.HOUR, source);
+
+        return new DayCapturesState(downsampled, aggregate, sketch, hours);
+    }
+
+    public int encodedBytes() {
+        return Integer.BYTES + AGGREGATE_BYTES + sketch.encodedBytes() + hours.encodedBytes();
+    }
+
+    public void encodeTo(ByteBuffer target) {
+        target.putInt(downsampled ? 1 : 0)
+                .putLong(aggregate.getCount())
+                .putDouble(aggregate.getSum())
+                .putDouble(aggregate.getCompensation())
+                .putDouble(aggregate.getM2())
+                .putDouble(aggregate.getMin())
+                .putDouble(aggregate.getMax());
+        sketch.encodeTo(target);
+        hours.encodeTo(target);
+    }
+
+    public boolean isDownsampled() {
+        return downsampled;
+    }
+
+    public DailyAggregate aggregate() {
+        return aggregate;
+    }
+
+    QuantileSketch sketch() {
+        return sketch;
+    }
+
+    RollupBuckets hours() {
+        return hours;
+    }
+
+    /*
+        Note: merges the state of one stripe, the caller holds the lock of the stripe.
+     */
+    void add(DailyAggregate stripeAggregate, QuantileSketch stripeSketch, RollupBuckets stripeHours) {
+        aggregate = aggregate.merge(stripeAggregate);
+        sketch.merge(stripeSketch);
+        hours.merge(stripeHours);
+    }
+
+    void markDownsampled() {
+        downsampled = true;
+    }
+}
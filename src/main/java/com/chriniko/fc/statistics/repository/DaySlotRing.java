@@ -0,0 +1,129 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/*
+    Note: fixed-size circular array of day slots, the captures of a day live in slot `epochDay mod capacity`,
+          so a day is looked up with one array read (no hashing) and the store never holds more than `capacity` days.
+
+          A slot is claimed (compare-and-set) by a newer day once the day it holds has expired, so the history slides day by day
+          and there is no moment in which everything is dropped at once. A day which is older than the day of its slot
+          (or older than the window) is out of window and it is not stored.
+
+          The expired day is not recycled in place: a snapshot or a calculation may still read its columns, and a new day only
+          allocates its (chunked) columns on its first captures, so a slot costs a few hundred bytes until it is written.
+ */
+final class DaySlotRing {
+
+    private final int capacity;
+    private final int dayStripes;
+    private final boolean minuteRollups;
+    private final AtomicReferenceArray<Slot> slots;
+
+    DaySlotRing(int capacity, int dayStripes) {
+        this(capacity, dayStripes, false);
+    }
+
+    DaySlotRing(int capacity, int dayStripes, boolean minuteRollups) {
+        this.capacity = capacity;
+        this.dayStripes = dayStripes;
+        this.minuteRollups = minuteRollups;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /*
+        Note: the captures of the day, or null if the day is not stored.
+     */
+    DayCaptures get(long epochDay) {
+        Slot slot = slots.get(indexOf(epochDay));
+        return slot != null && slot.epochDay == epochDay ? slot.captures : null;
+    }
+
+    /*
+        Note: the captures of the day (the slot is claimed if it holds an older day), or null if the slot holds a newer day.
+              The caller checks that the day is in the window, so a day never claims the slot of a day which is still retained.
+     */
+    DayCaptures getOrClaim(long epochDay) {
+        int idx = indexOf(epochDay);
+        while (true) {
+            Slot slot = slots.get(idx);
+            if (slot != null && slot.epochDay == epochDay) {
+                return slot.captures;
+            }
+            if (slot != null && slot.epochDay > epochDay) {
+                return null;
+            }
+
+            Slot claimed = new Slot(epochDay, new DayCaptures(dayStripes, minuteRollups));
+            if (slots.compareAndSet(idx, slot, claimed)) {
+                return claimed.captures;
+            }
+        }
+    }
+
+    /*
+        Note: removes the day only if its slot still holds it.
+     */
+    boolean remove(long epochDay) {
+        int idx = indexOf(epochDay);
+        Slot slot = slots.get(idx);
+        return slot != null && slot.epochDay == epochDay && slots.compareAndSet(idx, slot, null);
+    }
+
+    void forEach(BiConsumer<LocalDate, DayCaptures> consumer) {
+        for (int i = 0; i < capacity; i++) {
+            Slot slot = slots.get(i);
+            if (slot != null) {
+                consumer.accept(LocalDate.ofEpochDay(slot.epochDay), slot.captures);
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        for (int i = 0; i < capacity; i++) {
+            if (slots.get(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void clear() {
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i, null);
+        }
+    }
+
+    // ------ internals ------
+
+    private int indexOf(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) capacity);
+    }
+
+    private static final class Slot {
+
+        private final long epochDay;
+        private final DayCaptures captures;
+
+        private Slot(long epochDay, DayCaptures captures) {
+            this.epochDay = epochDay;
+            this.captures = captures;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.CaptureStatistics;
+import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.dto.VegetationQuantiles;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+    Note: immutable publication of the statistics calculator, the statistics together with their response body already encoded (json)
+          and their version, so a read of the statistics writes the same bytes to every request (no serialization, no allocation per request).
+
+          The version increases only when the published statistics change, the entity tag is the version prefixed with the
+          start of the process (so a tag of a previous process never matches).
+ */
+public final class EncodedStatistics {
+
+    private static final String PROCESS_EPOCH = Long.toHexString(System.currentTimeMillis());
+
+    // Note: same bytes as the serialization of an empty `FieldStatistics` (the statistics before the first calculation).
+    public static final EncodedStatistics EMPTY = new EncodedStatistics(
+            new VegetationStatistic(),
+            "{\"vegetation\":{\"min\":0.0,\"max\":0.0,\"avg\":0.0}}".getBytes(StandardCharsets.UTF_8),
+            0
+    );
+
+    // Note: a copy, the dtos are mutable.
+    private final FieldStatistics statistics;
+    private final byte[] body;
+    private final long version;
+    private final String entityTag;
+
+    public EncodedStatistics(VegetationStatistic statistic, byte[] body, long version) {
+        this(new FieldStatistics(statistic), body, version);
+    }
+
+    public EncodedStatistics(FieldStatistics statistics, byte[] body, long version) {
+        this.statistics = copyOf(statistics);
+        this.body = body;
+        this.version = version;
+        this.entityTag = "\"" + PROCESS_EPOCH + "-" + version + "\"";
+    }
+
+    /*
+        Note: whether the value of an `If-None-Match` header (one or more tags, weak or strong, or `*`) matches this publication.
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || entityTag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isSameStatistics(FieldStatistics other) {
+        return statistics.equals(other);
+    }
+
+    /*
+        Note: shared by all the readers, it should not be modified.
+     */
+    public byte[] body() {
+        return body;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public String entityTag() {
+        return entityTag;
+    }
+
+    // ------ internals ------
+
+    private static FieldStatistics copyOf(FieldStatistics statistics) {
+        VegetationStatistic vegetation = statistics.getVegetation();
+        VegetationQuantiles quantiles = statistics.getQuantiles();
+        CaptureStatistics captures = statistics.getCaptures();
+
+        return new FieldStatistics(
+                new VegetationStatistic(vegetation.getMin(), vegetation.getMax(), vegetation.getAvg()),
+                quantiles == null ? null : new VegetationQuantiles(quantiles.getMedian(), quantiles.getP90(), quantiles.getP99()),
+                captures == null ? null : new CaptureStatistics(captures.getCount(), captures.getAvg(), captures.getStddev())
+        );
+    }
+}
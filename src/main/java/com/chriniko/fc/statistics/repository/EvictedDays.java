@@ -0,0 +1,38 @@
+package com.chriniko.fc.statistics.repository;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/*
+    Note: outcome of one eviction step of the retention, the days removed from the repository, their captures
+          and the bytes which they were holding (heap bytes for memoRepo, segment file bytes for mappedFileRepo).
+          Same for one downsampling step, the days which were downsampled and their discarded captures.
+ */
+
+@Getter
+@ToString
+@EqualsAndHashCode
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class EvictedDays {
+
+    public static final EvictedDays NONE = new EvictedDays(0, 0, 0);
+
+    private final int days;
+    private final long captures;
+    private final long bytes;
+
+    public static EvictedDays of(int days, long captures, long bytes) {
+        return days == 0 ? NONE : new EvictedDays(days, captures, bytes);
+    }
+
+    public boolean isEmpty() {
+        return days == 0;
+    }
+
+    public EvictedDays plus(EvictedDays other) {
+        return other.isEmpty() ? this : of(days + other.days, captures + other.captures, bytes + other.bytes);
+    }
+}
@@ -4,23 +4,93 @@ import com.chriniko.fc.statistics.dto.FieldConditionCapture;
 import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
 import com.chriniko.fc.statistics.dto.VegetationStatistic;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 public interface FieldConditionRepository {
 
     void save(FieldConditionCapture capture);
 
+    void saveAll(CaptureBatch batch);
+
     List<FieldConditionCapture> findAll();
 
     List<MergedFieldConditionCapture> findAllMergedOrderByOccurrenceDesc(int pastDays);
 
     int noOfMergedRecords();
 
+    /*
+        Note: the quantile sketches of the days of the last `pastDays` days (a day without captures is not included),
+              empty if the repository does not keep sketches.
+     */
+    default Map<LocalDate, QuantileSketch> findQuantileSketchesOfLastDays(int pastDays) {
+        return Collections.emptyMap();
+    }
+
+    /*
+        Note: the aggregates (count, compensated sum, squared deviations, min, max) of the captures of the days of the last `pastDays` days
+              (a day without captures is not included), empty if the repository does not keep them.
+     */
+    default Map<LocalDate, DailyAggregate> findDailyAggregatesOfLastDays(int pastDays) {
+        return Collections.emptyMap();
+    }
+
+    /*
+        Note: the aggregates of the buckets of the resolution which start in [from, to), by the start of the bucket
+              (a bucket without captures is not included), empty if the repository does not keep them.
+     */
+    default SortedMap<Instant, DailyAggregate> findRollups(RollupResolution resolution, Instant from, Instant to) {
+        return Collections.emptySortedMap();
+    }
+
     int noOfRecords();
 
     VegetationStatistic vegetationStatistics();
 
     void updateVegetationStatistics(VegetationStatistic statistic);
 
+    EncodedStatistics encodedStatistics();
+
+    void updateEncodedStatistics(EncodedStatistics statistics);
+
+    DailyStatisticsIndex dailyStatisticsIndex();
+
+    void updateDailyStatisticsIndex(DailyStatisticsIndex index);
+
+    WindowStatistics windowStatistics();
+
+    void updateWindowStatistics(WindowStatistics statistics);
+
     void clear();
+
+    /*
+        Note: changes whenever the stored captures change (saves, evictions, clear), so a reader can detect that nothing changed
+              without reading the captures. Only compare it for equality, it is not a count of captures.
+     */
+    long writeVersion();
+
+    /*
+        Note: removes (at most `maxDays` of) the oldest days which are before `cutoff`, one eviction step of the retention.
+     */
+    EvictedDays evictDaysBefore(LocalDate cutoff, int maxDays);
+
+    /*
+        Note: discards the captures (and the minute rollups) of (at most `maxDays` of) the oldest days which are before `cutoff`
+              and keeps their statistics and hour rollups, one downsampling step of the retention. Nothing is discarded if the repository
+              does not keep rollups.
+     */
+    default EvictedDays downsampleDaysBefore(LocalDate cutoff, int maxDays) {
+        return EvictedDays.NONE;
+    }
+
+    /*
+        Note: whether a capture of this occurrence can be stored (a repository with a bounded window of days does not store the rest).
+     */
+    default boolean isInRetainedWindow(long occurrenceAtEpochMillis) {
+        return true;
+    }
 }
@@ -5,11 +5,11 @@ import com.chriniko.fc.statistics.dto.FieldConditionCapture;
 import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
 import com.chriniko.fc.statistics.dto.VegetationStatistic;
 import com.chriniko.fc.statistics.error.BusinessProcessingException;
-import com.google.common.collect.Lists;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import javax.validation.constraints.NotNull;
@@ -17,30 +17,61 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /*
     Note: this repository and worker implementation embraces/uses weakly consistent iterators
           (we sacrifice a little bit consistency for having scalability, otherwise we will need to use read/write locks during operations which
-          take place on field: `ConcurrentHashMap<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>> capturesGroupByDate`).
+          take place on field: `DaySlotRing days`).
+
+    Note: the captures of each day are kept in append-only primitive columns (epoch millis, vegetation) and not as boxed
+          `FieldConditionCapture` objects, so `findAll` materializes them and the occurrence is kept in millisecond precision.
+
+    Note: every day keeps a running aggregate (count, sum, min, max) which is updated on save, so when
+          `memoRepo.merged-captures.running-aggregates=true` the merged captures calculation costs O(days) instead of O(captures).
+
+    Note: every day also keeps hour rollups (and minute rollups with `memoRepo.rollups.minutes=true`) updated on save, which serve
+          the time series (see `findRollups`), and an old day can be downsampled (see `downsampleDaysBefore`, `retention.raw-days`),
+          so the memory of the history is bounded by its buckets instead of its captures.
+
+    Note: the days are kept in a fixed-size ring of day slots indexed by epoch day (see `DaySlotRing`, `memoRepo.window.capacity-days`),
+          a save looks its day up with one array read and appends to the day, which is striped by writer thread
+          (see `DayCaptures`, `memoRepo.day-stripes`), so the writers of today scale with the cores instead of serializing on one key.
+
+          The ring retains the days [today - (capacity - 1 - FUTURE_DAYS), today + FUTURE_DAYS], a capture out of this window can not be
+          stored, so it is dropped and counted (it is rejected before, by the input validator, with `field-statistics.out-of-window=reject`).
  */
 
 @Log4j2
 
+@ConditionalOnProperty(name = "field-statistics.repository", havingValue = "memoRepo", matchIfMissing = true)
 @Repository(value = "memoRepo")
 public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepository {
 
+    // Note: tolerance for clocks of the sensors which are ahead of ours.
+    static final int FUTURE_DAYS = 1;
+
     private final MathProvider mathProvider;
-    private final ConcurrentHashMap<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>> capturesGroupByDate;
+    private final DaySlotRing days;
+    private final LongAdder outOfWindowCaptures;
+
+    // Note: striped counter, so the writers of the hot day do not contend on the version.
+    private final LongAdder writeVersion;
 
     private final Clock clock;
-    private final ExecutorService computationWorkers;
+    private final ForkJoinPool computationWorkers;
+    private final int dayStripes;
 
     @Value("${memoRepo.merged-captures.single-thread-approach}")
     private final boolean mergedCapturesCalcSingleThreadApproach;
 
+    @Value("${memoRepo.merged-captures.running-aggregates}")
+    private final boolean mergedCapturesCalcRunningAggregates;
+
     /*
         Note: Need for atomicity (atomic actions) is for multiple writers, in our case we have one writer (which is scheduler/statistics calculator worker)
               so only visibility from other readers (threads) is our concern
@@ -49,22 +80,118 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
      */
     private volatile VegetationStatistic vegetationStatistic = new VegetationStatistic();
 
+    private volatile EncodedStatistics encodedStatistics = EncodedStatistics.EMPTY;
+
+    // Note: published by the statistics calculator, same as the vegetation statistic.
+    private volatile DailyStatisticsIndex dailyStatisticsIndex = DailyStatisticsIndex.EMPTY;
+
+    private volatile WindowStatistics windowStatistics = WindowStatistics.EMPTY;
+
 
     @Autowired
     public FieldConditionRepositoryInMemoryImpl(MathProvider mathProvider,
                                                 Clock clock,
-                                                @Qualifier("computation-workers") ExecutorService computationWorkers,
-                                                @Value("${memoRepo.merged-captures.single-thread-approach}") boolean mergedCapturesCalcSingleThreadApproach) {
+                                                @Qualifier("computation-workers") ForkJoinPool computationWorkers,
+                                                @Value("${memoRepo.merged-captures.single-thread-approach}") boolean mergedCapturesCalcSingleThreadApproach,
+                                                @Value("${memoRepo.merged-captures.running-aggregates}") boolean mergedCapturesCalcRunningAggregates,
+                                                @Value("${memoRepo.day-stripes}") int dayStripes,
+                                                @Value("${memoRepo.window.capacity-days}") int windowCapacityDays,
+                                                @Value("${memoRepo.rollups.minutes}") boolean minuteRollups) {
         this.clock = clock;
         this.mergedCapturesCalcSingleThreadApproach = mergedCapturesCalcSingleThreadApproach;
-        this.capturesGroupByDate = new ConcurrentHashMap<>();
+        this.mergedCapturesCalcRunningAggregates = mergedCapturesCalcRunningAggregates;
         this.mathProvider = mathProvider;
         this.computationWorkers = computationWorkers;
+        // Note: zero means one stripe per available processor.
+        this.dayStripes = dayStripes == 0 ? DayCaptures.defaultStripes() : dayStripes;
+
+        if (this.dayStripes < 1 || this.dayStripes > DayCaptures.MAX_STRIPES || Integer.bitCount(this.dayStripes) != 1) {
+            throw new BusinessProcessingException("memoRepo.day-stripes should be 0 or a power of 2 up to " + DayCaptures.MAX_STRIPES
+                    + ", provided: " + dayStripes);
+        }
+
+        if (windowCapacityDays <= FUTURE_DAYS + 1) {
+            throw new BusinessProcessingException("memoRepo.window.capacity-days should be greater than " + (FUTURE_DAYS + 1)
+                    + ", provided: " + windowCapacityDays);
+        }
+
+        this.days = new DaySlotRing(windowCapacityDays, this.dayStripes, minuteRollups);
+        this.outOfWindowCaptures = new LongAdder();
+        this.writeVersion = new LongAdder();
     }
 
     @Override
     public void clear() {
-        capturesGroupByDate.clear();
+        days.clear();
+        writeVersion.increment();
+    }
+
+    @Override
+    public long writeVersion() {
+        return writeVersion.sum();
+    }
+
+    /*
+        Note: one sweep of the ring (O(capacity) slot reads), the oldest expired days are removed first. A writer which still holds
+              the captures of an evicted day appends to the detached day, so that capture (older than the retention) is not kept.
+     */
+    @Override
+    public EvictedDays evictDaysBefore(LocalDate cutoff, int maxDays) {
+        final TreeMap<LocalDate, DayCaptures> expired = new TreeMap<>();
+        days.forEach((date, dayCaptures) -> {
+            if (date.isBefore(cutoff)) {
+                expired.put(date, dayCaptures);
+            }
+        });
+
+        int evictedDays = 0;
+        long evictedCaptures = 0;
+        long reclaimedBytes = 0;
+
+        for (Map.Entry<LocalDate, DayCaptures> entry : expired.entrySet()) {
+            if (evictedDays == maxDays) {
+                break;
+            }
+            if (days.remove(entry.getKey().toEpochDay())) {
+                evictedDays++;
+                // Note: the aggregate also counts the captures which are already discarded by the downsampling of the day.
+                evictedCaptures += entry.getValue().aggregate().getCount();
+                reclaimedBytes += entry.getValue().allocatedBytes();
+            }
+        }
+
+        if (evictedDays > 0) {
+            writeVersion.increment();
+        }
+        return EvictedDays.of(evictedDays, evictedCaptures, reclaimedBytes);
+    }
+
+    /*
+        Note: same sweep as the eviction, the oldest days first. A downsampled day is downsampled again only if it got captures since.
+     */
+    @Override
+    public EvictedDays downsampleDaysBefore(LocalDate cutoff, int maxDays) {
+        final TreeMap<LocalDate, DayCaptures> candidates = new TreeMap<>();
+        days.forEach((date, dayCaptures) -> {
+            if (date.isBefore(cutoff) && (!dayCaptures.isDownsampled() || dayCaptures.size() > 0)) {
+                candidates.put(date, dayCaptures);
+            }
+        });
+
+        int downsampledDays = 0;
+        long discardedCaptures = 0;
+        long reclaimedBytes = 0;
+
+        for (DayCaptures dayCaptures : candidates.values()) {
+            if (downsampledDays == maxDays) {
+                break;
+            }
+            downsampledDays++;
+            discardedCaptures += dayCaptures.size();
+            reclaimedBytes += dayCaptures.downsample();
+        }
+
+        return EvictedDays.of(downsampledDays, discardedCaptures, reclaimedBytes);
     }
 
     @Override
@@ -73,25 +200,36 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
         @NotNull Instant occurrenceAt = capture.getOccurrenceAt();
         LocalDate localDate = occurrenceAt.atZone(clock.getZone()).toLocalDate();
 
-        capturesGroupByDate.compute(localDate, (_occurrenceAt, _captures) -> {
-            if (_captures == null) {
-                _captures = new ConcurrentLinkedDeque<>();
-                _captures.add(capture);
-                return _captures;
-            } else {
-                _captures.add(capture);
-                return _captures;
+        DayCaptures dayCaptures = dayCapturesOf(localDate);
+        if (dayCaptures == null) {
+            outOfWindowCaptures.increment();
+            return;
+        }
+        dayCaptures.add(capture);
+        writeVersion.increment();
+    }
+
+    /*
+        Note: the batch is grouped by day first, so every day of the batch costs one lookup and one bulk append.
+     */
+    @Override
+    public void saveAll(CaptureBatch batch) {
+        CapturesByDay.group(batch, clock.getZone()).forEach((localDate, dayBatch) -> {
+            DayCaptures dayCaptures = dayCapturesOf(localDate);
+            if (dayCaptures == null) {
+                outOfWindowCaptures.add(dayBatch.size());
+                return;
             }
+            dayCaptures.addAll(dayBatch.occurrenceAtColumn(), dayBatch.vegetationColumn(), dayBatch.size());
+            writeVersion.increment();
         });
     }
 
     @Override
     public List<FieldConditionCapture> findAll() {
-        return capturesGroupByDate
-                .values()
-                .stream()
-                .flatMap(Deque::stream)
-                .collect(Collectors.toList());
+        final List<FieldConditionCapture> result = new ArrayList<>();
+        days.forEach((date, dayCaptures) -> dayCaptures.collectTo(result));
+        return result;
     }
 
     @Override
@@ -104,9 +242,39 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
         vegetationStatistic = statistic;
     }
 
+    @Override
+    public EncodedStatistics encodedStatistics() {
+        return encodedStatistics;
+    }
+
+    @Override
+    public void updateEncodedStatistics(EncodedStatistics statistics) {
+        encodedStatistics = statistics;
+    }
+
+    @Override
+    public DailyStatisticsIndex dailyStatisticsIndex() {
+        return dailyStatisticsIndex;
+    }
+
+    @Override
+    public void updateDailyStatisticsIndex(DailyStatisticsIndex index) {
+        dailyStatisticsIndex = index;
+    }
+
+    @Override
+    public WindowStatistics windowStatistics() {
+        return windowStatistics;
+    }
+
+    @Override
+    public void updateWindowStatistics(WindowStatistics statistics) {
+        windowStatistics = statistics;
+    }
+
     @Override
     public List<MergedFieldConditionCapture> findAllMergedOrderByOccurrenceDesc(int pastDays) {
-        if (capturesGroupByDate.isEmpty()) {
+        if (days.isEmpty()) {
             return Collections.emptyList();
         }
 
@@ -115,10 +283,12 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
         final List<MergedFieldConditionCapture> mergedFieldConditionCaptures;
 
         MergedCapturesCalculationStrategy calculationStrategy;
-        if (mergedCapturesCalcSingleThreadApproach) {
+        if (mergedCapturesCalcRunningAggregates) {
+            calculationStrategy = new MergedCapturesCalculationRunningAggregatesStrategy(pastDays);
+        } else if (mergedCapturesCalcSingleThreadApproach) {
             calculationStrategy = new MergedCapturesCalculationSingleThreadStrategy(pastDays);
         } else {
-            calculationStrategy = new MergedCapturesCalculationMultiThreadStrategy(pastDays);
+            calculationStrategy = new MergedCapturesCalculationForkJoinStrategy(pastDays);
         }
         mergedFieldConditionCaptures = calculationStrategy.calculateMergedCaptures();
 
@@ -129,7 +299,9 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
                 .collect(Collectors.toList());
 
         long totalTime = System.nanoTime() - startTime;
-        log.trace("total time took to calculate findAllMergedOrderByOccurrenceDesc---multithread: "
+        log.trace("total time took to calculate findAllMergedOrderByOccurrenceDesc---runningAggregates: "
+                + mergedCapturesCalcRunningAggregates
+                + ", forkJoin: "
                 + !mergedCapturesCalcSingleThreadApproach
                 + ", in ms: "
                 + TimeUnit.MILLISECONDS.convert(totalTime, TimeUnit.NANOSECONDS)
@@ -138,14 +310,153 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
         return result;
     }
 
+    /*
+        Note: O(days * stripes * bins), every day of the window merges the sketches of its stripes.
+     */
+    @Override
+    public Map<LocalDate, QuantileSketch> findQuantileSketchesOfLastDays(int pastDays) {
+        final Map<LocalDate, QuantileSketch> result = new HashMap<>();
+        days.forEach((date, dayCaptures) -> {
+            if (!isInLastDays(date, pastDays)) {
+                return;
+            }
+            QuantileSketch sketch = dayCaptures.sketch();
+            if (!sketch.isEmpty()) {
+                result.put(date, sketch);
+            }
+        });
+        return result;
+    }
+
+    /*
+        Note: O(days * stripes), the aggregates are maintained on every save.
+     */
+    @Override
+    public Map<LocalDate, DailyAggregate> findDailyAggregatesOfLastDays(int pastDays) {
+        final Map<LocalDate, DailyAggregate> result = new HashMap<>();
+        days.forEach((date, dayCaptures) -> {
+            if (!isInLastDays(date, pastDays)) {
+                return;
+            }
+            DailyAggregate aggregate = dayCaptures.aggregate();
+            if (!aggregate.isEmpty()) {
+                result.put(date, aggregate);
+            }
+        });
+        return result;
+    }
+
+    /*
+        Note: O(days of the range * stripes * buckets), a day bucket is the running aggregate of the day.
+     */
+    @Override
+    public SortedMap<Instant, DailyAggregate> findRollups(RollupResolution resolution, Instant from, Instant to) {
+        final ZoneId zone = clock.getZone();
+        final LocalDate firstDate = from.atZone(zone).toLocalDate();
+        final LocalDate lastDate = to.minusMillis(1).atZone(zone).toLocalDate();
+        final long fromMillis = from.toEpochMilli();
+        final long toMillis = to.toEpochMilli();
+
+        final SortedMap<Instant, DailyAggregate> result = new TreeMap<>();
+        days.forEach((date, dayCaptures) -> {
+            if (date.isBefore(firstDate) || date.isAfter(lastDate)) {
+                return;
+            }
+
+            if (resolution != RollupResolution.DAY) {
+                dayCaptures.mergeRollupsTo(resolution, result, fromMillis, toMillis);
+                return;
+            }
+
+            Instant startOfDay = date.atStartOfDay(zone).toInstant();
+            DailyAggregate aggregate = dayCaptures.aggregate();
+            if (!aggregate.isEmpty() && !startOfDay.isBefore(from) && startOfDay.isBefore(to)) {
+                result.put(startOfDay, aggregate);
+            }
+        });
+        return result;
+    }
+
     @Override
     public int noOfMergedRecords() {
-        return capturesGroupByDate.size();
+        return days.size();
     }
 
     @Override
     public int noOfRecords() {
-        return capturesGroupByDate.entrySet().stream().mapToInt(c -> c.getValue().size()).sum();
+        final int[] records = {0};
+        days.forEach((date, dayCaptures) -> records[0] += dayCaptures.size());
+        return records[0];
+    }
+
+    @Override
+    public boolean isInRetainedWindow(long occurrenceAtEpochMillis) {
+        LocalDate localDate = Instant.ofEpochMilli(occurrenceAtEpochMillis).atZone(clock.getZone()).toLocalDate();
+        return isRetainedDay(localDate.toEpochDay());
+    }
+
+    /*
+        Note: captures which were not stored because their day is out of the retained window (e.g. too old sensor data or on recovery).
+     */
+    public long outOfWindowCaptures() {
+        return outOfWindowCaptures.sum();
+    }
+
+    /*
+        Note: O(days) (and the sketch and the hour buckets of every stripe are merged), the returned views are not affected
+              by the captures which are saved afterwards.
+     */
+    public List<DayCapturesSnapshot> snapshotDays() {
+        final List<DayCapturesSnapshot> result = new ArrayList<>();
+        days.forEach((date, dayCaptures) -> result.add(dayCaptures.snapshot(date)));
+        return result;
+    }
+
+    /*
+        Note: bulk load of one day of a snapshot (used on recovery), the state of the day is restored as is and the captures
+              are not added to it again, so a downsampled day keeps the statistics of its discarded captures.
+              Can be invoked concurrently for different days.
+     */
+    public void restoreDay(LocalDate date, DayCapturesState state, long[] occurrenceAtEpochMillis, double[] vegetation) {
+        DayCaptures dayCaptures = dayCapturesOf(date);
+        if (dayCaptures == null) {
+            outOfWindowCaptures.add(state.aggregate().getCount());
+            return;
+        }
+        dayCaptures.restore(state, occurrenceAtEpochMillis, vegetation, vegetation.length);
+        writeVersion.increment();
+    }
+
+    /*
+        Note: bulk load of the captures of one day (used on recovery from a snapshot without the state of the days),
+              can be invoked concurrently for different days.
+     */
+    public void restoreDay(LocalDate date, long[] occurrenceAtEpochMillis, double[] vegetation) {
+        DayCaptures dayCaptures = dayCapturesOf(date);
+        if (dayCaptures == null) {
+            outOfWindowCaptures.add(vegetation.length);
+            return;
+        }
+        dayCaptures.addAll(occurrenceAtEpochMillis, vegetation, vegetation.length);
+        writeVersion.increment();
+    }
+
+    /*
+        Note: the captures of the day, or null if the day is out of the retained window.
+     */
+    private DayCaptures dayCapturesOf(LocalDate date) {
+        long epochDay = date.toEpochDay();
+
+        DayCaptures dayCaptures = days.get(epochDay);
+        if (dayCaptures != null) {
+            return dayCaptures;
+        }
+        return isRetainedDay(epochDay) ? days.getOrClaim(epochDay) : null;
+    }
+
+    private boolean isRetainedDay(long epochDay) {
+        long today = LocalDate.now(clock).toEpochDay();
+        return epochDay <= today + FUTURE_DAYS && epochDay > today + FUTURE_DAYS - days.capacity();
     }
 
     private boolean isInLastDays(LocalDate date, int pastDays) {
@@ -171,32 +482,53 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
 
         protected abstract List<MergedFieldConditionCapture> calculateMergedCaptures();
 
-        MergedFieldConditionCapture calculateMergedCapture(LocalDate date, ConcurrentLinkedDeque<FieldConditionCapture> captures) {
+        MergedFieldConditionCapture calculateMergedCapture(LocalDate date, DayCaptures dayCaptures) {
 
-            double avg = captures.stream().mapToDouble(FieldConditionCapture::getVegetation).average().orElse(0.0D);
+            double avg = dayCaptures.averageOfVegetation();
             avg = mathProvider.scale(avg, 2);
 
             return new MergedFieldConditionCapture(date, avg);
         }
 
-        protected ConcurrentHashMap<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>> keepRecordsInLastDays(
-                ConcurrentHashMap<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>> input,
-                int pastDays) {
-            return input
-                    .entrySet()
-                    .stream()
-                    .filter(entry -> isInLastDays(entry.getKey(), pastDays))
-                    .collect(
-                            Collectors.toMap(
-                                    Map.Entry::getKey,
-                                    Map.Entry::getValue,
-                                    (captures1, captures2) -> {
-                                        captures1.addAll(captures2);
-                                        return captures1;
-                                    },
-                                    ConcurrentHashMap::new
-                            )
-                    );
+        protected Map<LocalDate, DayCaptures> keepRecordsInLastDays(int pastDays) {
+            final Map<LocalDate, DayCaptures> result = new HashMap<>();
+            days.forEach((date, dayCaptures) -> {
+                if (isInLastDays(date, pastDays)) {
+                    result.put(date, dayCaptures);
+                }
+            });
+            return result;
+        }
+    }
+
+    /*
+        Note: does not touch the captures at all, it only reads the running aggregate of each day (O(days)).
+     */
+    final class MergedCapturesCalculationRunningAggregatesStrategy extends MergedCapturesCalculationStrategy {
+
+        MergedCapturesCalculationRunningAggregatesStrategy(int pastDays) {
+            super(pastDays);
+        }
+
+        @Override
+        public List<MergedFieldConditionCapture> calculateMergedCaptures() {
+            final LinkedList<MergedFieldConditionCapture> mergedCaptures = new LinkedList<>();
+
+            days.forEach((date, dayCaptures) -> {
+                if (!isInLastDays(date, pastDays)) {
+                    return;
+                }
+
+                DailyAggregate aggregate = dayCaptures.aggregate();
+                if (aggregate.isEmpty()) {
+                    return;
+                }
+
+                double avg = mathProvider.scale(aggregate.average(), 2);
+                mergedCaptures.add(new MergedFieldConditionCapture(date, avg));
+            });
+
+            return mergedCaptures;
         }
     }
 
@@ -210,7 +542,7 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
         public List<MergedFieldConditionCapture> calculateMergedCaptures() {
             final LinkedList<MergedFieldConditionCapture> mergedCaptures = new LinkedList<>();
 
-            keepRecordsInLastDays(capturesGroupByDate, pastDays).forEach((date, captures) -> {
+            keepRecordsInLastDays(pastDays).forEach((date, captures) -> {
                 MergedFieldConditionCapture merged = calculateMergedCapture(date, captures);
                 mergedCaptures.add(merged);
             });
@@ -219,59 +551,132 @@ public class FieldConditionRepositoryInMemoryImpl implements FieldConditionRepos
         }
     }
 
-    final class MergedCapturesCalculationMultiThreadStrategy extends MergedCapturesCalculationStrategy {
+    /*
+        Note: work-stealing calculation on the `computation-workers` fork-join pool. Every stripe of every day of the window is a task
+              and a stripe which holds more captures than the split threshold is split in ranges of its columns, so a single hot day
+              (e.g. a burst of the sensors) is summed by several workers instead of one.
+
+              The split threshold adapts to the captures of the window: captures / (parallelism * SPLITS_PER_WORKER),
+              but never below MIN_SPLIT_THRESHOLD (so small days are not split at all).
+
+              There is no hard timeout: the calculating thread joins the pool (invoke) until the calculation is done,
+              so a refresh never fails because the pool is busy.
+     */
+    final class MergedCapturesCalculationForkJoinStrategy extends MergedCapturesCalculationStrategy {
 
-        private static final long WAIT_TIME_FOR_CALC_IN_MS = 200;
-        private static final int PARTITION_SIZE = 10;
+        private static final int MIN_SPLIT_THRESHOLD = 16_384;
+        private static final int SPLITS_PER_WORKER = 4;
 
-        MergedCapturesCalculationMultiThreadStrategy(int pastDays) {
+        MergedCapturesCalculationForkJoinStrategy(int pastDays) {
             super(pastDays);
         }
 
         @Override
         public List<MergedFieldConditionCapture> calculateMergedCaptures() {
-            final ConcurrentLinkedDeque<MergedFieldConditionCapture> mergedCaptures = new ConcurrentLinkedDeque<>();
-
-            ConcurrentHashMap<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>> filteredEntries = keepRecordsInLastDays(capturesGroupByDate, pastDays);
+            final List<LocalDate> dates = new ArrayList<>();
+            final List<Long> daySizes = new ArrayList<>();
+
+            // Note: the sizes are read once, so each task sums a stable prefix of the append-only columns (of a stripe).
+            final List<CaptureColumns> columns = new ArrayList<>();
+            final List<Integer> sizes = new ArrayList<>();
+            final List<Integer> dayOfColumns = new ArrayList<>();
+            long totalCaptures = 0;
+
+            // Note: a downsampled day has no captures to sum, its running aggregate is used.
+            final List<MergedFieldConditionCapture> downsampledDays = new ArrayList<>();
+
+            for (Map.Entry<LocalDate, DayCaptures> entry : keepRecordsInLastDays(pastDays).entrySet()) {
+                if (entry.getValue().isDownsampled()) {
+                    DailyAggregate aggregate = entry.getValue().aggregate();
+                    if (!aggregate.isEmpty()) {
+                        downsampledDays.add(new MergedFieldConditionCapture(entry.getKey(), mathProvider.scale(aggregate.average(), 2)));
+                    }
+                    continue;
+                }
 
-            List<Map.Entry<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>>> capturesToProcess = new ArrayList<>(filteredEntries.entrySet());
+                long daySize = 0;
+                for (CaptureColumns stripeColumns : entry.getValue().stripeColumns()) {
+                    int size = stripeColumns.size();
+                    if (size == 0) {
+                        continue;
+                    }
+
+                    columns.add(stripeColumns);
+                    sizes.add(size);
+                    dayOfColumns.add(dates.size());
+                    daySize += size;
+                }
 
-            List<List<Map.Entry<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>>>> capturesToProcessPerWorker = Lists.partition(capturesToProcess, PARTITION_SIZE);
+                if (daySize == 0) {
+                    continue;
+                }
 
-            CountDownLatch calculationFinished = new CountDownLatch(capturesToProcessPerWorker.size());
+                dates.add(entry.getKey());
+                daySizes.add(daySize);
+                totalCaptures += daySize;
+            }
 
-            for (List<Map.Entry<LocalDate, ConcurrentLinkedDeque<FieldConditionCapture>>> capturesByDate : capturesToProcessPerWorker) {
+            int splitThreshold = (int) Math.max(
+                    MIN_SPLIT_THRESHOLD,
+                    Math.min(Integer.MAX_VALUE, totalCaptures / ((long) computationWorkers.getParallelism() * SPLITS_PER_WORKER))
+            );
 
-                Runnable workerTask = () -> {
-                    capturesByDate.forEach(entry -> {
-                        MergedFieldConditionCapture merged = calculateMergedCapture(entry.getKey(), entry.getValue());
-                        mergedCaptures.add(merged);
-                    });
+            final List<DaySumTask> tasks = new ArrayList<>(columns.size());
+            for (int i = 0; i < columns.size(); i++) {
+                tasks.add(new DaySumTask(columns.get(i), 0, sizes.get(i), splitThreshold));
+            }
 
-                    calculationFinished.countDown();
-                };
+            computationWorkers.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
 
-                computationWorkers.submit(workerTask);
+            final double[] daySums = new double[dates.size()];
+            for (int i = 0; i < tasks.size(); i++) {
+                daySums[dayOfColumns.get(i)] += tasks.get(i).join();
             }
 
-            wait(calculationFinished);
+            final List<MergedFieldConditionCapture> mergedCaptures = new ArrayList<>(dates.size() + downsampledDays.size());
+            mergedCaptures.addAll(downsampledDays);
+            for (int i = 0; i < dates.size(); i++) {
+                double avg = mathProvider.scale(daySums[i] / daySizes.get(i), 2);
+                mergedCaptures.add(new MergedFieldConditionCapture(dates.get(i), avg));
+            }
+            return mergedCaptures;
+        }
+    }
 
-            return new LinkedList<>(mergedCaptures);
+    /*
+        Note: sum of the vegetation of the positions [from, to) of the columns of a stripe, split in halves while the range is above the threshold.
+     */
+    static final class DaySumTask extends RecursiveTask<Double> {
+
+        private final CaptureColumns columns;
+        private final int from;
+        private final int to;
+        private final int splitThreshold;
+
+        DaySumTask(CaptureColumns columns, int from, int to, int splitThreshold) {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+            this.splitThreshold = splitThreshold;
         }
 
-        private void wait(CountDownLatch calculationFinished) {
-            boolean reachedZero = false;
-            try {
-                reachedZero = calculationFinished.await(WAIT_TIME_FOR_CALC_IN_MS, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                if (!Thread.currentThread().isInterrupted()) {
-                    Thread.currentThread().interrupt();
-                    throw new BusinessProcessingException("processing of merged captures failed", e);
-                }
-            }
-            if (!reachedZero) {
-                throw new BusinessProcessingException("processing of merged captures failed");
+        @Override
+        protected Double compute() {
+            if (to - from <= splitThreshold) {
+                return columns.sumOfVegetation(from, to);
             }
+
+            int middle = (from + to) >>> 1;
+            DaySumTask left = new DaySumTask(columns, from, middle, splitThreshold);
+            left.fork();
+
+            double right = new DaySumTask(columns, middle, to, splitThreshold).compute();
+            return left.join() + right;
         }
     }
 
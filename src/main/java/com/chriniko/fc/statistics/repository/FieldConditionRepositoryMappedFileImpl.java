@@ -0,0 +1,357 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/*
+    Note: this repository keeps the captures off the java heap, in memory-mapped segment files (one segment per day, see `MappedDaySegment`),
+          so the retained history does not grow the GC pauses and a restart only re-maps the existing segments (no re-ingestion).
+
+          The merged captures and the counters are served from the aggregates of the segment headers, so no `FieldConditionCapture`
+          object is materialized (except from `findAll`).
+
+    Note: a clean shutdown leaves the marker file `.clean-shutdown` in the directory, it is removed on startup before any write. Without it
+          the aggregates of the segment headers are recalculated from their records (see `MappedDaySegment`).
+
+    Note: select it with `field-statistics.repository=mappedFileRepo`.
+ */
+
+@Log4j2
+
+@ConditionalOnProperty(name = "field-statistics.repository", havingValue = "mappedFileRepo")
+@Repository(value = "mappedFileRepo")
+public class FieldConditionRepositoryMappedFileImpl implements FieldConditionRepository {
+
+    static final String CLEAN_SHUTDOWN_MARKER = ".clean-shutdown";
+
+    private final MathProvider mathProvider;
+    private final Clock clock;
+
+    private final Path directory;
+    private final int segmentInitialCapacity;
+
+    private final ConcurrentHashMap<LocalDate, MappedDaySegment> segmentsByDate;
+
+    private final LongAdder writeVersion;
+
+    private volatile VegetationStatistic vegetationStatistic = new VegetationStatistic();
+
+    private volatile EncodedStatistics encodedStatistics = EncodedStatistics.EMPTY;
+
+    // Note: published by the statistics calculator, same as the vegetation statistic.
+    private volatile DailyStatisticsIndex dailyStatisticsIndex = DailyStatisticsIndex.EMPTY;
+
+    private volatile WindowStatistics windowStatistics = WindowStatistics.EMPTY;
+
+    @Autowired
+    public FieldConditionRepositoryMappedFileImpl(MathProvider mathProvider,
+                                                  Clock clock,
+                                                  @Value("${mappedFileRepo.directory}") String directory,
+                                                  @Value("${mappedFileRepo.segment-initial-capacity}") int segmentInitialCapacity) {
+        this.mathProvider = mathProvider;
+        this.clock = clock;
+        this.directory = Paths.get(directory);
+        this.segmentInitialCapacity = segmentInitialCapacity;
+        this.segmentsByDate = new ConcurrentHashMap<>();
+        this.writeVersion = new LongAdder();
+
+        openSegments();
+    }
+
+    @PreDestroy
+    void close() {
+        segmentsByDate.values().forEach(segment -> {
+            segment.flush();
+            segment.close();
+        });
+
+        try {
+            Files.write(directory.resolve(CLEAN_SHUTDOWN_MARKER), new byte[0]);
+        } catch (IOException e) {
+            log.error("could not mark the clean shutdown of directory: " + directory + ", message: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void save(FieldConditionCapture capture) {
+        Instant occurrenceAt = capture.getOccurrenceAt();
+        LocalDate localDate = occurrenceAt.atZone(clock.getZone()).toLocalDate();
+
+        MappedDaySegment segment = segmentsByDate.computeIfAbsent(
+                localDate,
+                date -> MappedDaySegment.create(directory, date, segmentInitialCapacity)
+        );
+
+        segment.append(occurrenceAt.toEpochMilli(), capture.getVegetation());
+        writeVersion.increment();
+    }
+
+    @Override
+    public void saveAll(CaptureBatch batch) {
+        CapturesByDay.group(batch, clock.getZone()).forEach((localDate, dayBatch) -> {
+            MappedDaySegment segment = segmentsByDate.computeIfAbsent(
+                    localDate,
+                    date -> MappedDaySegment.create(directory, date, segmentInitialCapacity)
+            );
+
+            segment.appendAll(dayBatch.occurrenceAtColumn(), dayBatch.vegetationColumn(), dayBatch.size());
+            writeVersion.increment();
+        });
+    }
+
+    @Override
+    public List<FieldConditionCapture> findAll() {
+        final List<FieldConditionCapture> result = new ArrayList<>();
+
+        segmentsByDate.values().forEach(segment -> {
+            int size = segment.size();
+            MappedByteBuffer view = segment.view();
+
+            for (int i = 0; i < size; i++) {
+                result.add(new FieldConditionCapture(segment.vegetation(view, i), Instant.ofEpochMilli(segment.occurrenceAt(view, i))));
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public List<MergedFieldConditionCapture> findAllMergedOrderByOccurrenceDesc(int pastDays) {
+        final LocalDate today = LocalDate.now(clock);
+        final List<MergedFieldConditionCapture> result = new ArrayList<>();
+
+        segmentsByDate.forEach((date, segment) -> {
+            long daysDiff = today.toEpochDay() - date.toEpochDay();
+            if (daysDiff < 0 || daysDiff > pastDays) {
+                return;
+            }
+
+            DailyAggregate aggregate = segment.aggregate();
+            if (aggregate.isEmpty()) {
+                return;
+            }
+
+            double avg = mathProvider.scale(aggregate.average(), 2);
+            result.add(new MergedFieldConditionCapture(date, avg));
+        });
+
+        result.sort(Comparator.comparing(MergedFieldConditionCapture::getDate).reversed());
+        return result;
+    }
+
+    /*
+        Note: O(days), the aggregate of a day is kept in the header of its segment.
+     */
+    @Override
+    public Map<LocalDate, DailyAggregate> findDailyAggregatesOfLastDays(int pastDays) {
+        final LocalDate today = LocalDate.now(clock);
+        final Map<LocalDate, DailyAggregate> result = new HashMap<>();
+
+        segmentsByDate.forEach((date, segment) -> {
+            long daysDiff = today.toEpochDay() - date.toEpochDay();
+            if (daysDiff < 0 || daysDiff > pastDays) {
+                return;
+            }
+
+            DailyAggregate aggregate = segment.aggregate();
+            if (!aggregate.isEmpty()) {
+                result.put(date, aggregate);
+            }
+        });
+        return result;
+    }
+
+    /*
+        Note: the segments do not keep rollups, so the buckets are aggregated from the records of the days of the range,
+              O(captures of the range). A day bucket is the aggregate of the header of its segment.
+     */
+    @Override
+    public SortedMap<Instant, DailyAggregate> findRollups(RollupResolution resolution, Instant from, Instant to) {
+        final ZoneId zone = clock.getZone();
+        final LocalDate firstDate = from.atZone(zone).toLocalDate();
+        final LocalDate lastDate = to.minusMillis(1).atZone(zone).toLocalDate();
+        final long fromMillis = from.toEpochMilli();
+        final long toMillis = to.toEpochMilli();
+
+        final SortedMap<Instant, DailyAggregate> result = new TreeMap<>();
+        segmentsByDate.forEach((date, segment) -> {
+            if (date.isBefore(firstDate) || date.isAfter(lastDate)) {
+                return;
+            }
+
+            if (resolution == RollupResolution.DAY) {
+                Instant startOfDay = date.atStartOfDay(zone).toInstant();
+                DailyAggregate aggregate = segment.aggregate();
+                if (!aggregate.isEmpty() && !startOfDay.isBefore(from) && startOfDay.isBefore(to)) {
+                    result.put(startOfDay, aggregate);
+                }
+                return;
+            }
+
+            int size = segment.size();
+            MappedByteBuffer view = segment.view();
+            RollupBuckets buckets = new RollupBuckets(resolution);
+            for (int i = 0; i < size; i++) {
+                buckets.add(segment.occurrenceAt(view, i), segment.vegetation(view, i));
+            }
+            buckets.mergeTo(result, fromMillis, toMillis);
+        });
+        return result;
+    }
+
+    @Override
+    public int noOfMergedRecords() {
+        return segmentsByDate.size();
+    }
+
+    @Override
+    public int noOfRecords() {
+        return segmentsByDate.values().stream().mapToInt(MappedDaySegment::size).sum();
+    }
+
+    @Override
+    public VegetationStatistic vegetationStatistics() {
+        return vegetationStatistic;
+    }
+
+    @Override
+    public void updateVegetationStatistics(VegetationStatistic statistic) {
+        vegetationStatistic = statistic;
+    }
+
+    @Override
+    public EncodedStatistics encodedStatistics() {
+        return encodedStatistics;
+    }
+
+    @Override
+    public void updateEncodedStatistics(EncodedStatistics statistics) {
+        encodedStatistics = statistics;
+    }
+
+    @Override
+    public DailyStatisticsIndex dailyStatisticsIndex() {
+        return dailyStatisticsIndex;
+    }
+
+    @Override
+    public void updateDailyStatisticsIndex(DailyStatisticsIndex index) {
+        dailyStatisticsIndex = index;
+    }
+
+    @Override
+    public WindowStatistics windowStatistics() {
+        return windowStatistics;
+    }
+
+    @Override
+    public void updateWindowStatistics(WindowStatistics statistics) {
+        windowStatistics = statistics;
+    }
+
+    @Override
+    public void clear() {
+        Iterator<MappedDaySegment> iterator = segmentsByDate.values().iterator();
+        while (iterator.hasNext()) {
+            MappedDaySegment segment = iterator.next();
+            iterator.remove();
+            segment.delete();
+        }
+        writeVersion.increment();
+    }
+
+    @Override
+    public long writeVersion() {
+        return writeVersion.sum();
+    }
+
+    /*
+        Note: the segment files of the evicted days are deleted.
+     */
+    @Override
+    public EvictedDays evictDaysBefore(LocalDate cutoff, int maxDays) {
+        List<LocalDate> expired = segmentsByDate.keySet()
+                .stream()
+                .filter(date -> date.isBefore(cutoff))
+                .sorted()
+                .limit(maxDays)
+                .collect(Collectors.toList());
+
+        int evictedDays = 0;
+        long evictedCaptures = 0;
+        long reclaimedBytes = 0;
+
+        for (LocalDate date : expired) {
+            MappedDaySegment segment = segmentsByDate.remove(date);
+            if (segment == null) {
+                continue;
+            }
+
+            evictedDays++;
+            evictedCaptures += segment.size();
+            reclaimedBytes += segment.mappedBytes();
+            segment.delete();
+        }
+
+        if (evictedDays > 0) {
+            writeVersion.increment();
+        }
+        return EvictedDays.of(evictedDays, evictedCaptures, reclaimedBytes);
+    }
+
+    // ------ internals ------
+
+    private void openSegments() {
+        try {
+            Files.createDirectories(directory);
+
+            boolean cleanShutdown = Files.deleteIfExists(directory.resolve(CLEAN_SHUTDOWN_MARKER));
+
+            // Note: segments which a crash left in the middle of their creation (they have no committed records).
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + MappedDaySegment.TEMPORARY_FILE_SUFFIX)) {
+                for (Path path : paths) {
+                    log.warn("deleting segment which was not completely created: " + path);
+                    Files.delete(path);
+                }
+            }
+
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + MappedDaySegment.FILE_SUFFIX)) {
+                for (Path path : paths) {
+                    MappedDaySegment segment = MappedDaySegment.open(path, !cleanShutdown);
+                    segmentsByDate.put(segment.date(), segment);
+                }
+            }
+
+            log.info("mapped segments: " + segmentsByDate.size() + ", records: " + noOfRecords() + ", directory: " + directory
+                    + ", clean shutdown: " + cleanShutdown);
+
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not open segments of directory: " + directory, e);
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.error.BusinessValidationException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/*
+    Note: the repositories of the fields (tenants) of the process, a capture (or a read) with a `fieldId` is routed to the repository of its
+          field, and the fields are hash-sharded (`fields.shards`, power of 2) across independent shards, every shard with its own map
+          of fields and its own set of dirty fields, so the writers of different fields never contend on one structure.
+
+          A field repository is an in-memory repository (see `FieldConditionRepositoryInMemoryImpl`) which is created on the first capture
+          of the field, with `fields.day-stripes` stripes per day (one by default, a field does not have the writers of a whole process),
+          and it allocates its columns only on its captures, so an idle field costs its ring of day slots (a few kilobytes).
+          A field repository keeps hour rollups only (no minute rollups).
+
+          The captures without a `fieldId` (or with the default one) belong to the default field, which is the configured repository
+          (`field-statistics.repository`) with the write-ahead log, the snapshots and the ingestion pipeline, so a deployment of one field
+          works as before. The records of the write-ahead log and of the snapshots have no field, so the fields of the shards are kept
+          only in memory, and a capture of one of them is rejected when the default field is persisted (`wal.enabled`, `snapshot.enabled`
+          or `field-statistics.repository=mappedFileRepo`), instead of being accepted and lost on a restart.
+          The retention evicts and downsamples the days of the fields of the shards too (see `RetentionWorker`).
+
+          A save marks its field as dirty, and the statistics calculator recalculates only the dirty fields (see `drainDirtyFields`).
+          Every shard also keeps the writes which are not calculated yet and since when it is dirty, so the calculation of the shards
+          can be prioritized (see `FieldShardScheduler`).
+ */
+
+@Log4j2
+
+@Component
+public class FieldRepositoryShards {
+
+    public static final String DEFAULT_FIELD_ID = "default";
+
+    private final FieldConditionRepository defaultFieldRepository;
+
+    private final MathProvider mathProvider;
+    private final Clock clock;
+    private final ForkJoinPool computationWorkers;
+    private final int dayStripes;
+    private final int windowCapacityDays;
+    private final boolean persistentDefaultField;
+
+    private final Shard[] shards;
+    private final int maxFields;
+    private final AtomicInteger noOfFields;
+
+    @Autowired
+    public FieldRepositoryShards(FieldConditionRepository defaultFieldRepository,
+                                 MathProvider mathProvider,
+                                 Clock clock,
+                                 @Qualifier("computation-workers") ForkJoinPool computationWorkers,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${fields.shards}") int shards,
+                                 @Value("${fields.max-fields}") int maxFields,
+                                 @Value("${fields.day-stripes}") int dayStripes,
+                                 @Value("${memoRepo.window.capacity-days}") int windowCapacityDays,
+                                 @Value("${wal.enabled}") boolean walEnabled,
+                                 @Value("${snapshot.enabled}") boolean snapshotEnabled,
+                                 @Value("${field-statistics.repository}") String repository) {
+        if (shards < 1 || Integer.bitCount(shards) != 1) {
+            throw new BusinessProcessingException("fields.shards should be a power of 2, provided: " + shards);
+        }
+        if (maxFields < 1) {
+            throw new BusinessProcessingException("fields.max-fields should be positive, provided: " + maxFields);
+        }
+
+        this.defaultFieldRepository = defaultFieldRepository;
+        this.mathProvider = mathProvider;
+        this.clock = clock;
+        this.computationWorkers = computationWorkers;
+        this.dayStripes = dayStripes;
+        this.windowCapacityDays = windowCapacityDays;
+        this.persistentDefaultField = walEnabled || snapshotEnabled || "mappedFileRepo".equals(repository);
+        this.maxFields = maxFields;
+        this.noOfFields = new AtomicInteger();
+
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard();
+        }
+
+        meterRegistry.gauge("fields.count", noOfFields);
+    }
+
+    public static boolean isDefaultField(String fieldId) {
+        return fieldId == null || DEFAULT_FIELD_ID.equals(fieldId);
+    }
+
+    public int noOfShards() {
+        return shards.length;
+    }
+
+    /*
+        Note: the fields of the shards, the default field is not included.
+     */
+    public int noOfFields() {
+        return noOfFields.get();
+    }
+
+    public FieldConditionRepository defaultFieldRepository() {
+        return defaultFieldRepository;
+    }
+
+    /*
+        Note: the repository of the field, or null if the field has no captures yet.
+     */
+    public FieldConditionRepository find(String fieldId) {
+        if (isDefaultField(fieldId)) {
+            return defaultFieldRepository;
+        }
+        return shardOf(fieldId).fields.get(fieldId);
+    }
+
+    /*
+        Note: saves a capture of a field of the shards (a capture of the default field is saved by the service, see `FieldConditionService`).
+     */
+    public void save(String fieldId, FieldConditionCapture capture) {
+        validateAccepted(fieldId);
+        Shard shard = shardOf(fieldId);
+        shard.repositoryOf(fieldId).save(capture);
+        shard.markDirty(fieldId, 1);
+    }
+
+    public void saveAll(String fieldId, CaptureBatch batch) {
+        validateAccepted(fieldId);
+        Shard shard = shardOf(fieldId);
+        shard.repositoryOf(fieldId).saveAll(batch);
+        shard.markDirty(fieldId, batch.size());
+    }
+
+    /*
+        Note: removes and returns the fields of the shard which changed since the previous drain, a field which changes during
+              the calculation of its statistics is marked again, so its next calculation is not lost.
+     */
+    public List<String> drainDirtyFields(int shardIdx) {
+        Shard shard = shards[shardIdx];
+        Set<String> dirtyFields = shard.dirtyFields;
+
+        // Note: reset before the fields are removed, so a concurrent save marks the shard again.
+        shard.pendingWrites.reset();
+        shard.dirtySinceNanos.set(0);
+
+        final List<String> result = new ArrayList<>();
+        for (String fieldId : dirtyFields) {
+            if (dirtyFields.remove(fieldId)) {
+                result.add(fieldId);
+            }
+        }
+        return result;
+    }
+
+    /*
+        Note: marks all the fields of the shards as dirty (e.g. the day rolled over, so the windows of all the fields slide).
+     */
+    public void markAllDirty() {
+        for (Shard shard : shards) {
+            for (String fieldId : shard.fields.keySet()) {
+                shard.markDirty(fieldId, 0);
+            }
+        }
+    }
+
+    public boolean hasDirtyFields(int shardIdx) {
+        return !shards[shardIdx].dirtyFields.isEmpty();
+    }
+
+    /*
+        Note: `System.nanoTime()` of the first change of the shard which is not drained yet, 0 if the shard is clean.
+     */
+    public long dirtySinceNanos(int shardIdx) {
+        return shards[shardIdx].dirtySinceNanos.get();
+    }
+
+    /*
+        Note: captures saved to the shard since its last drain.
+     */
+    public long pendingWrites(int shardIdx) {
+        return shards[shardIdx].pendingWrites.sum();
+    }
+
+    public void forEachField(BiConsumer<String, FieldConditionRepository> action) {
+        for (Shard shard : shards) {
+            shard.fields.forEach(action);
+        }
+    }
+
+    // ------ internals ------
+
+    private void validateAccepted(String fieldId) {
+        if (persistentDefaultField) {
+            throw new BusinessValidationException("fieldId: " + fieldId + " is not accepted, the captures are persisted "
+                    + "(write-ahead log, snapshots or mapped file repository) and only the default field is persisted.");
+        }
+    }
+
+    private Shard shardOf(String fieldId) {
+        int h = fieldId.hashCode();
+        // Note: spread of the higher bits, same as `HashMap`.
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+
+    private FieldConditionRepository createFieldRepository(String fieldId) {
+        if (noOfFields.incrementAndGet() > maxFields) {
+            noOfFields.decrementAndGet();
+            throw new BusinessOverloadedException("max number of fields reached: " + maxFields + ", field: " + fieldId + " is not created.");
+        }
+        log.debug("creating repository of field: " + fieldId);
+
+        return new FieldConditionRepositoryInMemoryImpl(
+                mathProvider,
+                clock,
+                computationWorkers,
+                true,
+                true,
+                dayStripes,
+                windowCapacityDays,
+                false
+        );
+    }
+
+    private final class Shard {
+
+        private final ConcurrentHashMap<String, FieldConditionRepository> fields = new ConcurrentHashMap<>();
+        private final Set<String> dirtyFields = ConcurrentHashMap.newKeySet();
+        private final LongAdder pendingWrites = new LongAdder();
+        private final AtomicLong dirtySinceNanos = new AtomicLong();
+
+        private void markDirty(String fieldId, int writes) {
+            pendingWrites.add(writes);
+            if (dirtySinceNanos.get() == 0) {
+                dirtySinceNanos.compareAndSet(0, System.nanoTime());
+            }
+            dirtyFields.add(fieldId);
+        }
+
+        private FieldConditionRepository repositoryOf(String fieldId) {
+            FieldConditionRepository repository = fields.get(fieldId);
+            if (repository != null) {
+                return repository;
+            }
+            return fields.computeIfAbsent(fieldId, FieldRepositoryShards.this::createFieldRepository);
+        }
+    }
+}
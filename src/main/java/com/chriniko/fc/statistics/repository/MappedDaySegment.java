@@ -0,0 +1,283 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+
+/*
+    Note: memory-mapped segment file which holds the captures of one day as fixed-width records.
+
+          Layout:
+            header (64 bytes): magic(int), version(int), epochDay(long), count(long), sum(double), min(double), max(double),
+                               compensation of the sum(double), sum of squared deviations(double)
+            records (16 bytes each): occurrenceAt epoch millis(long), vegetation(double)
+
+          The header count is written after the record, so it is the commit point of an append, and the header also carries the
+          running aggregate of the day, so re-opening a segment does not need to scan its records.
+          A segment of version 1 (its header has no compensation and no squared deviations) is scanned once on open and upgraded.
+
+          The aggregate fields are written before the count, so after a crash in the middle of a header write the aggregate may
+          include records which are not committed. So the aggregate is trusted only after a clean shutdown (the repository keeps
+          a marker file for it), otherwise the committed records are scanned again on open.
+
+          A segment is created under a temporary name and renamed once its header is written and forced, so a crash in the middle
+          of the creation leaves a temporary file (deleted on the next open of the repository) and never a segment without header.
+
+          When a segment is full it is re-mapped with double capacity, readers which still hold the previous mapping keep reading
+          a valid (smaller) view of the same file.
+ */
+final class MappedDaySegment {
+
+    static final String FILE_SUFFIX = ".seg";
+    static final String TEMPORARY_FILE_SUFFIX = FILE_SUFFIX + ".tmp";
+
+    private static final int MAGIC = 0x46435347; // FCSG
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_DEVIATIONS = 1;
+
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_BYTES = Long.BYTES + Double.BYTES;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int EPOCH_DAY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    private static final int SUM_OFFSET = 24;
+    private static final int MIN_OFFSET = 32;
+    private static final int MAX_OFFSET = 40;
+    private static final int COMPENSATION_OFFSET = 48;
+    private static final int M2_OFFSET = 56;
+
+    private final LocalDate date;
+    private final Path path;
+    private final FileChannel channel;
+
+    private volatile MappedByteBuffer buffer;
+    private volatile DailyAggregate aggregate;
+
+    private MappedDaySegment(LocalDate date, Path path, FileChannel channel, MappedByteBuffer buffer, DailyAggregate aggregate) {
+        this.date = date;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.aggregate = aggregate;
+    }
+
+    static MappedDaySegment create(Path directory, LocalDate date, int initialCapacity) {
+        Path path = directory.resolve(date.toString() + FILE_SUFFIX);
+        Path temporary = directory.resolve(date.toString() + TEMPORARY_FILE_SUFFIX);
+        try {
+            if (Files.exists(path)) {
+                throw new FileAlreadyExistsException(path.toString());
+            }
+
+            // Note: a temporary file which a crash left behind is overwritten.
+            FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytesFor(initialCapacity));
+
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putLong(EPOCH_DAY_OFFSET, date.toEpochDay());
+            writeAggregate(buffer, DailyAggregate.EMPTY);
+            buffer.force();
+
+            // Note: the open channel (and its mapping) follows the file.
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+
+            return new MappedDaySegment(date, path, channel, buffer, DailyAggregate.EMPTY);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not create segment: " + path, e);
+        }
+    }
+
+    /*
+        Note: with `rescan` the aggregate of the header is recalculated from the committed records (after an unclean shutdown).
+     */
+    static MappedDaySegment open(Path path, boolean rescan) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+
+            int version = buffer.capacity() < HEADER_BYTES ? -1 : buffer.getInt(VERSION_OFFSET);
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(MAGIC_OFFSET) != MAGIC
+                    || (version != VERSION && version != VERSION_WITHOUT_DEVIATIONS)) {
+                channel.close();
+                throw new BusinessProcessingException("not a valid segment: " + path);
+            }
+
+            LocalDate date = LocalDate.ofEpochDay(buffer.getLong(EPOCH_DAY_OFFSET));
+
+            DailyAggregate aggregate;
+            if (version == VERSION_WITHOUT_DEVIATIONS || rescan) {
+                long capacityInRecords = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+                aggregate = scanAggregate(buffer, Math.min(buffer.getLong(COUNT_OFFSET), capacityInRecords));
+                writeAggregate(buffer, aggregate);
+                buffer.putInt(VERSION_OFFSET, VERSION);
+            } else {
+                aggregate = DailyAggregate.of(
+                        buffer.getLong(COUNT_OFFSET),
+                        buffer.getDouble(SUM_OFFSET),
+                        buffer.getDouble(COMPENSATION_OFFSET),
+                        buffer.getDouble(M2_OFFSET),
+                        buffer.getDouble(MIN_OFFSET),
+                        buffer.getDouble(MAX_OFFSET)
+                );
+            }
+
+            return new MappedDaySegment(date, path, channel, buffer, aggregate);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not open segment: " + path, e);
+        }
+    }
+
+    synchronized void append(long occurrenceAtEpochMillis, double vegetation) {
+        DailyAggregate current = aggregate;
+        long position = current.getCount();
+
+        MappedByteBuffer target = buffer;
+        if (bytesFor(position + 1) > target.capacity()) {
+            target = grow(target);
+        }
+
+        int offset = recordOffset(position);
+        target.putLong(offset, occurrenceAtEpochMillis);
+        target.putDouble(offset + Long.BYTES, vegetation);
+
+        DailyAggregate next = current.add(vegetation);
+        writeAggregate(target, next);
+
+        aggregate = next;
+    }
+
+    /*
+        Note: appends the records and writes the header once, so the whole batch is committed by a single count update.
+     */
+    synchronized void appendAll(long[] occurrenceAtEpochMillis, double[] vegetation, int count) {
+        DailyAggregate current = aggregate;
+        long position = current.getCount();
+
+        MappedByteBuffer target = buffer;
+        while (bytesFor(position + count) > target.capacity()) {
+            target = grow(target);
+        }
+
+        for (int i = 0; i < count; i++) {
+            int offset = recordOffset(position + i);
+            target.putLong(offset, occurrenceAtEpochMillis[i]);
+            target.putDouble(offset + Long.BYTES, vegetation[i]);
+        }
+
+        DailyAggregate next = current.addAll(vegetation, count);
+        writeAggregate(target, next);
+
+        aggregate = next;
+    }
+
+    LocalDate date() {
+        return date;
+    }
+
+    DailyAggregate aggregate() {
+        return aggregate;
+    }
+
+    int size() {
+        return (int) aggregate.getCount();
+    }
+
+    long occurrenceAt(MappedByteBuffer view, int position) {
+        return view.getLong(recordOffset(position));
+    }
+
+    double vegetation(MappedByteBuffer view, int position) {
+        return view.getDouble(recordOffset(position) + Long.BYTES);
+    }
+
+    /*
+        Note: first read the aggregate and then the mapping, so the returned view covers at least `aggregate().getCount()` records.
+     */
+    MappedByteBuffer view() {
+        return buffer;
+    }
+
+    /*
+        Note: bytes of the segment file (header and the capacity of records).
+     */
+    long mappedBytes() {
+        return buffer.capacity();
+    }
+
+    synchronized void flush() {
+        buffer.force();
+    }
+
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not close segment: " + path, e);
+        }
+    }
+
+    synchronized void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not delete segment: " + path, e);
+        }
+    }
+
+    // ------ internals ------
+
+    private MappedByteBuffer grow(MappedByteBuffer current) {
+        long capacityInRecords = (current.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        long newSize = bytesFor(Math.max(1, capacityInRecords) * 2);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new BusinessProcessingException("segment is full: " + path);
+        }
+
+        try {
+            MappedByteBuffer grown = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+            buffer = grown;
+            return grown;
+        } catch (IOException e) {
+            throw new BusinessProcessingException("could not grow segment: " + path, e);
+        }
+    }
+
+    private static DailyAggregate scanAggregate(MappedByteBuffer buffer, long count) {
+        DailyAggregate aggregate = DailyAggregate.EMPTY;
+        for (long position = 0; position < count; position++) {
+            aggregate = aggregate.add(buffer.getDouble(recordOffset(position) + Long.BYTES));
+        }
+        return aggregate;
+    }
+
+    private static void writeAggregate(MappedByteBuffer buffer, DailyAggregate aggregate) {
+        buffer.putDouble(SUM_OFFSET, aggregate.getSum());
+        buffer.putDouble(COMPENSATION_OFFSET, aggregate.getCompensation());
+        buffer.putDouble(M2_OFFSET, aggregate.getM2());
+        buffer.putDouble(MIN_OFFSET, aggregate.getMin());
+        buffer.putDouble(MAX_OFFSET, aggregate.getMax());
+        // Note: count is the commit point, so it is written last.
+        buffer.putLong(COUNT_OFFSET, aggregate.getCount());
+    }
+
+    private static int recordOffset(long position) {
+        return (int) (HEADER_BYTES + position * RECORD_BYTES);
+    }
+
+    private static long bytesFor(long records) {
+        return HEADER_BYTES + records * RECORD_BYTES;
+    }
+}
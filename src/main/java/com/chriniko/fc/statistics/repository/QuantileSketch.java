@@ -0,0 +1,185 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.nio.ByteBuffer;
+
+/*
+    Note: mergeable quantile sketch with relative accuracy (DDSketch-style): a value `v` is counted in the bin `ceil(log(v) / log(gamma))`,
+          gamma = (1 + a) / (1 - a), so every quantile is answered within `RELATIVE_ACCURACY` (a) of the exact value, whatever the
+          distribution and the number of values, and two sketches merge by adding their bins (so the sketches of days merge into a window).
+
+          The bins are a dense array of counts over a range of indexes which grows with the values, bounded to `MAX_BINS`
+          (a few kilobytes): when the range would be wider, the lowest bins are collapsed into one, so only the lowest quantiles
+          (of values many orders of magnitude below the rest) lose their accuracy. Values which are zero (or below `MIN_INDEXABLE_VALUE`,
+          the vegetation is never negative) are counted apart.
+
+          Not thread safe, the owner serializes the access (see `DayCaptures`).
+ */
+public final class QuantileSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+    static final int MAX_BINS = 1024;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+    private static final int INITIAL_BINS = 64;
+
+    private static final long[] NO_BINS = new long[0];
+
+    // Note: counts of the indexes [offset, offset + bins.length).
+    private long[] bins = NO_BINS;
+    private int offset;
+
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        if (value < MIN_INDEXABLE_VALUE) {
+            zeroCount++;
+        } else {
+            addToBin(indexOf(value), 1);
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        for (int i = 0; i < other.bins.length; i++) {
+            if (other.bins[i] != 0) {
+                addToBin(other.offset + i, other.bins[i]);
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /*
+        Note: the value of rank `q * (count - 1)` (q in [0, 1]), within the relative accuracy and clamped to [min, max], 0 if empty.
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("quantile should be in [0, 1], provided: " + q);
+        }
+        if (count == 0) {
+            return 0.0D;
+        }
+
+        double rank = q * (count - 1);
+        long cumulative = zeroCount;
+        if (cumulative > rank) {
+            return min;
+        }
+        for (int i = 0; i < bins.length; i++) {
+            cumulative += bins[i];
+            if (cumulative > rank) {
+                return Math.max(min, Math.min(max, valueOf(offset + i)));
+            }
+        }
+        return max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    long allocatedBytes() {
+        return 8L * bins.length;
+    }
+
+    /*
+        Note: layout: offset(int), bins(int), zeroCount(long), count(long), min(double), max(double), then the count of every bin(long).
+     */
+    int encodedBytes() {
+        return 2 * Integer.BYTES + 2 * Long.BYTES + 2 * Double.BYTES + bins.length * Long.BYTES;
+    }
+
+    void encodeTo(ByteBuffer target) {
+        target.putInt(offset)
+                .putInt(bins.length)
+                .putLong(zeroCount)
+                .putLong(count)
+                .putDouble(min)
+                .putDouble(max);
+        for (long bin : bins) {
+            target.putLong(bin);
+        }
+    }
+
+    static QuantileSketch decode(ByteBuffer source) {
+        QuantileSketch result = new QuantileSketch();
+
+        result.offset = source.getInt();
+        int length = source.getInt();
+        if (length < 0 || length > MAX_BINS) {
+            throw new IllegalArgumentException("bins should be in [0, " + MAX_BINS + "], provided: " + length);
+        }
+        result.zeroCount = source.getLong();
+        result.count = source.getLong();
+        result.min = source.getDouble();
+        result.max = source.getDouble();
+
+        result.bins = length == 0 ? NO_BINS : new long[length];
+        for (int i = 0; i < length; i++) {
+            result.bins[i] = source.getLong();
+        }
+        return result;
+    }
+
+    // ------ internals ------
+
+    private static int indexOf(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    // Note: the value of a bin which is at the same relative distance from both bounds of the bin.
+    private static double valueOf(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    private void addToBin(int index, long n) {
+        if (bins.length == 0) {
+            bins = new long[INITIAL_BINS];
+            offset = index - INITIAL_BINS / 2;
+        }
+
+        int upper = offset + bins.length - 1;
+        if (index < offset) {
+            grow(index, upper, true);
+        } else if (index > upper) {
+            grow(offset, index, false);
+        }
+
+        // Note: an index below a collapsed range is counted in the lowest bin.
+        bins[Math.max(index, offset) - offset] += n;
+    }
+
+    /*
+        Note: the bins cover at least [lo, hi] after the growth (the lowest indexes are collapsed if it is wider than `MAX_BINS`),
+              the slack of the growth is on the side of the growth.
+     */
+    private void grow(int lo, int hi, boolean downwards) {
+        int length = Math.min(MAX_BINS, Math.max(hi - lo + 1, bins.length * 2));
+        int newOffset = downwards ? hi - length + 1 : Math.max(lo, hi - length + 1);
+
+        long[] grown = new long[length];
+        for (int i = 0; i < bins.length; i++) {
+            if (bins[i] != 0) {
+                grown[Math.max(offset + i, newOffset) - newOffset] += bins[i];
+            }
+        }
+        bins = grown;
+        offset = newOffset;
+    }
+}
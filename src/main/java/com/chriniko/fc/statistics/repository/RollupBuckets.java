@@ -0,0 +1,188 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+
+/*
+    Note: aggregates (count, compensated sum, squared deviations, min, max, same as `DailyAggregate`) of the captures of fixed-width
+          time buckets (see `RollupResolution`), updated as the captures arrive, so a time series is answered from the buckets
+          and not from the captures.
+
+          The buckets are dense primitive columns over the range of buckets seen so far, which grows with the captures
+          (the captures of a day span at most 25 hours, so a day has at most 26 hour buckets or 1501 minute buckets),
+          and nothing is allocated per capture.
+
+          Not thread safe, the owner serializes the access (see `DayCaptures`).
+ */
+final class RollupBuckets {
+
+    private static final int INITIAL_BUCKETS = 4;
+
+    private static final long[] NO_COUNTS = new long[0];
+    private static final double[] NO_VALUES = new double[0];
+
+    private final long bucketMillis;
+
+    // Note: the buckets [firstBucket, firstBucket + counts.length), bucket `b` starts at `b * bucketMillis`.
+    private long firstBucket;
+    private long[] counts = NO_COUNTS;
+    private double[] sums = NO_VALUES;
+    private double[] compensations = NO_VALUES;
+    private double[] m2s = NO_VALUES;
+    private double[] mins = NO_VALUES;
+    private double[] maxs = NO_VALUES;
+
+    RollupBuckets(RollupResolution resolution) {
+        this.bucketMillis = resolution.bucketMillis();
+    }
+
+    void add(long occurrenceAtEpochMillis, double vegetation) {
+        int i = indexOf(Math.floorDiv(occurrenceAtEpochMillis, bucketMillis));
+
+        long count = counts[i];
+        double sum = sums[i];
+        double mean = count == 0 ? 0.0D : (sum + compensations[i]) / count;
+        double delta = vegetation - mean;
+        long n = count + 1;
+
+        double t = sum + vegetation;
+        compensations[i] += DailyAggregate.lostBits(sum, vegetation, t);
+        sums[i] = t;
+        m2s[i] += delta * (vegetation - (mean + delta / n));
+        mins[i] = count == 0 ? vegetation : Math.min(mins[i], vegetation);
+        maxs[i] = count == 0 ? vegetation : Math.max(maxs[i], vegetation);
+        counts[i] = n;
+    }
+
+    /*
+        Note: merges the buckets which start in [fromMillis, toMillis) to the target, by the start of the bucket.
+     */
+    void mergeTo(Map<Instant, DailyAggregate> target, long fromMillis, long toMillis) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            long start = (firstBucket + i) * bucketMillis;
+            if (start < fromMillis || start >= toMillis) {
+                continue;
+            }
+            target.merge(Instant.ofEpochMilli(start), aggregateAt(i), DailyAggregate::merge);
+        }
+    }
+
+    /*
+        Note: merges the buckets of the other (of the same resolution) bucket by bucket, same as the merge of two `DailyAggregate`.
+     */
+    void merge(RollupBuckets other) {
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] == 0) {
+                continue;
+            }
+            int j = indexOf(other.firstBucket + i);
+            DailyAggregate merged = aggregateAt(j).merge(other.aggregateAt(i));
+
+            counts[j] = merged.getCount();
+            sums[j] = merged.getSum();
+            compensations[j] = merged.getCompensation();
+            m2s[j] = merged.getM2();
+            mins[j] = merged.getMin();
+            maxs[j] = merged.getMax();
+        }
+    }
+
+    /*
+        Note: layout: firstBucket(long), buckets(int), then per bucket count(long), sum, compensation, m2, min, max(double).
+     */
+    int encodedBytes() {
+        return Long.BYTES + Integer.BYTES + counts.length * (Long.BYTES + 5 * Double.BYTES);
+    }
+
+    void encodeTo(ByteBuffer target) {
+        target.putLong(firstBucket).putInt(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            target.putLong(counts[i])
+                    .putDouble(sums[i])
+                    .putDouble(compensations[i])
+                    .putDouble(m2s[i])
+                    .putDouble(mins[i])
+                    .putDouble(maxs[i]);
+        }
+    }
+
+    static RollupBuckets decode(RollupResolution resolution, ByteBuffer source) {
+        RollupBuckets result = new RollupBuckets(resolution);
+
+        long firstBucket = source.getLong();
+        int length = source.getInt();
+        if (length > 0) {
+            result.allocate(length);
+            result.firstBucket = firstBucket;
+        }
+        for (int i = 0; i < length; i++) {
+            result.counts[i] = source.getLong();
+            result.sums[i] = source.getDouble();
+            result.compensations[i] = source.getDouble();
+            result.m2s[i] = source.getDouble();
+            result.mins[i] = source.getDouble();
+            result.maxs[i] = source.getDouble();
+        }
+        return result;
+    }
+
+    long allocatedBytes() {
+        return (long) counts.length * (Long.BYTES + 5 * Double.BYTES);
+    }
+
+    // ------ internals ------
+
+    private DailyAggregate aggregateAt(int i) {
+        return DailyAggregate.of(counts[i], sums[i], compensations[i], m2s[i], mins[i], maxs[i]);
+    }
+
+    private int indexOf(long bucket) {
+        if (counts.length == 0) {
+            allocate(INITIAL_BUCKETS);
+            firstBucket = bucket;
+        } else if (bucket < firstBucket) {
+            grow(bucket, firstBucket + counts.length - 1, true);
+        } else if (bucket >= firstBucket + counts.length) {
+            grow(firstBucket, bucket, false);
+        }
+        return (int) (bucket - firstBucket);
+    }
+
+    /*
+        Note: the buckets cover [lo, hi] after the growth, the slack of the growth is on the side of the growth.
+     */
+    private void grow(long lo, long hi, boolean downwards) {
+        long[] oldCounts = counts;
+        double[] oldSums = sums;
+        double[] oldCompensations = compensations;
+        double[] oldM2s = m2s;
+        double[] oldMins = mins;
+        double[] oldMaxs = maxs;
+        long oldFirstBucket = firstBucket;
+
+        int length = (int) Math.max(hi - lo + 1, oldCounts.length * 2L);
+        allocate(length);
+        firstBucket = downwards ? hi - length + 1 : lo;
+
+        int shift = (int) (oldFirstBucket - firstBucket);
+        System.arraycopy(oldCounts, 0, counts, shift, oldCounts.length);
+        System.arraycopy(oldSums, 0, sums, shift, oldCounts.length);
+        System.arraycopy(oldCompensations, 0, compensations, shift, oldCounts.length);
+        System.arraycopy(oldM2s, 0, m2s, shift, oldCounts.length);
+        System.arraycopy(oldMins, 0, mins, shift, oldCounts.length);
+        System.arraycopy(oldMaxs, 0, maxs, shift, oldCounts.length);
+    }
+
+    private void allocate(int length) {
+        counts = new long[length];
+        sums = new double[length];
+        compensations = new double[length];
+        m2s = new double[length];
+        mins = new double[length];
+        maxs = new double[length];
+    }
+}
@@ -0,0 +1,31 @@
+package com.chriniko.fc.statistics.repository;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: resolutions of the rollups of the captures (see `RollupBuckets`), a bucket starts at a multiple of its width since the epoch (UTC),
+          so the minute and hour buckets do not depend on the zone of the clock. A day bucket is a day of the clock zone (its running aggregate).
+ */
+public enum RollupResolution {
+
+    MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    HOUR(TimeUnit.HOURS.toMillis(1)),
+    DAY(TimeUnit.DAYS.toMillis(1));
+
+    private final long bucketMillis;
+
+    RollupResolution(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    public long bucketMillis() {
+        return bucketMillis;
+    }
+
+    /*
+        Note: the buckets which start in [fromMillis, toMillis).
+     */
+    public long bucketsOf(long fromMillis, long toMillis) {
+        return toMillis <= fromMillis ? 0 : (toMillis - fromMillis + bucketMillis - 1) / bucketMillis;
+    }
+}
@@ -0,0 +1,89 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.CaptureStatistics;
+import com.chriniko.fc.statistics.dto.VegetationQuantiles;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+
+import java.util.Arrays;
+
+/*
+    Note: immutable statistics of the maintained windows of days (`field-statistics.windows`), calculated in one pass by the statistics
+          calculator and published with one volatile write, so a reader always sees all the windows of the same calculation.
+
+          A window of `n` days covers the days [today - n, today], same as `field-statistics.past-days`.
+ */
+public final class WindowStatistics {
+
+    public static final WindowStatistics EMPTY = new WindowStatistics(new int[0], new VegetationStatistic[0]);
+
+    // Note: indexed by the days of the window (a few hundred entries at most), null for a window which is not maintained.
+    private final VegetationStatistic[] statisticsByWindow;
+    private final VegetationQuantiles[] quantilesByWindow;
+    private final CaptureStatistics[] capturesByWindow;
+
+    public WindowStatistics(int[] windows, VegetationStatistic[] statistics) {
+        this(windows, statistics, new VegetationQuantiles[windows.length]);
+    }
+
+    public WindowStatistics(int[] windows, VegetationStatistic[] statistics, VegetationQuantiles[] quantiles) {
+        this(windows, statistics, quantiles, new CaptureStatistics[windows.length]);
+    }
+
+    /*
+        Note: `windows` sorted in ascending order, `statistics[i]`, `quantiles[i]` and `captures[i]` (null if not available)
+              are of `windows[i]`.
+     */
+    public WindowStatistics(int[] windows,
+                            VegetationStatistic[] statistics,
+                            VegetationQuantiles[] quantiles,
+                            CaptureStatistics[] captures) {
+        if (windows.length != statistics.length || windows.length != quantiles.length || windows.length != captures.length) {
+            throw new IllegalArgumentException("windows, statistics, quantiles and captures should have the same length");
+        }
+        int length = windows.length == 0 ? 0 : windows[windows.length - 1] + 1;
+        this.statisticsByWindow = new VegetationStatistic[length];
+        this.quantilesByWindow = new VegetationQuantiles[length];
+        this.capturesByWindow = new CaptureStatistics[length];
+        for (int i = 0; i < windows.length; i++) {
+            statisticsByWindow[windows[i]] = statistics[i];
+            quantilesByWindow[windows[i]] = quantiles[i];
+            capturesByWindow[windows[i]] = captures[i];
+        }
+    }
+
+    /*
+        Note: the configured windows together with the past days window, sorted and distinct.
+     */
+    public static int[] windowsOf(int[] configuredWindows, int pastDays) {
+        int[] windows = Arrays.copyOf(configuredWindows, configuredWindows.length + 1);
+        windows[configuredWindows.length] = pastDays;
+
+        int[] result = Arrays.stream(windows).sorted().distinct().toArray();
+        if (result[0] < 0) {
+            throw new BusinessProcessingException("field-statistics.windows should not be negative, provided: " + Arrays.toString(configuredWindows));
+        }
+        return result;
+    }
+
+    /*
+        Note: O(1), the statistic of the window or null if the window is not maintained (or not calculated yet).
+     */
+    public VegetationStatistic get(int window) {
+        return window < 0 || window >= statisticsByWindow.length ? null : statisticsByWindow[window];
+    }
+
+    /*
+        Note: O(1), the quantiles of the window or null if they are not available.
+     */
+    public VegetationQuantiles quantiles(int window) {
+        return window < 0 || window >= quantilesByWindow.length ? null : quantilesByWindow[window];
+    }
+
+    /*
+        Note: O(1), the statistics of the captures of the window or null if they are not available.
+     */
+    public CaptureStatistics captures(int window) {
+        return window < 0 || window >= capturesByWindow.length ? null : capturesByWindow[window];
+    }
+}
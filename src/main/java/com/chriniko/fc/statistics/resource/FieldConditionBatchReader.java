@@ -0,0 +1,184 @@
+package com.chriniko.fc.statistics.resource;
+
+import com.chriniko.fc.statistics.dto.BatchItemError;
+import com.chriniko.fc.statistics.dto.BatchSaveResult;
+import com.chriniko.fc.statistics.error.BusinessValidationException;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.serde.Iso8601Codec;
+import com.chriniko.fc.statistics.validator.FieldConditionInputValidator;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.format.DateTimeParseException;
+
+/*
+    Note: reads a batch of captures, either a json array or a stream of json objects (ndjson), directly from the token stream of
+          a `JsonParser`: `vegetation` is read as a double and `occurrenceAt` is parsed from the text buffer of the parser into
+          epoch millis (see `Iso8601Codec`), so no `FieldConditionCapture`, `Instant` or `String` is created per capture and
+          the valid captures are appended to the primitive columns of a `CaptureBatch`.
+
+          Each element is validated on its own, so one invalid element is reported with its index and does not reject the rest
+          of the batch. A malformed body (broken json syntax) can not be re-synchronized, so it rejects the whole batch.
+ */
+final class FieldConditionBatchReader {
+
+    private static final String VEGETATION = "vegetation";
+    private static final String OCCURRENCE_AT = "occurrenceAt";
+
+    private final JsonFactory jsonFactory;
+    private final FieldConditionInputValidator fieldConditionInputValidator;
+    private final int maxSize;
+
+    FieldConditionBatchReader(JsonFactory jsonFactory,
+                              FieldConditionInputValidator fieldConditionInputValidator,
+                              int maxSize) {
+        this.jsonFactory = jsonFactory;
+        this.fieldConditionInputValidator = fieldConditionInputValidator;
+        this.maxSize = maxSize;
+    }
+
+    /*
+        Note: the valid captures are added to the provided batch, the result reports the rejected ones.
+     */
+    BatchSaveResult read(InputStream input, CaptureBatch accepted) throws IOException {
+        final BatchSaveResult result = new BatchSaveResult();
+
+        int index = 0;
+        try (JsonParser parser = jsonFactory.createParser(input)) {
+
+            JsonToken token = parser.nextToken();
+
+            // Note: a root level array is unwrapped, so both formats are read the same way.
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+
+            while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                if (index == maxSize) {
+                    throw new BusinessValidationException("provided batch should not contain more than " + maxSize + " captures.");
+                }
+
+                String error = readCapture(parser, token, accepted);
+                if (error != null) {
+                    result.getErrors().add(new BatchItemError(index, error));
+                }
+
+                index++;
+                token = parser.nextToken();
+            }
+
+        } catch (JsonParseException e) {
+            throw new BusinessValidationException("provided batch is malformed at capture: " + index + ", " + firstLine(e.getOriginalMessage()));
+        }
+
+        result.setReceived(index);
+        result.setAccepted(index - result.getErrors().size());
+        result.setRejected(result.getErrors().size());
+        return result;
+    }
+
+    // ---- internals ----
+
+    /*
+        Note: consumes the tokens of one element and returns the reason it is rejected, or null if it is appended to the batch.
+     */
+    private String readCapture(JsonParser parser, JsonToken token, CaptureBatch accepted) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return "capture should not be null.";
+        }
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return "capture should be a json object.";
+        }
+
+        String error = null;
+
+        boolean hasVegetation = false;
+        double vegetation = 0.0D;
+
+        boolean hasOccurrenceAt = false;
+        long occurrenceAtEpochMillis = 0L;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            if (VEGETATION.equals(fieldName)) {
+                if (value == JsonToken.VALUE_NUMBER_FLOAT || value == JsonToken.VALUE_NUMBER_INT) {
+                    vegetation = parser.getDoubleValue();
+                    hasVegetation = true;
+                } else if (value == JsonToken.VALUE_STRING) {
+                    try {
+                        vegetation = Double.parseDouble(parser.getText());
+                        hasVegetation = true;
+                    } catch (NumberFormatException e) {
+                        error = firstError(error, "vegetation: could not read value as Double");
+                    }
+                } else {
+                    parser.skipChildren();
+                    error = firstError(error, "vegetation: could not read value as Double");
+                }
+
+            } else if (OCCURRENCE_AT.equals(fieldName)) {
+                if (value == JsonToken.VALUE_STRING) {
+                    try {
+                        occurrenceAtEpochMillis = Iso8601Codec.parseEpochMillis(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                        hasOccurrenceAt = true;
+                    } catch (DateTimeParseException e) {
+                        error = firstError(error, "occurrenceAt: " + e.getMessage());
+                    }
+                } else {
+                    parser.skipChildren();
+                    error = firstError(error, "occurrenceAt: could not read value as Instant");
+                }
+
+            } else {
+                // Note: unknown properties are ignored (same as the binding of a single capture).
+                parser.skipChildren();
+            }
+        }
+
+        if (error != null) {
+            return error;
+        }
+        if (!hasOccurrenceAt && !hasVegetation) {
+            return "occurrenceAt: must not be null, vegetation: must not be null";
+        }
+        if (!hasOccurrenceAt) {
+            return "occurrenceAt: must not be null";
+        }
+        if (!hasVegetation) {
+            return "vegetation: must not be null";
+        }
+
+        try {
+            fieldConditionInputValidator.validateVegetation(vegetation);
+            fieldConditionInputValidator.validateOccurrenceAt(occurrenceAtEpochMillis);
+        } catch (BusinessValidationException e) {
+            return e.getMessage();
+        }
+
+        accepted.add(occurrenceAtEpochMillis, vegetation);
+        return null;
+    }
+
+    private static String firstError(String current, String error) {
+        return current != null ? current : error;
+    }
+
+    private static String firstLine(String message) {
+        if (message == null) {
+            return "could not read batch";
+        }
+        return message.contains("\n") ? message.split("\n")[0] : message;
+    }
+}
@@ -1,21 +1,36 @@
 package com.chriniko.fc.statistics.resource;
 
 
+import com.chriniko.fc.statistics.dto.BatchSaveResult;
 import com.chriniko.fc.statistics.dto.FieldConditionCapture;
 import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.dto.VegetationSeries;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.RollupResolution;
 import com.chriniko.fc.statistics.service.FieldConditionService;
 import com.chriniko.fc.statistics.validator.FieldConditionInputValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
 
 @Api(value = "FieldConditionResource", description = "Field conditions operations (such as save field condition capture, statistics, etc)")
 
@@ -24,14 +39,26 @@ import javax.validation.Valid;
 @RequestMapping("/field-conditions")
 public class FieldConditionResource {
 
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final FieldConditionService fieldConditionService;
     private final FieldConditionInputValidator fieldConditionInputValidator;
+    private final FieldConditionBatchReader fieldConditionBatchReader;
+    private final StatisticsLongPolling statisticsLongPolling;
+    private final StatisticsStream statisticsStream;
 
     @Autowired
     public FieldConditionResource(FieldConditionService fieldConditionService,
-                                  FieldConditionInputValidator fieldConditionInputValidator) {
+                                  FieldConditionInputValidator fieldConditionInputValidator,
+                                  StatisticsLongPolling statisticsLongPolling,
+                                  StatisticsStream statisticsStream,
+                                  ObjectMapper objectMapper,
+                                  @Value("${field-statistics.batch.max-size}") int batchMaxSize) {
         this.fieldConditionService = fieldConditionService;
         this.fieldConditionInputValidator = fieldConditionInputValidator;
+        this.statisticsLongPolling = statisticsLongPolling;
+        this.statisticsStream = statisticsStream;
+        this.fieldConditionBatchReader = new FieldConditionBatchReader(objectMapper.getFactory(), fieldConditionInputValidator, batchMaxSize);
     }
 
     @ApiOperation(value = "Save field condition capture")
@@ -51,17 +78,128 @@ public class FieldConditionResource {
         return ResponseEntity.ok().build();
     }
 
+    @ApiOperation(value = "Save a batch of field condition captures (json array or ndjson stream) of one field (default field if not provided)", response = BatchSaveResult.class)
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 200, message = "Successfully saved the valid captures of the batch, the invalid ones are reported with their index"),
+                    @ApiResponse(code = 400, message = "Malformed batch or batch too large, nothing is saved")
+            }
+    )
+    @PostMapping(
+            path = "/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE
+    )
+    public @ResponseBody
+    HttpEntity<BatchSaveResult> saveAll(InputStream input,
+                                        @RequestParam(value = "field-id", required = false) String fieldId) throws IOException {
+        fieldConditionInputValidator.validateFieldId(fieldId);
+
+        CaptureBatch accepted = new CaptureBatch();
+        BatchSaveResult result = fieldConditionBatchReader.read(input, accepted);
+        fieldConditionService.storeAll(fieldId, accepted);
+        return ResponseEntity.ok(result);
+    }
+
 
-    @ApiOperation(value = "Get field condition statistics related to the past 30 days", response = FieldStatistics.class)
+    @ApiOperation(value = "Get field condition statistics related to the past 30 days (or to the provided maintained window of days) of the field (default field if not provided)", response = FieldStatistics.class)
     @ApiResponses(
             value = {
-                    @ApiResponse(code = 200, message = "Successfully return field condition statistics related to the past 30 days")
+                    @ApiResponse(code = 200, message = "Successfully return field condition statistics related to the past 30 days (or to the window)"),
+                    @ApiResponse(code = 304, message = "Statistics of the past 30 days did not change (If-None-Match)"),
+                    @ApiResponse(code = 400, message = "Provided window is not maintained")
             }
     )
     @GetMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
     @ResponseBody
-    HttpEntity<FieldStatistics> statistics() {
-        FieldStatistics statistics = fieldConditionService.getStatistics();
+    HttpEntity<?> statistics(@RequestParam(value = "window", required = false) Integer window,
+                             @RequestParam(value = "field-id", required = false) String fieldId,
+                             @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        fieldConditionInputValidator.validateFieldId(fieldId);
+
+        if (window == null) {
+            // Note: the bytes encoded by the calculator are written as they are (see `EncodedStatistics`).
+            EncodedStatistics statistics = fieldConditionService.getEncodedStatistics(fieldId);
+            return statistics.matches(ifNoneMatch)
+                    ? StatisticsLongPolling.notModified(statistics)
+                    : StatisticsLongPolling.ok(statistics);
+        }
+
+        fieldConditionInputValidator.validateWindow(window);
+        FieldStatistics statistics = fieldConditionService.getStatistics(fieldId, window);
         return ResponseEntity.ok(statistics);
     }
+
+    @ApiOperation(value = "Long poll of field condition statistics related to the past 30 days of the field (default field if not provided), answers when they change (or on timeout)", response = FieldStatistics.class)
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 200, message = "Statistics of a newer version than the provided one (If-None-Match)"),
+                    @ApiResponse(code = 304, message = "Statistics did not change until the timeout"),
+                    @ApiResponse(code = 400, message = "Not valid field id"),
+                    @ApiResponse(code = 429, message = "Too many parked requests")
+            }
+    )
+    @GetMapping(path = "/long-poll", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    DeferredResult<ResponseEntity<?>> longPollStatistics(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                         @RequestParam(value = "timeout-ms", required = false, defaultValue = "30000") long timeout,
+                                                         @RequestParam(value = "field-id", required = false) String fieldId) {
+        fieldConditionInputValidator.validateFieldId(fieldId);
+        return statisticsLongPolling.await(fieldId, ifNoneMatch, timeout);
+    }
+
+    @ApiOperation(value = "Stream (server-sent events) of field condition statistics related to the past 30 days of the field (default field if not provided), an event per change")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 200, message = "Event stream, starts with the current statistics"),
+                    @ApiResponse(code = 400, message = "Not valid field id"),
+                    @ApiResponse(code = 429, message = "Too many subscribers")
+            }
+    )
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    ResponseEntity<ResponseBodyEmitter> streamStatistics(@RequestParam(value = "field-id", required = false) String fieldId) {
+        fieldConditionInputValidator.validateFieldId(fieldId);
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .body(statisticsStream.subscribe(fieldId));
+    }
+
+    @ApiOperation(value = "Get field condition statistics related to the provided range of days of the field (default field if not provided)", response = FieldStatistics.class)
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 200, message = "Successfully return field condition statistics related to the days [from, to]"),
+                    @ApiResponse(code = 400, message = "Not valid range of days")
+            }
+    )
+    @GetMapping(path = "/range", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    HttpEntity<FieldStatistics> statistics(@RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                           @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                           @RequestParam(value = "field-id", required = false) String fieldId) {
+        fieldConditionInputValidator.validateFieldId(fieldId);
+        fieldConditionInputValidator.validateRange(from, to);
+        FieldStatistics statistics = fieldConditionService.getStatistics(fieldId, from, to);
+        return ResponseEntity.ok(statistics);
+    }
+
+    @ApiOperation(value = "Get the time series (count, min, max, avg, stddev per bucket) of the provided range of the field (default field if not provided), hour buckets by default (day buckets for a long range)", response = VegetationSeries.class)
+    @ApiResponses(
+            value = {
+                    @ApiResponse(code = 200, message = "Successfully return the buckets with captures which start in [from, to)"),
+                    @ApiResponse(code = 400, message = "Not valid range, resolution or too many buckets")
+            }
+    )
+    @GetMapping(path = "/series", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    HttpEntity<VegetationSeries> series(@RequestParam("from") Instant from,
+                                        @RequestParam("to") Instant to,
+                                        @RequestParam(value = "resolution", required = false) String resolution,
+                                        @RequestParam(value = "field-id", required = false) String fieldId) {
+        fieldConditionInputValidator.validateFieldId(fieldId);
+        RollupResolution rollupResolution = fieldConditionInputValidator.validateSeries(from, to, resolution);
+        VegetationSeries series = fieldConditionService.getSeries(fieldId, from, to, rollupResolution);
+        return ResponseEntity.ok(series);
+    }
 }
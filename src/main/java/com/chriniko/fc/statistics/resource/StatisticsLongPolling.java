@@ -0,0 +1,163 @@
+package com.chriniko.fc.statistics.resource;
+
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.worker.StatisticsPublicationListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Note: long polling of the statistics, a request which already holds the published version (`If-None-Match`) is parked
+          (async servlet request, so no worker thread is held) until the calculator publishes a newer version or the timeout elapses
+          (then it is answered with 304 Not Modified).
+
+          The parked requests are completed by the calculator thread with the same encoded bytes, a completed or timed out request
+          is removed from the waiters at once, so the waiters never hold more than the parked requests.
+
+          The requests are parked per field (the default field if no `fieldId`), so a publication completes only the requests of its field,
+          and a field without captures yet has the empty statistics until its first publication. `statistics.long-poll.max-waiters`
+          bounds the parked requests of all the fields.
+ */
+
+@Log4j2
+
+@Component
+public class StatisticsLongPolling implements StatisticsPublicationListener {
+
+    private final FieldRepositoryShards fieldRepositoryShards;
+
+    private final long maxTimeout;
+    private final int maxWaiters;
+
+    // Note: a field is removed together with its last waiter, so an idle field holds nothing.
+    private final ConcurrentHashMap<String, Set<DeferredResult<ResponseEntity<?>>>> waitersByField;
+    private final AtomicInteger noOfWaiters;
+
+    @Autowired
+    public StatisticsLongPolling(FieldRepositoryShards fieldRepositoryShards,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${statistics.long-poll.max-timeout-ms}") long maxTimeout,
+                                 @Value("${statistics.long-poll.max-waiters}") int maxWaiters) {
+        if (maxTimeout < 1 || maxWaiters < 1) {
+            throw new BusinessProcessingException("statistics.long-poll.max-timeout-ms and statistics.long-poll.max-waiters should be positive");
+        }
+
+        this.fieldRepositoryShards = fieldRepositoryShards;
+        this.maxTimeout = maxTimeout;
+        this.maxWaiters = maxWaiters;
+        this.waitersByField = new ConcurrentHashMap<>();
+        this.noOfWaiters = new AtomicInteger();
+
+        meterRegistry.gauge("statistics.long-poll.waiters", noOfWaiters);
+    }
+
+    public DeferredResult<ResponseEntity<?>> await(String ifNoneMatch, long timeout) {
+        return await(null, ifNoneMatch, timeout);
+    }
+
+    /*
+        Note: answered at once if the published version of the field does not match `ifNoneMatch`, otherwise parked.
+     */
+    public DeferredResult<ResponseEntity<?>> await(String fieldId, String ifNoneMatch, long timeout) {
+        String field = fieldOf(fieldId);
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(Math.min(Math.max(timeout, 1), maxTimeout));
+
+        EncodedStatistics published = encodedStatistics(field);
+        if (!published.matches(ifNoneMatch)) {
+            result.setResult(ok(published));
+            return result;
+        }
+
+        if (noOfWaiters.incrementAndGet() > maxWaiters) {
+            noOfWaiters.decrementAndGet();
+            throw new BusinessOverloadedException("too many parked statistics requests, please retry later.");
+        }
+
+        result.onTimeout(() -> {
+            EncodedStatistics current = encodedStatistics(field);
+            result.setResult(current.matches(ifNoneMatch) ? notModified(current) : ok(current));
+        });
+        result.onCompletion(() -> remove(field, result));
+        waitersByField.compute(field, (key, waiters) -> {
+            Set<DeferredResult<ResponseEntity<?>>> fieldWaiters = waiters == null ? ConcurrentHashMap.newKeySet() : waiters;
+            fieldWaiters.add(result);
+            return fieldWaiters;
+        });
+
+        // Note: a publication between the first read and the registration would not complete this request, so check again.
+        EncodedStatistics current = encodedStatistics(field);
+        if (!current.matches(ifNoneMatch)) {
+            complete(field, result, current);
+        }
+        return result;
+    }
+
+    @Override
+    public void published(String fieldId, EncodedStatistics statistics) {
+        String field = fieldOf(fieldId);
+        Set<DeferredResult<ResponseEntity<?>>> waiters = waitersByField.get(field);
+        if (waiters == null) {
+            return;
+        }
+        for (DeferredResult<ResponseEntity<?>> waiter : waiters) {
+            complete(field, waiter, statistics);
+        }
+    }
+
+    // ------ internals ------
+
+    private static String fieldOf(String fieldId) {
+        return FieldRepositoryShards.isDefaultField(fieldId) ? FieldRepositoryShards.DEFAULT_FIELD_ID : fieldId;
+    }
+
+    private EncodedStatistics encodedStatistics(String field) {
+        FieldConditionRepository repository = fieldRepositoryShards.find(field);
+        return repository == null ? EncodedStatistics.EMPTY : repository.encodedStatistics();
+    }
+
+    private void complete(String field, DeferredResult<ResponseEntity<?>> waiter, EncodedStatistics statistics) {
+        remove(field, waiter);
+        waiter.setResult(ok(statistics));
+    }
+
+    /*
+        Note: counted once, a waiter is removed both on its completion and by the publication which completes it.
+     */
+    private void remove(String field, DeferredResult<ResponseEntity<?>> waiter) {
+        final boolean[] removed = {false};
+        waitersByField.computeIfPresent(field, (key, waiters) -> {
+            removed[0] = waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
+        });
+        if (removed[0]) {
+            noOfWaiters.decrementAndGet();
+        }
+    }
+
+    static ResponseEntity<?> ok(EncodedStatistics statistics) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .eTag(statistics.entityTag())
+                .body(statistics.body());
+    }
+
+    static ResponseEntity<?> notModified(EncodedStatistics statistics) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(statistics.entityTag())
+                .build();
+    }
+}
@@ -0,0 +1,354 @@
+package com.chriniko.fc.statistics.resource;
+
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.worker.PoolHandler;
+import com.chriniko.fc.statistics.worker.StatisticsPublicationListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Note: server-sent events stream of the statistics (GET /field-conditions/stream), every changed statistic published by the calculator
+          is encoded once as a complete event frame (`id: <version>`, `event: statistics`, `data: <json>`) and the same bytes are written
+          to every subscriber, so a publication costs one encoding and no serialization per connection.
+
+          The calculator thread only hands the frame over: every subscriber keeps its latest pending frame (an older pending frame is
+          replaced, a client only needs the latest statistics) and the writes are done by the `statistics-stream-writer` threads.
+          A subscriber whose pending frame was replaced more than `statistics.stream.max-skipped-frames` times in a row does not keep up,
+          so it is evicted (its stream is completed, the client may reconnect).
+
+          A send is a blocking write, so a stalled client holds a writer thread. The `statistics-stream-watchdog` evicts a subscriber
+          whose send takes more than `statistics.stream.send-timeout-ms` and interrupts its writer (the blocking write of the
+          container fails with an `InterruptedIOException`), so a few stalled clients can not starve the healthy subscribers.
+
+          A stream is of one field (the default field if no `fieldId`), so a publication is encoded (once) and offered only if its field
+          has subscribers, and only to them. `statistics.stream.max-subscribers` bounds the subscribers of all the fields.
+
+    Note: a stream is completed only by its writer, since `ResponseBodyEmitter#complete` waits for the send in progress.
+ */
+
+@Log4j2
+
+@Component
+public class StatisticsStream implements StatisticsPublicationListener {
+
+    private static final String EVENT_NAME = "statistics";
+
+    private final FieldRepositoryShards fieldRepositoryShards;
+    private final PoolHandler poolHandler;
+
+    private final long timeout;
+    private final int maxSubscribers;
+    private final int maxSkippedFrames;
+    private final long sendTimeoutNanos;
+
+    private final Set<Subscriber> subscribers;
+    // Note: a field is removed together with its last subscriber, so an idle field holds nothing.
+    private final ConcurrentHashMap<String, FieldSubscribers> subscribersByField;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService watchdog;
+
+    private final Counter evicted;
+
+    @Autowired
+    public StatisticsStream(FieldRepositoryShards fieldRepositoryShards,
+                            PoolHandler poolHandler,
+                            MeterRegistry meterRegistry,
+                            @Value("${statistics.stream.timeout-ms}") long timeout,
+                            @Value("${statistics.stream.max-subscribers}") int maxSubscribers,
+                            @Value("${statistics.stream.max-skipped-frames}") int maxSkippedFrames,
+                            @Value("${statistics.stream.writer-threads}") int writerThreads,
+                            @Value("${statistics.stream.send-timeout-ms}") long sendTimeout) {
+        if (timeout < 1 || maxSubscribers < 1 || maxSkippedFrames < 0 || writerThreads < 1 || sendTimeout < 1) {
+            throw new BusinessProcessingException("statistics.stream.timeout-ms, max-subscribers, writer-threads and send-timeout-ms should be positive"
+                    + ", max-skipped-frames should not be negative");
+        }
+
+        this.fieldRepositoryShards = fieldRepositoryShards;
+        this.poolHandler = poolHandler;
+        this.timeout = timeout;
+        this.maxSubscribers = maxSubscribers;
+        this.maxSkippedFrames = maxSkippedFrames;
+        this.sendTimeoutNanos = TimeUnit.NANOSECONDS.convert(sendTimeout, TimeUnit.MILLISECONDS);
+
+        this.subscribers = ConcurrentHashMap.newKeySet();
+        this.subscribersByField = new ConcurrentHashMap<>();
+
+        AtomicInteger threadIdx = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(writerThreads, r -> {
+            Thread t = new Thread(r);
+            t.setName("statistics-stream-writer-" + threadIdx.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("statistics-stream-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        long checkInterval = Math.max(1, sendTimeout / 2);
+        this.watchdog.scheduleWithFixedDelay(this::evictStalledSubscribers, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+
+        this.evicted = meterRegistry.counter("statistics.stream.evicted");
+        meterRegistry.gauge("statistics.stream.subscribers", subscribers, Set::size);
+    }
+
+    @PreDestroy
+    void close() {
+        poolHandler.shutdownAndAwaitTermination(watchdog);
+        for (Subscriber subscriber : subscribers) {
+            remove(subscriber);
+            subscriber.stop();
+        }
+        poolHandler.shutdownAndAwaitTermination(writers);
+    }
+
+    /*
+        Note: the stream starts with the frame of the current statistics.
+     */
+    public ResponseBodyEmitter subscribe() {
+        return subscribe((String) null);
+    }
+
+    public ResponseBodyEmitter subscribe(String fieldId) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeout);
+        subscribe(fieldId, emitter);
+        return emitter;
+    }
+
+    void subscribe(ResponseBodyEmitter emitter) {
+        subscribe(null, emitter);
+    }
+
+    void subscribe(String fieldId, ResponseBodyEmitter emitter) {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new BusinessOverloadedException("too many statistics stream subscribers, please retry later.");
+        }
+
+        String field = fieldOf(fieldId);
+        Subscriber subscriber = new Subscriber(field, emitter);
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(error -> remove(subscriber));
+        subscribers.add(subscriber);
+        FieldSubscribers fieldSubscribers = subscribersByField.compute(field, (key, current) -> {
+            FieldSubscribers result = current == null ? new FieldSubscribers() : current;
+            result.subscribers.add(subscriber);
+            return result;
+        });
+
+        FieldConditionRepository repository = fieldRepositoryShards.find(field);
+        subscriber.offer(fieldSubscribers.frameOf(repository == null ? EncodedStatistics.EMPTY : repository.encodedStatistics()));
+    }
+
+    @Override
+    public void published(String fieldId, EncodedStatistics statistics) {
+        FieldSubscribers fieldSubscribers = subscribersByField.get(fieldOf(fieldId));
+        if (fieldSubscribers == null) {
+            return;
+        }
+
+        byte[] frame = fieldSubscribers.frameOf(statistics);
+        for (Subscriber subscriber : fieldSubscribers.subscribers) {
+            subscriber.offer(frame);
+        }
+    }
+
+    // ------ internals ------
+
+    private static String fieldOf(String fieldId) {
+        return FieldRepositoryShards.isDefaultField(fieldId) ? FieldRepositoryShards.DEFAULT_FIELD_ID : fieldId;
+    }
+
+    private boolean remove(Subscriber subscriber) {
+        subscribersByField.computeIfPresent(subscriber.field, (key, current) -> {
+            current.subscribers.remove(subscriber);
+            return current.subscribers.isEmpty() ? null : current;
+        });
+        return subscribers.remove(subscriber);
+    }
+
+    private void evict(Subscriber subscriber) {
+        if (remove(subscriber)) {
+            evicted.increment();
+            log.warn("statistics stream subscriber does not keep up, it is evicted");
+            subscriber.stop();
+        }
+    }
+
+    private void evictStalledSubscribers() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isStalled(now)) {
+                evict(subscriber);
+            }
+        }
+    }
+
+    /*
+        Note: the subscribers of one field and the frame of its latest publication (version, bytes),
+              so a new subscriber of the field does not encode it again.
+     */
+    private static final class FieldSubscribers {
+
+        private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+        private final AtomicReference<Frame> latestFrame = new AtomicReference<>(new Frame(-1, new byte[0]));
+
+        private byte[] frameOf(EncodedStatistics statistics) {
+            Frame frame = latestFrame.get();
+            if (frame.version == statistics.version()) {
+                return frame.bytes;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(statistics.body().length + 64);
+            byte[] header = ("id: " + statistics.version() + "\nevent: " + EVENT_NAME + "\ndata: ").getBytes(StandardCharsets.UTF_8);
+            out.write(header, 0, header.length);
+            out.write(statistics.body(), 0, statistics.body().length);
+            out.write('\n');
+            out.write('\n');
+
+            Frame fresh = new Frame(statistics.version(), out.toByteArray());
+            latestFrame.set(fresh);
+            return fresh.bytes;
+        }
+    }
+
+    private static final class Frame {
+
+        private final long version;
+        private final byte[] bytes;
+
+        private Frame(long version, byte[] bytes) {
+            this.version = version;
+            this.bytes = bytes;
+        }
+    }
+
+    private final class Subscriber {
+
+        private final String field;
+        private final ResponseBodyEmitter emitter;
+
+        private final AtomicReference<byte[]> pendingFrame = new AtomicReference<>();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        private final AtomicInteger skippedFrames = new AtomicInteger();
+
+        private volatile boolean stopped;
+
+        // Note: the writer thread and the start time of the send in progress, guarded by the subscriber.
+        private Thread sender;
+        private long sendStartTime;
+
+        private Subscriber(String field, ResponseBodyEmitter emitter) {
+            this.field = field;
+            this.emitter = emitter;
+        }
+
+        private void offer(byte[] frame) {
+            if (pendingFrame.getAndSet(frame) != null && skippedFrames.incrementAndGet() > maxSkippedFrames) {
+                evict(this);
+                return;
+            }
+            scheduleWrite();
+        }
+
+        private void scheduleWrite() {
+            if (writing.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::write);
+                } catch (RejectedExecutionException e) {
+                    // Note: the stream is closed, its subscribers are completed by the remaining writes.
+                }
+            }
+        }
+
+        /*
+            Note: interrupts the send in progress (if any) and hands the completion of the stream over to a writer.
+         */
+        private void stop() {
+            stopped = true;
+            synchronized (this) {
+                if (sender != null) {
+                    sender.interrupt();
+                }
+            }
+            scheduleWrite();
+        }
+
+        private synchronized boolean isStalled(long now) {
+            return sender != null && now - sendStartTime > sendTimeoutNanos;
+        }
+
+        private void write() {
+            try {
+                byte[] frame;
+                while (!stopped && (frame = pendingFrame.getAndSet(null)) != null) {
+                    send(frame);
+                    skippedFrames.set(0);
+                }
+            } catch (Exception e) {
+                // Note: the client is gone, the stream is completed or the send is interrupted. `writing` stays set, so no more writes.
+                remove(this);
+                return;
+            }
+
+            if (stopped) {
+                // Note: `writing` stays set, so nothing is written after the completion.
+                emitter.complete();
+                return;
+            }
+
+            writing.set(false);
+
+            // Note: a frame offered (or a stop) after the last read of the pending frame and before the release of `writing`.
+            if (stopped || pendingFrame.get() != null) {
+                scheduleWrite();
+            }
+        }
+
+        private void send(byte[] frame) throws IOException {
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                sender = Thread.currentThread();
+                sendStartTime = System.nanoTime();
+            }
+            try {
+                emitter.send(frame, MediaType.TEXT_EVENT_STREAM);
+            } finally {
+                synchronized (this) {
+                    sender = null;
+                    // Note: clears an interrupt of a stop which raced with the end of the send, the writer serves other subscribers too.
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+}
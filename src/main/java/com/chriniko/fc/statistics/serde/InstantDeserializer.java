@@ -1,6 +1,7 @@
 package com.chriniko.fc.statistics.serde;
 
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
 
@@ -10,6 +11,11 @@ import java.time.Instant;
 public class InstantDeserializer extends JsonDeserializer<Instant> {
     @Override
     public Instant deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.hasToken(JsonToken.VALUE_STRING)) {
+            // Note: parsed from the text buffer of the parser, no intermediate `String`.
+            return Iso8601Codec.parseInstant(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+        }
+
         String value = p.getValueAsString();
         return Instant.parse(value);
     }
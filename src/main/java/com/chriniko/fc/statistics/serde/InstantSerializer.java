@@ -9,8 +9,18 @@ import java.time.Instant;
 
 public class InstantSerializer extends JsonSerializer<Instant> {
 
+    // Note: the generator copies the chars, so one buffer per thread is enough.
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[Iso8601Codec.MAX_FORMATTED_LENGTH]);
+
     @Override
     public void serialize(Instant value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
-        gen.writeString(value.toString());
+        char[] buffer = BUFFER.get();
+
+        int length = Iso8601Codec.format(value.getEpochSecond(), value.getNano(), buffer);
+        if (length < 0) {
+            gen.writeString(value.toString());
+        } else {
+            gen.writeString(buffer, 0, length);
+        }
     }
 }
@@ -0,0 +1,209 @@
+package com.chriniko.fc.statistics.serde;
+
+import java.time.Instant;
+
+/*
+    Note: hand-rolled parser/formatter of the fixed UTC ISO-8601 format `yyyy-MM-ddTHH:mm:ss[.S{1,9}]Z` which works directly on
+          a char range (for example the text buffer of a `JsonParser`), so a timestamp is parsed/formatted without the
+          `DateTimeFormatter` machinery and without intermediate `String`s.
+
+          Any other (valid) form, for example a year with more than 4 digits or a leap second, falls back to the JDK
+          (`Instant#parse`, `Instant#toString`), so the results are always the same as the ones of the JDK.
+ */
+public final class Iso8601Codec {
+
+    private static final int MIN_LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+    private static final int MAX_FRACTION_DIGITS = 9;
+
+    public static final int MAX_FORMATTED_LENGTH = MIN_LENGTH + 1 + MAX_FRACTION_DIGITS;
+
+    private static final long NOT_FAST_PATH = Long.MIN_VALUE;
+
+    private static final long SECONDS_PER_DAY = 86_400L;
+    private static final long DAYS_0000_TO_1970 = 719_528L;
+    private static final long DAYS_PER_400_YEARS = 146_097L;
+
+    private static final long MIN_FAST_EPOCH_SECOND = -62_167_219_200L; // 0000-01-01T00:00:00Z
+    private static final long MAX_FAST_EPOCH_SECOND = 253_402_300_799L; // 9999-12-31T23:59:59Z
+
+    private Iso8601Codec() {
+    }
+
+    public static long parseEpochMillis(char[] text, int offset, int length) {
+        long epochSecond = fastEpochSecond(text, offset, length);
+        if (epochSecond == NOT_FAST_PATH) {
+            return Instant.parse(new String(text, offset, length)).toEpochMilli();
+        }
+        return epochSecond * 1000 + nanosOf(text, offset, length) / 1_000_000;
+    }
+
+    public static Instant parseInstant(char[] text, int offset, int length) {
+        long epochSecond = fastEpochSecond(text, offset, length);
+        if (epochSecond == NOT_FAST_PATH) {
+            return Instant.parse(new String(text, offset, length));
+        }
+        return Instant.ofEpochSecond(epochSecond, nanosOf(text, offset, length));
+    }
+
+    /*
+        Note: writes the same text as `Instant#toString` into the provided buffer (of at least `MAX_FORMATTED_LENGTH` chars)
+              and returns its length, or -1 if the instant is out of the fixed format (year before 0000 or after 9999).
+     */
+    public static int format(long epochSecond, int nanos, char[] buffer) {
+        if (epochSecond < MIN_FAST_EPOCH_SECOND || epochSecond > MAX_FAST_EPOCH_SECOND) {
+            return -1;
+        }
+
+        long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(epochSecond, SECONDS_PER_DAY);
+
+        // Note: inverse of `epochDay` (days since 0000-03-01, in eras of 400 years).
+        long z = epochDay + DAYS_0000_TO_1970 - 60;
+        long era = Math.floorDiv(z, DAYS_PER_400_YEARS);
+        int dayOfEra = (int) (z - era * DAYS_PER_400_YEARS);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        putDigits(buffer, 0, year, 4);
+        buffer[4] = '-';
+        putDigits(buffer, 5, month, 2);
+        buffer[7] = '-';
+        putDigits(buffer, 8, day, 2);
+        buffer[10] = 'T';
+        putDigits(buffer, 11, secondOfDay / 3600, 2);
+        buffer[13] = ':';
+        putDigits(buffer, 14, secondOfDay / 60 % 60, 2);
+        buffer[16] = ':';
+        putDigits(buffer, 17, secondOfDay % 60, 2);
+
+        int length = 19;
+        if (nanos > 0) {
+            // Note: same as the JDK, the fraction is written in groups of 3 digits.
+            buffer[length++] = '.';
+            if (nanos % 1_000_000 == 0) {
+                putDigits(buffer, length, nanos / 1_000_000, 3);
+                length += 3;
+            } else if (nanos % 1_000 == 0) {
+                putDigits(buffer, length, nanos / 1_000, 6);
+                length += 6;
+            } else {
+                putDigits(buffer, length, nanos, 9);
+                length += 9;
+            }
+        }
+        buffer[length++] = 'Z';
+
+        return length;
+    }
+
+    // ------ internals ------
+
+    /*
+        Note: returns the epoch second of the provided text, or `NOT_FAST_PATH` if the text is not in the fixed format.
+     */
+    private static long fastEpochSecond(char[] text, int offset, int length) {
+        if (length < MIN_LENGTH || length > MIN_LENGTH + 1 + MAX_FRACTION_DIGITS || length == MIN_LENGTH + 1) {
+            return NOT_FAST_PATH;
+        }
+
+        if (text[offset + 4] != '-' || text[offset + 7] != '-' || text[offset + 10] != 'T'
+                || text[offset + 13] != ':' || text[offset + 16] != ':' || text[offset + length - 1] != 'Z') {
+            return NOT_FAST_PATH;
+        }
+
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset + 5, 2);
+        int day = digits(text, offset + 8, 2);
+        int hour = digits(text, offset + 11, 2);
+        int minute = digits(text, offset + 14, 2);
+        int second = digits(text, offset + 17, 2);
+
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return NOT_FAST_PATH;
+        }
+
+        if (length > MIN_LENGTH) {
+            if (text[offset + 19] != '.' || digits(text, offset + 20, length - MIN_LENGTH - 1) < 0) {
+                return NOT_FAST_PATH;
+            }
+        }
+
+        return epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+    private static int nanosOf(char[] text, int offset, int length) {
+        int fractionDigits = length - MIN_LENGTH - 1;
+        if (fractionDigits <= 0) {
+            return 0;
+        }
+
+        int nanos = digits(text, offset + 20, fractionDigits);
+        for (int i = fractionDigits; i < MAX_FRACTION_DIGITS; i++) {
+            nanos *= 10;
+        }
+        return nanos;
+    }
+
+    /*
+        Note: value of `count` ascii digits, or -1 if any of them is not a digit.
+     */
+    private static int digits(char[] text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] buffer, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /*
+        Note: same calculation as `LocalDate#toEpochDay` (proleptic gregorian calendar), for years 0000-9999.
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = year;
+        long total = 365 * y;
+        total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return total - DAYS_0000_TO_1970;
+    }
+}
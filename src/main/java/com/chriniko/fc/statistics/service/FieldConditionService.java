@@ -1,28 +1,96 @@
 package com.chriniko.fc.statistics.service;
 
+import com.chriniko.fc.statistics.common.MathProvider;
 import com.chriniko.fc.statistics.dto.FieldConditionCapture;
 import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.dto.VegetationSeries;
+import com.chriniko.fc.statistics.dto.VegetationSeriesPoint;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.ingestion.IngestionPipeline;
+import com.chriniko.fc.statistics.persistence.WriteAheadLog;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.DailyAggregate;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
 import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.repository.RollupResolution;
+import com.chriniko.fc.statistics.repository.WindowStatistics;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 @Service
 public class FieldConditionService {
 
     private final MeterRegistry meterRegistry;
     private final FieldConditionRepository fieldConditionRepository;
+    private final WriteAheadLog writeAheadLog;
+    private final IngestionPipeline ingestionPipeline;
+    private final MathProvider mathProvider;
+    private final FieldRepositoryShards fieldRepositoryShards;
 
     @Autowired
-    public FieldConditionService(FieldConditionRepository fieldConditionRepository, MeterRegistry meterRegistry) {
+    public FieldConditionService(FieldConditionRepository fieldConditionRepository,
+                                 FieldRepositoryShards fieldRepositoryShards,
+                                 WriteAheadLog writeAheadLog,
+                                 IngestionPipeline ingestionPipeline,
+                                 MeterRegistry meterRegistry,
+                                 MathProvider mathProvider) {
         this.fieldConditionRepository = fieldConditionRepository;
+        this.writeAheadLog = writeAheadLog;
+        this.ingestionPipeline = ingestionPipeline;
         this.meterRegistry = meterRegistry;
+        this.mathProvider = mathProvider;
+        this.fieldRepositoryShards = fieldRepositoryShards;
     }
 
     public void store(FieldConditionCapture dto) {
         Timer timer = meterRegistry.timer("store");
-        timer.record(() -> fieldConditionRepository.save(dto));
+        timer.record(() -> {
+            if (!FieldRepositoryShards.isDefaultField(dto.getFieldId())) {
+                // Note: the fields of the shards are kept only in memory (the pipeline and the log carry the default field).
+                fieldRepositoryShards.save(dto.getFieldId(), dto);
+            } else if (ingestionPipeline.isEnabled()) {
+                // Note: the consumers of the pipeline apply the capture (through the write-ahead log, if it is enabled).
+                ingestionPipeline.publish(dto.getOccurrenceAt().toEpochMilli(), dto.getVegetation());
+            } else if (writeAheadLog.isEnabled()) {
+                // Note: the write-ahead log applies the capture to the repository, after it is durable.
+                writeAheadLog.append(dto);
+            } else {
+                fieldConditionRepository.save(dto);
+            }
+        });
+    }
+
+    public void storeAll(CaptureBatch batch) {
+        storeAll(null, batch);
+    }
+
+    /*
+        Note: all the captures of a batch belong to one field.
+     */
+    public void storeAll(String fieldId, CaptureBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Timer timer = meterRegistry.timer("storeAll");
+        timer.record(() -> {
+            if (!FieldRepositoryShards.isDefaultField(fieldId)) {
+                fieldRepositoryShards.saveAll(fieldId, batch);
+            } else if (writeAheadLog.isEnabled()) {
+                writeAheadLog.appendAll(batch);
+            } else {
+                fieldConditionRepository.saveAll(batch);
+            }
+        });
     }
 
     public FieldStatistics getStatistics() {
@@ -30,4 +98,97 @@ public class FieldConditionService {
         return timer.record(() -> new FieldStatistics(fieldConditionRepository.vegetationStatistics()));
     }
 
+    /*
+        Note: the statistics already encoded by the calculator, a read only returns the published instance.
+     */
+    public EncodedStatistics getEncodedStatistics() {
+        return getEncodedStatistics(null);
+    }
+
+    /*
+        Note: same as `getEncodedStatistics()` for the field, a field without captures has the empty statistics.
+     */
+    public EncodedStatistics getEncodedStatistics(String fieldId) {
+        Timer timer = meterRegistry.timer("getStatistics");
+        return timer.record(() -> {
+            FieldConditionRepository repository = fieldRepositoryShards.find(fieldId);
+            return repository == null ? EncodedStatistics.EMPTY : repository.encodedStatistics();
+        });
+    }
+
+    /*
+        Note: statistics of one of the maintained windows (`field-statistics.windows`), zero until the first calculation.
+     */
+    public FieldStatistics getStatistics(int window) {
+        return getStatistics(null, window);
+    }
+
+    public FieldStatistics getStatistics(String fieldId, int window) {
+        Timer timer = meterRegistry.timer("getWindowStatistics");
+        return timer.record(() -> {
+            FieldConditionRepository repository = fieldRepositoryShards.find(fieldId);
+            if (repository == null) {
+                return new FieldStatistics();
+            }
+            WindowStatistics windowStatistics = repository.windowStatistics();
+            VegetationStatistic statistic = windowStatistics.get(window);
+            return statistic == null
+                    ? new FieldStatistics()
+                    : new FieldStatistics(statistic, windowStatistics.quantiles(window), windowStatistics.captures(window));
+        });
+    }
+
+    /*
+        Note: statistics of the days [from, to] from the daily statistics index (published by the calculator), so it does not depend on
+              the size of the range (same consistency gap as the statistics of the past days).
+     */
+    public FieldStatistics getStatistics(LocalDate from, LocalDate to) {
+        return getStatistics(null, from, to);
+    }
+
+    public FieldStatistics getStatistics(String fieldId, LocalDate from, LocalDate to) {
+        Timer timer = meterRegistry.timer("getRangeStatistics");
+        return timer.record(() -> {
+            FieldConditionRepository repository = fieldRepositoryShards.find(fieldId);
+            if (repository == null) {
+                return new FieldStatistics();
+            }
+            VegetationStatistic statistic = repository.dailyStatisticsIndex().query(from, to);
+            statistic.setAvg(mathProvider.scale(statistic.getAvg(), 2));
+            return new FieldStatistics(statistic);
+        });
+    }
+
+    /*
+        Note: time series of the buckets [from, to) of the resolution, served by the rollups of the repository (O(buckets of the range)
+              for memoRepo), so it does not depend on the number of captures.
+     */
+    public VegetationSeries getSeries(String fieldId, Instant from, Instant to, RollupResolution resolution) {
+        Timer timer = meterRegistry.timer("getSeries");
+        return timer.record(() -> {
+            VegetationSeries series = new VegetationSeries();
+            series.setResolution(resolution.name().toLowerCase());
+
+            FieldConditionRepository repository = fieldRepositoryShards.find(fieldId);
+            if (repository == null) {
+                return series;
+            }
+
+            final List<VegetationSeriesPoint> points = new ArrayList<>();
+            for (Map.Entry<Instant, DailyAggregate> bucket : repository.findRollups(resolution, from, to).entrySet()) {
+                DailyAggregate aggregate = bucket.getValue();
+                points.add(new VegetationSeriesPoint(
+                        bucket.getKey(),
+                        aggregate.getCount(),
+                        aggregate.getMin(),
+                        aggregate.getMax(),
+                        mathProvider.scale(aggregate.average(), 2),
+                        mathProvider.scale(aggregate.standardDeviation(), 2)
+                ));
+            }
+            series.setPoints(points);
+            return series;
+        });
+    }
+
 }
@@ -1,19 +1,151 @@
 package com.chriniko.fc.statistics.validator;
 
 import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
 import com.chriniko.fc.statistics.error.BusinessValidationException;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.RollupResolution;
+import com.chriniko.fc.statistics.repository.WindowStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.validation.constraints.NotNull;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 @Component
 public class FieldConditionInputValidator {
 
+    private static final String OUT_OF_WINDOW_REJECT = "reject";
+    private static final String OUT_OF_WINDOW_DROP = "drop";
+
+    private static final Pattern FIELD_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final FieldConditionRepository fieldConditionRepository;
+    private final Clock clock;
+    private final boolean rejectOutOfWindow;
+    private final int[] windows;
+    private final int rangeMaxDays;
+    private final int seriesMaxPoints;
+
+    @Autowired
+    public FieldConditionInputValidator(FieldConditionRepository fieldConditionRepository,
+                                        Clock clock,
+                                        @Value("${field-statistics.out-of-window}") String outOfWindow,
+                                        @Value("${field-statistics.windows}") int[] windows,
+                                        @Value("${field-statistics.past-days}") int pastDays,
+                                        @Value("${field-statistics.range.max-days}") int rangeMaxDays,
+                                        @Value("${retention.days}") int retentionDays,
+                                        @Value("${field-statistics.series.max-points}") int seriesMaxPoints) {
+        if (!OUT_OF_WINDOW_REJECT.equals(outOfWindow) && !OUT_OF_WINDOW_DROP.equals(outOfWindow)) {
+            throw new BusinessProcessingException("not valid field-statistics.out-of-window: " + outOfWindow + ", supported: reject | drop");
+        }
+        // Note: the days of a range are served by the daily statistics index, which is built from the retained days.
+        if (rangeMaxDays < 1 || rangeMaxDays > retentionDays) {
+            throw new BusinessProcessingException("field-statistics.range.max-days should be positive and not greater than retention.days: "
+                    + retentionDays + ", provided: " + rangeMaxDays);
+        }
+        if (seriesMaxPoints < 1) {
+            throw new BusinessProcessingException("field-statistics.series.max-points should be positive, provided: " + seriesMaxPoints);
+        }
+
+        this.fieldConditionRepository = fieldConditionRepository;
+        this.clock = clock;
+        this.rejectOutOfWindow = OUT_OF_WINDOW_REJECT.equals(outOfWindow);
+        this.windows = WindowStatistics.windowsOf(windows, pastDays);
+        this.rangeMaxDays = rangeMaxDays;
+        this.seriesMaxPoints = seriesMaxPoints;
+    }
+
     public void validate(FieldConditionCapture input) {
         @NotNull Double vegetation = input.getVegetation();
+        validateVegetation(vegetation);
+        validateOccurrenceAt(input.getOccurrenceAt().toEpochMilli());
+        validateFieldId(input.getFieldId());
+    }
+
+    /*
+        Note: the field identifier is optional (default field), otherwise 1 to 64 letters, digits, '.', '_' or '-'.
+     */
+    public void validateFieldId(String fieldId) {
+        if (fieldId != null && !FIELD_ID.matcher(fieldId).matches()) {
+            throw new BusinessValidationException("provided fieldId is not valid, it should be 1 to 64 letters, digits, '.', '_' or '-'.");
+        }
+    }
+
+    public void validateVegetation(double vegetation) {
         if (vegetation < 0) {
             throw new BusinessValidationException("provided vegetation should not be negative.");
         }
     }
 
+    /*
+        Note: with `field-statistics.out-of-window=drop` a capture which is out of the retained window of the repository
+              is accepted and then dropped by the repository (it is counted there).
+     */
+    public void validateOccurrenceAt(long occurrenceAtEpochMillis) {
+        if (rejectOutOfWindow && !fieldConditionRepository.isInRetainedWindow(occurrenceAtEpochMillis)) {
+            throw new BusinessValidationException("provided occurrenceAt is out of the retained window of days.");
+        }
+    }
+
+    public void validateWindow(int window) {
+        if (Arrays.binarySearch(windows, window) < 0) {
+            throw new BusinessValidationException("provided window is not maintained, maintained windows: " + Arrays.toString(windows));
+        }
+    }
+
+    /*
+        Note: the days of the range should be of the last `field-statistics.range.max-days` days (the days of the daily statistics index)
+              and retained by the repository, otherwise their statistics are not known (and not zero).
+     */
+    public void validateRange(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new BusinessValidationException("provided from should not be after to.");
+        }
+
+        LocalDate today = LocalDate.now(clock);
+        LocalDate oldest = today.minusDays(rangeMaxDays - 1);
+        if (to.isAfter(today)) {
+            throw new BusinessValidationException("provided to should not be after today: " + today + ".");
+        }
+        if (from.isBefore(oldest)
+                || !fieldConditionRepository.isInRetainedWindow(from.atStartOfDay(clock.getZone()).toInstant().toEpochMilli())) {
+            throw new BusinessValidationException("provided from should be one of the last " + rangeMaxDays + " days (not before: " + oldest + ")"
+                    + " and retained by the repository.");
+        }
+    }
+
+    /*
+        Note: the resolution of a time series [from, to), the provided one (minute | hour | day) or, if not provided, the finest of hour and day
+              which fits in `field-statistics.series.max-points` buckets (so a long range is downsampled to days).
+     */
+    public RollupResolution validateSeries(Instant from, Instant to, String resolution) {
+        if (!from.isBefore(to)) {
+            throw new BusinessValidationException("provided from should be before to.");
+        }
+
+        long fromMillis = from.toEpochMilli();
+        long toMillis = to.toEpochMilli();
+
+        if (resolution == null) {
+            return RollupResolution.HOUR.bucketsOf(fromMillis, toMillis) <= seriesMaxPoints ? RollupResolution.HOUR : RollupResolution.DAY;
+        }
+
+        RollupResolution result = Arrays.stream(RollupResolution.values())
+                .filter(r -> r.name().equalsIgnoreCase(resolution))
+                .findFirst()
+                .orElseThrow(() -> new BusinessValidationException("provided resolution is not valid, supported: minute | hour | day"));
+
+        if (result.bucketsOf(fromMillis, toMillis) > seriesMaxPoints) {
+            throw new BusinessValidationException("provided range has more than " + seriesMaxPoints + " buckets of resolution: " + resolution
+                    + ", use a coarser resolution or a shorter range.");
+        }
+        return result;
+    }
+
 }
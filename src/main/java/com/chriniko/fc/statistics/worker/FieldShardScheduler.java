@@ -0,0 +1,157 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+    Note: assigns the dirty shards of the fields to a bounded pool of calculator threads (`field-statistics.fields.calculator-threads`),
+          a shard is calculated by one thread at a time (its dirty fields are drained and recalculated one by one), so the threads
+          never contend on the fields of a shard and the time to fresh statistics does not grow with the number of shards
+          as long as the pool keeps up.
+
+          Every dispatch round (driven by the statistics calculator thread) orders the dirty shards which are not in progress by priority:
+          the time since their first change which is not calculated yet, weighted by their pending writes
+          (staleness * (1 + log2(1 + pending writes))), so a busy shard is served first, but a quiet shard still ages and is never starved.
+          Only as many shards as the free threads are dispatched, the rest wait for the next round with their priority growing.
+
+          The CPU of the recalculations is bounded by a budget (token bucket of calculation time): the threads may be busy at most
+          `field-statistics.fields.max-busy-ratio` of their time, the budget refills with the elapsed time and it is capped to one second
+          of work, so after a burst the dispatch pauses until the spent time is paid back (the dirty marks are kept, nothing is lost).
+ */
+
+@Log4j2
+
+final class FieldShardScheduler {
+
+    private static final long MAX_CREDIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final FieldRepositoryShards fieldRepositoryShards;
+    private final Executor calculatorThreads;
+    private final int parallelism;
+    private final double maxBusyRatio;
+    private final Consumer<String> fieldCalculation;
+
+    private final AtomicIntegerArray inProgress;
+    private final AtomicInteger running;
+    private final LongAdder spentNanos;
+
+    // Note: state of the budget, only accessed by the dispatching thread.
+    private long creditNanos;
+    private long lastRefillNanos;
+    private boolean refilled;
+
+    FieldShardScheduler(FieldRepositoryShards fieldRepositoryShards,
+                        Executor calculatorThreads,
+                        int parallelism,
+                        double maxBusyRatio,
+                        Consumer<String> fieldCalculation) {
+        this.fieldRepositoryShards = fieldRepositoryShards;
+        this.calculatorThreads = calculatorThreads;
+        this.parallelism = parallelism;
+        this.maxBusyRatio = maxBusyRatio;
+        this.fieldCalculation = fieldCalculation;
+
+        this.inProgress = new AtomicIntegerArray(fieldRepositoryShards.noOfShards());
+        this.running = new AtomicInteger();
+        this.spentNanos = new LongAdder();
+        this.creditNanos = MAX_CREDIT_NANOS;
+    }
+
+    /*
+        Note: one dispatch round, returns the number of dispatched shards.
+     */
+    int dispatch(long nowNanos) {
+        refill(nowNanos);
+        if (creditNanos <= 0) {
+            log.trace("calculation of shards is paused, budget exhausted, credit in ns: " + creditNanos);
+            return 0;
+        }
+
+        int freeThreads = parallelism - running.get();
+        if (freeThreads <= 0) {
+            return 0;
+        }
+
+        final List<ShardPriority> candidates = new ArrayList<>();
+        for (int shardIdx = 0; shardIdx < fieldRepositoryShards.noOfShards(); shardIdx++) {
+            if (inProgress.get(shardIdx) == 1 || !fieldRepositoryShards.hasDirtyFields(shardIdx)) {
+                continue;
+            }
+            candidates.add(new ShardPriority(shardIdx, priorityOf(shardIdx, nowNanos)));
+        }
+        candidates.sort(Comparator.comparingDouble((ShardPriority c) -> c.priority).reversed());
+
+        int dispatched = 0;
+        for (ShardPriority candidate : candidates) {
+            if (dispatched == freeThreads) {
+                break;
+            }
+            if (inProgress.compareAndSet(candidate.shardIdx, 0, 1)) {
+                running.incrementAndGet();
+                calculatorThreads.execute(() -> calculateShard(candidate.shardIdx));
+                dispatched++;
+            }
+        }
+        return dispatched;
+    }
+
+    double priorityOf(int shardIdx, long nowNanos) {
+        long dirtySince = fieldRepositoryShards.dirtySinceNanos(shardIdx);
+        long staleness = dirtySince == 0 ? 0 : Math.max(0, nowNanos - dirtySince);
+        long pendingWrites = fieldRepositoryShards.pendingWrites(shardIdx);
+
+        // Note: +1, so a shard which is dirty since this very moment is still ordered by its writes.
+        return (staleness + 1) * (1 + Math.log1p(pendingWrites) / Math.log(2));
+    }
+
+    int running() {
+        return running.get();
+    }
+
+    // ------ internals ------
+
+    private void calculateShard(int shardIdx) {
+        long startTime = System.nanoTime();
+        try {
+            for (String fieldId : fieldRepositoryShards.drainDirtyFields(shardIdx)) {
+                fieldCalculation.accept(fieldId);
+            }
+        } finally {
+            spentNanos.add(System.nanoTime() - startTime);
+            inProgress.set(shardIdx, 0);
+            running.decrementAndGet();
+        }
+    }
+
+    private void refill(long nowNanos) {
+        if (refilled) {
+            long elapsed = Math.max(0, nowNanos - lastRefillNanos);
+            creditNanos = Math.min(MAX_CREDIT_NANOS, creditNanos + (long) (elapsed * parallelism * maxBusyRatio));
+        }
+        refilled = true;
+        lastRefillNanos = nowNanos;
+
+        creditNanos -= spentNanos.sumThenReset();
+    }
+
+    private static final class ShardPriority {
+
+        private final int shardIdx;
+        private final double priority;
+
+        private ShardPriority(int shardIdx, double priority) {
+            this.shardIdx = shardIdx;
+            this.priority = priority;
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package com.chriniko.fc.statistics.worker;
 
 import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.CaptureStatistics;
+import com.chriniko.fc.statistics.dto.FieldStatistics;
 import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import com.chriniko.fc.statistics.dto.VegetationQuantiles;
 import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
 import com.chriniko.fc.statistics.health.FieldStatisticsCalculatorHealthContext;
+import com.chriniko.fc.statistics.repository.DailyAggregate;
+import com.chriniko.fc.statistics.repository.DailyStatisticsIndex;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
 import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.repository.QuantileSketch;
+import com.chriniko.fc.statistics.repository.WindowStatistics;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,25 +24,58 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Collections;
 import java.util.DoubleSummaryStatistics;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Note: `field-statistics.worker.mode`:
+            fixed-delay:    the statistics are recalculated every `field-statistics.worker.fixed-delay-ms`, even if nothing changed.
+            change-driven:  every `min-latency-ms` the worker compares the write version of the repository with the version of the last
+                            calculation (one read of a striped counter), and recalculates only if it changed, so a quiet field costs
+                            no calculation at all. A burst of captures is coalesced: the calculation waits until the version is stable
+                            for one check, but never more than `max-latency-ms` after the first change which is not calculated yet.
+                            The statistics are also recalculated when the day rolls over, so the window slides at midnight.
+
+    Note: after the default field, every run dispatches the shards which have fields changed since their last calculation
+          (see `FieldRepositoryShards`), and all of them once the day rolls over, so an idle field costs no calculation in both modes.
+          The shards are calculated by the `field-statistics-fields-calculator` threads, prioritized and within a budget of CPU
+          (see `FieldShardScheduler`). The publication listeners (long polling, stream) are notified only for the default field.
+ */
 
 @Log4j2
 
 @Component
 public class FieldStatisticsCalculator {
 
+    private static final String MODE_FIXED_DELAY = "fixed-delay";
+    private static final String MODE_CHANGE_DRIVEN = "change-driven";
+
     private final MathProvider mathProvider;
 
     private final FieldConditionRepository fieldConditionRepository;
 
+    private final FieldRepositoryShards fieldRepositoryShards;
+
     private final PoolHandler poolHandler;
 
     private final FieldStatisticsCalculatorHealthContext statisticsCalculatorHealthContext;
 
+    private final Clock clock;
+
+    private final ObjectMapper objectMapper;
+
+    private final List<StatisticsPublicationListener> publicationListeners;
+
     @Value("${field-statistics.worker.initial-delay-ms}")
     private long initialDelay;
 
@@ -43,33 +88,129 @@ public class FieldStatisticsCalculator {
     @Value("${field-statistics.past-days}")
     private int pastDays;
 
+    // Note: days (back from today) of the daily statistics index, which serves the statistics of any range of days.
+    @Value("${field-statistics.range.max-days}")
+    private int rangeMaxDays;
+
+    // Note: the maintained windows of days (the past days window is always maintained).
+    @Value("${field-statistics.windows}")
+    private int[] configuredWindows;
+
+    @Value("${field-statistics.worker.mode}")
+    private String mode;
+
+    @Value("${field-statistics.worker.change-driven.min-latency-ms}")
+    private long minLatency;
+
+    @Value("${field-statistics.worker.change-driven.max-latency-ms}")
+    private long maxLatency;
+
+    @Value("${field-statistics.fields.calculator-threads}")
+    private int fieldsCalculatorThreads;
+
+    @Value("${field-statistics.fields.max-busy-ratio}")
+    private double fieldsMaxBusyRatio;
+
     private ScheduledExecutorService scheduledExecutorService;
 
+    private ExecutorService fieldsCalculatorExecutorService;
+
+    private FieldShardScheduler fieldShardScheduler;
+
+    // Note: resolved on init, before the threads of the calculation are started.
+    private int[] resolvedWindows;
+
+    // Note: state of the change-driven mode, only accessed by the worker thread.
+    private long calculatedVersion;
+    private LocalDate calculatedDay;
+    private boolean changePending;
+    private long changePendingSinceNanos;
+    private long lastSeenVersion;
+
+    // Note: the day of the last calculation of the fields of the shards, only accessed by the worker thread.
+    private LocalDate fieldsCalculatedDay;
+
     @Autowired
     public FieldStatisticsCalculator(FieldConditionRepository fieldConditionRepository,
+                                     FieldRepositoryShards fieldRepositoryShards,
                                      PoolHandler poolHandler,
                                      MathProvider mathProvider,
-                                     FieldStatisticsCalculatorHealthContext statisticsCalculatorHealthContext) {
+                                     FieldStatisticsCalculatorHealthContext statisticsCalculatorHealthContext,
+                                     Clock clock,
+                                     ObjectMapper objectMapper,
+                                     List<StatisticsPublicationListener> publicationListeners) {
         this.fieldConditionRepository = fieldConditionRepository;
+        this.fieldRepositoryShards = fieldRepositoryShards;
         this.poolHandler = poolHandler;
         this.mathProvider = mathProvider;
         this.statisticsCalculatorHealthContext = statisticsCalculatorHealthContext;
+        this.clock = clock;
+        this.objectMapper = objectMapper;
+        this.publicationListeners = publicationListeners;
     }
 
     @PostConstruct
     void init() {
+        windows(); // Note: fail fast on not valid windows.
+
+        if (fieldsCalculatorThreads < 1 || fieldsMaxBusyRatio <= 0 || fieldsMaxBusyRatio > 1) {
+            throw new BusinessProcessingException("field-statistics.fields.calculator-threads should be positive and max-busy-ratio in (0, 1]"
+                    + ", provided: " + fieldsCalculatorThreads + ", " + fieldsMaxBusyRatio);
+        }
+
+        AtomicInteger fieldsCalculatorIdx = new AtomicInteger();
+        fieldsCalculatorExecutorService = Executors.newFixedThreadPool(fieldsCalculatorThreads, r -> {
+            Thread t = new Thread(r);
+            t.setName("field-statistics-fields-calculator-" + fieldsCalculatorIdx.getAndIncrement());
+            return t;
+        });
+        fieldShardScheduler = new FieldShardScheduler(
+                fieldRepositoryShards,
+                fieldsCalculatorExecutorService,
+                fieldsCalculatorThreads,
+                fieldsMaxBusyRatio,
+                this::calculateField
+        );
+
         scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r);
             t.setName("field-conditions-statistics-calculator");
             return t;
         });
 
-        scheduledExecutorService.scheduleWithFixedDelay(
-                this::calculateFieldConditionStatisticsScheduledTask,
-                initialDelay,
-                fixedDelay,
-                TimeUnit.MILLISECONDS
-        );
+        switch (mode) {
+            case MODE_FIXED_DELAY:
+                scheduledExecutorService.scheduleWithFixedDelay(
+                        () -> {
+                            calculateFieldConditionStatisticsScheduledTask();
+                            calculateDirtyFields();
+                        },
+                        initialDelay,
+                        fixedDelay,
+                        TimeUnit.MILLISECONDS
+                );
+                break;
+
+            case MODE_CHANGE_DRIVEN:
+                if (minLatency < 1 || maxLatency < minLatency) {
+                    throw new BusinessProcessingException("field-statistics.worker.change-driven latencies should be 1 <= min-latency-ms <= max-latency-ms"
+                            + ", provided: " + minLatency + ", " + maxLatency);
+                }
+                scheduledExecutorService.scheduleWithFixedDelay(
+                        () -> {
+                            recalculateOnChange(System.nanoTime());
+                            calculateDirtyFields();
+                        },
+                        initialDelay,
+                        minLatency,
+                        TimeUnit.MILLISECONDS
+                );
+                break;
+
+            default:
+                throw new BusinessProcessingException("not valid field-statistics.worker.mode: " + mode
+                        + ", supported: fixed-delay | change-driven");
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread(this::clearResources));
     }
@@ -79,22 +220,76 @@ public class FieldStatisticsCalculator {
         clearResources();
     }
 
-    private void calculateFieldConditionStatisticsScheduledTask() {
-        try {
-            List<MergedFieldConditionCapture> mergedCaptures = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(pastDays);
-            if (mergedCaptures.isEmpty()) {
-                fieldConditionRepository.updateVegetationStatistics(new VegetationStatistic());
-                return;
+    /*
+        Note: one check of the change-driven mode, returns true if the statistics were recalculated.
+     */
+    boolean recalculateOnChange(long nowNanos) {
+        // Note: the version is read before the calculation, so the captures saved during the calculation trigger the next one.
+        long version = fieldConditionRepository.writeVersion();
+        LocalDate today = LocalDate.now(clock);
+
+        if (today.equals(calculatedDay) && version == calculatedVersion) {
+            return false;
+        }
+
+        if (today.equals(calculatedDay)) {
+            if (!changePending) {
+                changePending = true;
+                changePendingSinceNanos = nowNanos;
+                lastSeenVersion = version;
+                return false;
             }
 
-            VegetationStatistic freshCalculation = extractStatistic(mergedCaptures);
-            fieldConditionRepository.updateVegetationStatistics(freshCalculation);
+            boolean burstSettled = version == lastSeenVersion;
+            boolean maxLatencyReached = nowNanos - changePendingSinceNanos >= TimeUnit.NANOSECONDS.convert(maxLatency, TimeUnit.MILLISECONDS);
+            if (!burstSettled && !maxLatencyReached) {
+                lastSeenVersion = version;
+                return false;
+            }
+        }
+
+        calculatedVersion = version;
+        calculatedDay = today;
+        changePending = false;
+
+        calculateFieldConditionStatisticsScheduledTask();
+        return true;
+    }
 
-            // Note: housekeeping operation (if we have captures for more than 200days then clear)
-            if (fieldConditionRepository.noOfMergedRecords() > 200) {
-                fieldConditionRepository.clear();
+    /*
+        Note: dispatches the shards which have fields changed since their last calculation (all of them when the day rolled over).
+     */
+    void calculateDirtyFields() {
+        try {
+            LocalDate today = LocalDate.now(clock);
+            if (!today.equals(fieldsCalculatedDay)) {
+                fieldRepositoryShards.markAllDirty();
+                fieldsCalculatedDay = today;
             }
 
+            fieldShardScheduler.dispatch(System.nanoTime());
+        } catch (Exception e) {
+            log.error("critical error occurred during calculation of statistics of fields, message: " + e.getMessage(), e);
+            statisticsCalculatorHealthContext.setError(e);
+        }
+    }
+
+    // Note: invoked by the threads of the fields calculation.
+    private void calculateField(String fieldId) {
+        try {
+            calculate(fieldId, fieldRepositoryShards.find(fieldId));
+        } catch (Exception e) {
+            log.error("critical error occurred during calculation of statistics of field: " + fieldId + ", message: " + e.getMessage(), e);
+            statisticsCalculatorHealthContext.setError(e);
+        }
+    }
+
+    private void calculateFieldConditionStatisticsScheduledTask() {
+        try {
+            calculate(FieldRepositoryShards.DEFAULT_FIELD_ID, fieldConditionRepository);
+
+            // Note: the housekeeping of the old days is done by the retention (see `RetentionWorker`).
+
         } catch (Exception e) {
             log.error("critical error occurred during calculation of field statistics, message: " + e.getMessage(), e);
 
@@ -108,18 +303,201 @@ public class FieldStatisticsCalculator {
         }
     }
 
-    private VegetationStatistic extractStatistic(List<MergedFieldConditionCapture> captures) {
+    private void calculate(String fieldId, FieldConditionRepository repository) throws JsonProcessingException {
+        // Note: the merged captures are fetched once and serve all the windows.
+        int[] windows = windows();
+        List<MergedFieldConditionCapture> mergedCaptures = repository.findAllMergedOrderByOccurrenceDesc(windows[windows.length - 1]);
+
+        // Note: the quantiles are of the captures of the window (merged sketches of its days), not of the merged captures.
+        Map<LocalDate, QuantileSketch> sketchesByDay = repository.findQuantileSketchesOfLastDays(windows[windows.length - 1]);
+        /*
+            Note: same for the count, the average and the standard deviation of the captures (merged aggregates of its days).
+                  The aggregates of the days also serve the daily statistics index, so its days (`rangeMaxDays`, which can be
+                  far more than the windows) cost O(days) and not a scan of their captures.
+         */
+        Map<LocalDate, DailyAggregate> aggregatesByDay = repository.findDailyAggregatesOfLastDays(Math.max(windows[windows.length - 1], rangeMaxDays));
+        repository.updateDailyStatisticsIndex(DailyStatisticsIndex.of(aggregatesByDay));
+
+        WindowStatistics freshCalculation
+                = extractWindowStatistics(mergedCaptures, sketchesByDay, aggregatesByDay, windows, LocalDate.now(clock));
+        repository.updateWindowStatistics(freshCalculation);
+        VegetationStatistic statistic = freshCalculation.get(pastDays);
+        repository.updateVegetationStatistics(statistic);
+
+        FieldStatistics statistics = new FieldStatistics(statistic, freshCalculation.quantiles(pastDays), freshCalculation.captures(pastDays));
+        publishEncoded(fieldId, repository, statistics);
+    }
+
+    VegetationStatistic extractStatistic(List<MergedFieldConditionCapture> captures) {
 
         DoubleSummaryStatistics statistics
                 = captures.stream().mapToDouble(MergedFieldConditionCapture::getVegetation).summaryStatistics();
 
+        return toVegetationStatistic(statistics);
+    }
+
+    /*
+        Note: one pass over the merged captures, every day is accumulated to the windows which cover it
+              (the windows are sorted, so a day of `d` days ago belongs to the windows from the first one which is not smaller than `d`).
+     */
+    WindowStatistics extractWindowStatistics(List<MergedFieldConditionCapture> captures, int[] windows, LocalDate today) {
+        return extractWindowStatistics(captures, Collections.emptyMap(), Collections.emptyMap(), windows, today);
+    }
+
+    WindowStatistics extractWindowStatistics(List<MergedFieldConditionCapture> captures,
+                                             Map<LocalDate, QuantileSketch> sketchesByDay,
+                                             Map<LocalDate, DailyAggregate> aggregatesByDay,
+                                             int[] windows,
+                                             LocalDate today) {
+        DoubleSummaryStatistics[] statistics = new DoubleSummaryStatistics[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            statistics[i] = new DoubleSummaryStatistics();
+        }
+
+        for (MergedFieldConditionCapture capture : captures) {
+            long daysDiff = today.toEpochDay() - capture.getDate().toEpochDay();
+            if (daysDiff < 0) {
+                continue;
+            }
+
+            for (int i = windows.length - 1; i >= 0 && daysDiff <= windows[i]; i--) {
+                statistics[i].accept(capture.getVegetation());
+            }
+        }
+
+        VegetationStatistic[] result = new VegetationStatistic[windows.length];
+        for (int i = 0; i < windows.length; i++) {
+            result[i] = statistics[i].getCount() == 0 ? new VegetationStatistic() : toVegetationStatistic(statistics[i]);
+        }
+        return new WindowStatistics(
+                windows,
+                result,
+                extractWindowQuantiles(sketchesByDay, windows, today),
+                extractWindowCaptures(aggregatesByDay, windows, today)
+        );
+    }
+
+    /*
+        Note: the sketches of the days are merged in the order of their distance from today, so one cumulative sketch serves
+              all the windows (the smallest window first) and every day is merged once, O(days * bins).
+              A window without captures has no quantiles (null).
+     */
+    VegetationQuantiles[] extractWindowQuantiles(Map<LocalDate, QuantileSketch> sketchesByDay, int[] windows, LocalDate today) {
+        VegetationQuantiles[] result = new VegetationQuantiles[windows.length];
+        if (sketchesByDay.isEmpty()) {
+            return result;
+        }
+
+        TreeMap<Long, QuantileSketch> sketchesByDaysDiff = new TreeMap<>();
+        sketchesByDay.forEach((date, sketch) -> {
+            long daysDiff = today.toEpochDay() - date.toEpochDay();
+            if (daysDiff >= 0) {
+                sketchesByDaysDiff.put(daysDiff, sketch);
+            }
+        });
+
+        QuantileSketch cumulative = new QuantileSketch();
+        long mergedUpTo = -1;
+        for (int i = 0; i < windows.length; i++) {
+            for (QuantileSketch sketch : sketchesByDaysDiff.subMap(mergedUpTo, false, (long) windows[i], true).values()) {
+                cumulative.merge(sketch);
+            }
+            mergedUpTo = windows[i];
+
+            if (!cumulative.isEmpty()) {
+                result[i] = new VegetationQuantiles(
+                        mathProvider.scale(cumulative.quantile(0.5), 2),
+                        mathProvider.scale(cumulative.quantile(0.9), 2),
+                        mathProvider.scale(cumulative.quantile(0.99), 2)
+                );
+            }
+        }
+        return result;
+    }
+
+    /*
+        Note: same order as the quantiles, the aggregates of the days (count, compensated sum, squared deviations) are merged exactly
+              (see `DailyAggregate.merge`), so the count, the average and the standard deviation of a window are those of all its captures
+              without a scan of them, O(days). A window without captures has no capture statistics (null).
+     */
+    CaptureStatistics[] extractWindowCaptures(Map<LocalDate, DailyAggregate> aggregatesByDay, int[] windows, LocalDate today) {
+        CaptureStatistics[] result = new CaptureStatistics[windows.length];
+        if (aggregatesByDay.isEmpty()) {
+            return result;
+        }
+
+        TreeMap<Long, DailyAggregate> aggregatesByDaysDiff = new TreeMap<>();
+        aggregatesByDay.forEach((date, aggregate) -> {
+            long daysDiff = today.toEpochDay() - date.toEpochDay();
+            if (daysDiff >= 0) {
+                aggregatesByDaysDiff.put(daysDiff, aggregate);
+            }
+        });
+
+        DailyAggregate cumulative = DailyAggregate.EMPTY;
+        long mergedUpTo = -1;
+        for (int i = 0; i < windows.length; i++) {
+            for (DailyAggregate aggregate : aggregatesByDaysDiff.subMap(mergedUpTo, false, (long) windows[i], true).values()) {
+                cumulative = cumulative.merge(aggregate);
+            }
+            mergedUpTo = windows[i];
+
+            if (!cumulative.isEmpty()) {
+                result[i] = new CaptureStatistics(
+                        cumulative.getCount(),
+                        mathProvider.scale(cumulative.average(), 2),
+                        mathProvider.scale(cumulative.standardDeviation(), 2)
+                );
+            }
+        }
+        return result;
+    }
+
+    /*
+        Note: the statistics are encoded once per change (and not once per read), unchanged statistics keep their version.
+              The listeners are notified for every field, the fields of the shards on the threads of their calculation.
+     */
+    private void publishEncoded(String fieldId,
+                                FieldConditionRepository repository,
+                                FieldStatistics statistics) throws JsonProcessingException {
+        EncodedStatistics published = repository.encodedStatistics();
+        if (published.isSameStatistics(statistics)) {
+            return;
+        }
+
+        byte[] body = objectMapper.writeValueAsBytes(statistics);
+        EncodedStatistics fresh = new EncodedStatistics(statistics, body, published.version() + 1);
+        repository.updateEncodedStatistics(fresh);
+
+        for (StatisticsPublicationListener listener : publicationListeners) {
+            try {
+                listener.published(fieldId, fresh);
+            } catch (Exception e) {
+                log.error("could not notify statistics publication listener: " + listener.getClass().getSimpleName() + ", message: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private VegetationStatistic toVegetationStatistic(DoubleSummaryStatistics statistics) {
         double avg = mathProvider.scale(statistics.getAverage(), 2);
 
         return new VegetationStatistic(statistics.getMin(), statistics.getMax(), avg);
     }
 
+    private int[] windows() {
+        int[] windows = resolvedWindows;
+        if (windows == null) {
+            windows = WindowStatistics.windowsOf(configuredWindows, pastDays);
+            resolvedWindows = windows;
+        }
+        return windows;
+    }
+
     private void clearResources() {
         poolHandler.shutdownAndAwaitTermination(scheduledExecutorService);
+        if (fieldsCalculatorExecutorService != null) {
+            poolHandler.shutdownAndAwaitTermination(fieldsCalculatorExecutorService);
+        }
     }
 
 }
@@ -11,7 +11,7 @@ import java.util.concurrent.TimeUnit;
 @Component
 public class PoolHandler {
 
-    void shutdownAndAwaitTermination(ExecutorService pool) {
+    public void shutdownAndAwaitTermination(ExecutorService pool) {
         pool.shutdown();
         try {
             if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
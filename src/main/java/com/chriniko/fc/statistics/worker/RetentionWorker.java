@@ -0,0 +1,186 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.EvictedDays;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Note: retention of the repositories (the default field and the fields of the shards, see `FieldRepositoryShards`), the days which are older than `retention.days` are evicted in small steps
+          (at most `retention.max-days-per-step` days per run, every `retention.fixed-delay-ms`) by its own thread,
+          so neither the writers nor the statistics calculator pay for the eviction, and the days of the statistics window
+          (`field-statistics.past-days`) are never touched. Every repository has its own `retention.max-days-per-step` per run,
+          and the outcome of a step is the sum over the repositories.
+
+          With `retention.raw-days` (0 disables it) every run also downsamples the days which are older than it (at most
+          `retention.max-days-per-step` days per run): their captures and minute rollups are discarded, their statistics and
+          hour rollups are kept (see `FieldConditionRepository.downsampleDaysBefore`).
+
+          Metrics: retention.evicted.days, retention.evicted.captures, retention.reclaimed.bytes,
+                   retention.downsampled.days, retention.discarded.captures
+ */
+
+@Log4j2
+
+@Component
+public class RetentionWorker {
+
+    private final FieldRepositoryShards fieldRepositoryShards;
+    private final PoolHandler poolHandler;
+    private final Clock clock;
+
+    private final int retentionDays;
+    private final int maxDaysPerStep;
+    private final int rawDays;
+
+    private final Counter evictedDays;
+    private final Counter evictedCaptures;
+    private final Counter reclaimedBytes;
+    private final Counter downsampledDays;
+    private final Counter discardedCaptures;
+
+    @Value("${retention.initial-delay-ms}")
+    private long initialDelay;
+
+    @Value("${retention.fixed-delay-ms}")
+    private long fixedDelay;
+
+    private ScheduledExecutorService scheduledExecutorService;
+
+    @Autowired
+    public RetentionWorker(FieldRepositoryShards fieldRepositoryShards,
+                           PoolHandler poolHandler,
+                           Clock clock,
+                           MeterRegistry meterRegistry,
+                           @Value("${field-statistics.past-days}") int pastDays,
+                           @Value("${retention.days}") int retentionDays,
+                           @Value("${retention.max-days-per-step}") int maxDaysPerStep,
+                           @Value("${retention.raw-days}") int rawDays) {
+
+        if (retentionDays <= pastDays) {
+            throw new BusinessProcessingException("retention.days should be greater than field-statistics.past-days: " + pastDays
+                    + ", provided: " + retentionDays);
+        }
+        if (maxDaysPerStep < 1) {
+            throw new BusinessProcessingException("retention.max-days-per-step should be positive, provided: " + maxDaysPerStep);
+        }
+        if (rawDays < 0) {
+            throw new BusinessProcessingException("retention.raw-days should not be negative, provided: " + rawDays);
+        }
+
+        this.fieldRepositoryShards = fieldRepositoryShards;
+        this.poolHandler = poolHandler;
+        this.clock = clock;
+        this.retentionDays = retentionDays;
+        this.maxDaysPerStep = maxDaysPerStep;
+        this.rawDays = rawDays;
+
+        this.evictedDays = meterRegistry.counter("retention.evicted.days");
+        this.evictedCaptures = meterRegistry.counter("retention.evicted.captures");
+        this.reclaimedBytes = meterRegistry.counter("retention.reclaimed.bytes");
+        this.downsampledDays = meterRegistry.counter("retention.downsampled.days");
+        this.discardedCaptures = meterRegistry.counter("retention.discarded.captures");
+    }
+
+    @PostConstruct
+    void init() {
+        scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("repository-retention-worker");
+            return t;
+        });
+
+        scheduledExecutorService.scheduleWithFixedDelay(
+                this::evictScheduledTask,
+                initialDelay,
+                fixedDelay,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    @PreDestroy
+    void clear() {
+        poolHandler.shutdownAndAwaitTermination(scheduledExecutorService);
+    }
+
+    /*
+        Note: one eviction step, removes the oldest days (up to `retention.max-days-per-step`) which are out of the retention.
+     */
+    public EvictedDays evictStep() {
+        LocalDate cutoff = LocalDate.now(clock).minusDays(retentionDays);
+
+        final EvictedDays[] total = {fieldRepositoryShards.defaultFieldRepository().evictDaysBefore(cutoff, maxDaysPerStep)};
+        fieldRepositoryShards.forEachField((fieldId, repository) -> total[0] = total[0].plus(repository.evictDaysBefore(cutoff, maxDaysPerStep)));
+
+        EvictedDays evicted = total[0];
+        if (evicted.isEmpty()) {
+            return evicted;
+        }
+
+        evictedDays.increment(evicted.getDays());
+        evictedCaptures.increment(evicted.getCaptures());
+        reclaimedBytes.increment(evicted.getBytes());
+
+        log.debug("retention evicted days before: " + cutoff
+                + ", days: " + evicted.getDays()
+                + ", captures: " + evicted.getCaptures()
+                + ", bytes: " + evicted.getBytes());
+
+        return evicted;
+    }
+
+    /*
+        Note: one downsampling step, discards the captures of the oldest days (up to `retention.max-days-per-step`) which are older
+              than `retention.raw-days`, nothing if it is disabled.
+     */
+    public EvictedDays downsampleStep() {
+        if (rawDays == 0) {
+            return EvictedDays.NONE;
+        }
+        LocalDate cutoff = LocalDate.now(clock).minusDays(rawDays);
+
+        final EvictedDays[] total = {fieldRepositoryShards.defaultFieldRepository().downsampleDaysBefore(cutoff, maxDaysPerStep)};
+        fieldRepositoryShards.forEachField((fieldId, repository) -> total[0] = total[0].plus(repository.downsampleDaysBefore(cutoff, maxDaysPerStep)));
+
+        EvictedDays downsampled = total[0];
+        if (downsampled.isEmpty()) {
+            return downsampled;
+        }
+
+        downsampledDays.increment(downsampled.getDays());
+        discardedCaptures.increment(downsampled.getCaptures());
+        reclaimedBytes.increment(downsampled.getBytes());
+
+        log.debug("retention downsampled days before: " + cutoff
+                + ", days: " + downsampled.getDays()
+                + ", captures: " + downsampled.getCaptures()
+                + ", bytes: " + downsampled.getBytes());
+
+        return downsampled;
+    }
+
+    // ------ internals ------
+
+    private void evictScheduledTask() {
+        try {
+            evictStep();
+            downsampleStep();
+        } catch (Exception e) {
+            // Note: subsequent executions of a scheduled task are suppressed if an execution throws.
+            log.error("critical error occurred during retention of repository, message: " + e.getMessage(), e);
+        }
+    }
+}
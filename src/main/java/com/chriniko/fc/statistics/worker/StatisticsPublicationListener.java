@@ -0,0 +1,14 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+
+/*
+    Note: notified by the statistics calculator (on its threads) every time a changed statistic of a field is published,
+          so an implementation should only hand the publication over (e.g. complete waiting requests) and never block.
+          The fields of the shards are calculated concurrently, so an implementation is notified concurrently too.
+          The default field is published with `FieldRepositoryShards.DEFAULT_FIELD_ID`.
+ */
+public interface StatisticsPublicationListener {
+
+    void published(String fieldId, EncodedStatistics statistics);
+}
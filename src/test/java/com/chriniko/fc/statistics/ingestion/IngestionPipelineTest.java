@@ -0,0 +1,207 @@
+package com.chriniko.fc.statistics.ingestion;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.persistence.WriteAheadLog;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldConditionRepositoryInMemoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.awaitility.Awaitility;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IngestionPipelineTest {
+
+    private static ForkJoinPool executorService;
+
+    @BeforeClass
+    public static void globalSetup() {
+        executorService = new ForkJoinPool(20);
+    }
+
+    @AfterClass
+    public static void globalCleanup() {
+        executorService.shutdown();
+    }
+
+    @Test
+    public void published_captures_are_applied_in_batches() {
+
+        // given
+        FieldConditionRepository repository = new FieldConditionRepositoryInMemoryImpl(
+                new MathProvider(),
+                Clock.systemUTC(),
+                executorService,
+                true,
+                true,
+                0,
+                256,
+                false);
+
+        IngestionPipeline ingestionPipeline = open(repository, new SimpleMeterRegistry(), 1024, 4, 1024, "block");
+
+        int captures = 10_000;
+        long now = Instant.now().toEpochMilli();
+
+        // when
+        List<CompletableFuture<Void>> publishes = IntStream.range(0, captures)
+                .mapToObj(idx -> CompletableFuture.runAsync(() -> ingestionPipeline.publish(now, 0.5), executorService))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(publishes.toArray(new CompletableFuture[0])).join();
+
+        ingestionPipeline.close();
+
+        // then
+        assertEquals(captures, repository.noOfRecords());
+    }
+
+    @Test
+    public void reject_backpressure_rejects_when_ring_buffer_is_full() {
+
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger saved = new AtomicInteger();
+        FieldConditionRepository repository = blockingRepository(release, saved);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IngestionPipeline ingestionPipeline = open(repository, meterRegistry, 4, 1, 1024, "reject");
+
+        long now = Instant.now().toEpochMilli();
+        for (int i = 0; i < 4; i++) {
+            ingestionPipeline.publish(now, 0.5);
+        }
+
+        // when
+        try {
+            ingestionPipeline.publish(now, 0.5);
+            fail();
+        } catch (BusinessOverloadedException expected) {
+            // then
+            assertEquals(1.0, meterRegistry.counter("ingestion.rejected").count(), 0.0);
+        }
+
+        release.countDown();
+        ingestionPipeline.close();
+        assertEquals(4, saved.get());
+    }
+
+    @Test
+    public void drop_oldest_backpressure_discards_a_pending_capture() {
+
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger saved = new AtomicInteger();
+        FieldConditionRepository repository = blockingRepository(release, saved);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IngestionPipeline ingestionPipeline = open(repository, meterRegistry, 4, 1, 1024, "drop-oldest");
+
+        long now = Instant.now().toEpochMilli();
+        for (int i = 0; i < 4; i++) {
+            ingestionPipeline.publish(now, 0.5);
+        }
+
+        // when
+        CompletableFuture<Void> publish = CompletableFuture.runAsync(() -> ingestionPipeline.publish(now, 0.5), executorService);
+
+        // Note: the publisher requested the drop and waits for the freed slot.
+        Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> meterRegistry.counter("ingestion.dropped").count() == 1.0);
+        release.countDown();
+        publish.join();
+
+        ingestionPipeline.close();
+
+        // then
+        assertEquals(4, saved.get());
+    }
+
+    @Test
+    public void drop_oldest_backpressure_waits_for_one_batch_and_not_for_the_backlog() {
+
+        // given
+        AtomicInteger saved = new AtomicInteger();
+        FieldConditionRepository repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.doAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(20);
+            saved.addAndGet(invocation.<CaptureBatch>getArgument(0).size());
+            return null;
+        }).when(repository).saveAll(Mockito.any(CaptureBatch.class));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IngestionPipeline ingestionPipeline = open(repository, meterRegistry, 64, 1, 2, "drop-oldest");
+
+        int captures = 80;
+        long now = Instant.now().toEpochMilli();
+
+        // when
+        long maxPublishNanos = 0;
+        for (int i = 0; i < captures; i++) {
+            long startTime = System.nanoTime();
+            ingestionPipeline.publish(now, 0.5);
+            maxPublishNanos = Math.max(maxPublishNanos, System.nanoTime() - startTime);
+        }
+
+        ingestionPipeline.close();
+
+        // then
+        // Note: a backlog of 64 captures in batches of 2 takes ~640 ms to apply, a batch ~20 ms.
+        long dropped = (long) meterRegistry.counter("ingestion.dropped").count();
+        assertTrue(dropped > 0);
+        assertTrue("max publish latency ms: " + TimeUnit.MILLISECONDS.convert(maxPublishNanos, TimeUnit.NANOSECONDS),
+                maxPublishNanos < TimeUnit.NANOSECONDS.convert(300, TimeUnit.MILLISECONDS));
+        assertEquals(captures - dropped, saved.get());
+    }
+
+    // ------ internals ------
+
+    private FieldConditionRepository blockingRepository(CountDownLatch release, AtomicInteger saved) {
+        FieldConditionRepository repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.doAnswer(invocation -> {
+            release.await();
+            saved.addAndGet(invocation.<CaptureBatch>getArgument(0).size());
+            return null;
+        }).when(repository).saveAll(Mockito.any(CaptureBatch.class));
+        return repository;
+    }
+
+    private IngestionPipeline open(FieldConditionRepository repository,
+                                   SimpleMeterRegistry meterRegistry,
+                                   int ringSize,
+                                   int shards,
+                                   int maxBatchSize,
+                                   String backpressure) {
+        IngestionPipeline ingestionPipeline = new IngestionPipeline(
+                repository,
+                Mockito.mock(WriteAheadLog.class),
+                meterRegistry,
+                "disruptor",
+                ringSize,
+                shards,
+                maxBatchSize,
+                "blocking",
+                backpressure
+        );
+        ingestionPipeline.start();
+        return ingestionPipeline;
+    }
+}
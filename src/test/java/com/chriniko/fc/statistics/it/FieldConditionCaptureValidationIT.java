@@ -269,5 +269,42 @@ public class FieldConditionCaptureValidationIT extends Specification {
 
     }
 
+    @Test
+    public void capture_is_out_of_retained_window_case() throws Exception {
+
+        // given
+        fieldConditionRepository.clear();
+
+        String payload = FileSupport.read("request/store_field_condition_invalid_7.json");
+
+        HttpEntity<String> httpEntity = createHttpEntity(payload);
+        String url = getBaseUrl(port);
+
+        // when
+        try {
+            restTemplate.exchange(url, HttpMethod.POST, httpEntity, Void.class);
+            Assert.fail();
+        } catch (HttpClientErrorException error) {
+
+            // then
+            Assert.assertEquals(HttpStatus.BAD_REQUEST, error.getStatusCode());
+
+            String response = error.getResponseBodyAsString();
+
+            JSONAssert.assertEquals(
+                    FileSupport.read("response/store_field_condition_invalid_7.json"),
+                    response,
+                    new CustomComparator(
+                            JSONCompareMode.STRICT,
+                            new Customization("timestamp", (o1, o2) -> true)
+                    )
+            );
+
+            List<FieldConditionCapture> records = fieldConditionRepository.findAll();
+            Assert.assertTrue(records.isEmpty());
+        }
+
+    }
+
 
 }
@@ -0,0 +1,72 @@
+package com.chriniko.fc.statistics.it;
+
+
+import com.chriniko.fc.statistics.Bootstrap;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.it.core.ConfigIT;
+import com.chriniko.fc.statistics.it.core.Specification;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import org.awaitility.Awaitility;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        classes = Bootstrap.class,
+        properties = {"application.properties"}
+)
+
+@RunWith(SpringRunner.class)
+public class MultiFieldStatisticsIT extends Specification {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private FieldConditionRepository fieldConditionRepository;
+
+    @Test
+    public void statistics_per_field_case() {
+
+        // given
+        fieldConditionRepository.clear();
+
+        String url = getBaseUrl(port);
+        Instant occurrenceAt = Instant.parse(ConfigIT.TIME_POINT_FOR_TESTING);
+
+        // when
+        restTemplate.exchange(url, HttpMethod.POST, createHttpEntity(new FieldConditionCapture(0.20, occurrenceAt, "north-field")), Void.class);
+        restTemplate.exchange(url, HttpMethod.POST, createHttpEntity(new FieldConditionCapture(0.40, occurrenceAt.minusSeconds(60), "north-field")), Void.class);
+        restTemplate.exchange(url, HttpMethod.POST, createHttpEntity(new FieldConditionCapture(0.90, occurrenceAt, "south-field")), Void.class);
+
+        // then
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(
+                () -> restTemplate.getForObject(url + "?field-id=north-field", FieldStatistics.class).getVegetation().getAvg() == 0.30
+        );
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(
+                () -> restTemplate.getForObject(url + "?field-id=south-field", FieldStatistics.class).getVegetation().getAvg() == 0.90
+        );
+
+        // Note: the captures of the fields are not captures of the default field.
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).until(
+                () -> restTemplate.getForObject(url, FieldStatistics.class).getVegetation().getAvg() == 0.0
+        );
+
+        FieldStatistics unknownField = restTemplate.getForObject(url + "?field-id=unknown-field", FieldStatistics.class);
+        Assert.assertEquals(0.0, unknownField.getVegetation().getAvg(), 0.0);
+    }
+}
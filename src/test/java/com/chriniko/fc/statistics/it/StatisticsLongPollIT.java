@@ -0,0 +1,95 @@
+package com.chriniko.fc.statistics.it;
+
+
+import com.chriniko.fc.statistics.Bootstrap;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.it.core.ConfigIT;
+import com.chriniko.fc.statistics.it.core.Specification;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        classes = Bootstrap.class,
+        properties = {"application.properties"}
+)
+
+@RunWith(SpringRunner.class)
+public class StatisticsLongPollIT extends Specification {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private FieldConditionRepository fieldConditionRepository;
+
+    @Test
+    public void conditional_get_and_long_poll_case() throws Exception {
+
+        // given
+        fieldConditionRepository.clear();
+
+        String url = getBaseUrl(port);
+        ResponseEntity<String> current = restTemplate.getForEntity(url, String.class);
+        String entityTag = current.getHeaders().getETag();
+        Assert.assertNotNull(entityTag);
+
+        // when - then (nothing changed)
+        ResponseEntity<String> notModified = restTemplate.exchange(url + "/long-poll?timeout-ms=200", HttpMethod.GET, ifNoneMatch(entityTag), String.class);
+        Assert.assertTrue(notModified.getStatusCode() == HttpStatus.NOT_MODIFIED || !entityTag.equals(notModified.getHeaders().getETag()));
+
+        // when - then (a capture changes the statistics)
+        restTemplate.exchange(url, HttpMethod.POST, createHttpEntity(new FieldConditionCapture(0.77, Instant.parse(ConfigIT.TIME_POINT_FOR_TESTING))), Void.class);
+
+        long deadline = System.nanoTime() + TimeUnit.NANOSECONDS.convert(10, TimeUnit.SECONDS);
+        FieldStatistics statistics = null;
+        while (System.nanoTime() < deadline) {
+            ResponseEntity<String> polled = restTemplate.exchange(url + "/long-poll?timeout-ms=5000", HttpMethod.GET, ifNoneMatch(entityTag), String.class);
+            entityTag = polled.getHeaders().getETag();
+
+            if (polled.getStatusCode() == HttpStatus.OK) {
+                statistics = objectMapper.readValue(polled.getBody(), FieldStatistics.class);
+                if (statistics.getVegetation().getAvg() == 0.77) {
+                    break;
+                }
+            }
+        }
+
+        Assert.assertNotNull(statistics);
+        Assert.assertEquals(0.77, statistics.getVegetation().getAvg(), 0.0);
+
+        ResponseEntity<String> conditional = restTemplate.exchange(url, HttpMethod.GET, ifNoneMatch(entityTag), String.class);
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, conditional.getStatusCode());
+    }
+
+    // --- utils ---
+
+    private HttpEntity<Void> ifNoneMatch(String entityTag) {
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.setIfNoneMatch(entityTag);
+        return new HttpEntity<>(httpHeaders);
+    }
+}
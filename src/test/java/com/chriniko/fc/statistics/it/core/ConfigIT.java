@@ -9,10 +9,7 @@ import org.springframework.web.client.RestTemplate;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.ZoneOffset;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
 
 @Profile("integration")
 @Configuration
@@ -22,13 +19,8 @@ public class ConfigIT {
 
     @Bean
     @Qualifier("computation-workers")
-    ExecutorService computationWorkers() {
-        return new ThreadPoolExecutor(
-                20,
-                40,
-                30, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(3000)
-        );
+    ForkJoinPool computationWorkers() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
     }
 
     @Bean
@@ -0,0 +1,202 @@
+package com.chriniko.fc.statistics.persistence;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.repository.DailyAggregate;
+import com.chriniko.fc.statistics.repository.FieldConditionRepositoryInMemoryImpl;
+import com.chriniko.fc.statistics.repository.RollupResolution;
+import com.chriniko.fc.statistics.worker.PoolHandler;
+import org.joor.Reflect;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class PersistenceManagerTest {
+
+    private static final double DELTA = 1e-15;
+    private static final int DAY_IN_SECONDS = 86400;
+
+    private static ForkJoinPool executorService;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void globalSetup() {
+        executorService = new ForkJoinPool(20);
+    }
+
+    @AfterClass
+    public static void globalCleanup() {
+        executorService.shutdown();
+    }
+
+    @Test
+    public void recovery_loads_snapshot_and_replays_log_tail() {
+
+        // given
+        Instant now = Instant.now();
+
+        FieldConditionRepositoryInMemoryImpl repository = newRepository();
+        WriteAheadLog writeAheadLog = newWriteAheadLog(repository);
+        PersistenceManager persistenceManager = newPersistenceManager(repository, writeAheadLog);
+        persistenceManager.init();
+
+        for (int i = 0; i < 100; i++) {
+            writeAheadLog.append(new FieldConditionCapture(0.25, now.minusSeconds((i % 5) * DAY_IN_SECONDS)));
+        }
+        repository.updateVegetationStatistics(new VegetationStatistic(0.1, 0.9, 0.5));
+
+        persistenceManager.takeSnapshot();
+
+        for (int i = 0; i < 10; i++) {
+            writeAheadLog.append(new FieldConditionCapture(0.75, now));
+        }
+
+        writeAheadLog.close();
+
+        // when
+        FieldConditionRepositoryInMemoryImpl recoveredRepository = newRepository();
+        WriteAheadLog recoveredWriteAheadLog = newWriteAheadLog(recoveredRepository);
+        newPersistenceManager(recoveredRepository, recoveredWriteAheadLog).init();
+
+        // then
+        assertEquals(110, recoveredRepository.noOfRecords());
+        assertEquals(5, recoveredRepository.noOfMergedRecords());
+        assertEquals(new VegetationStatistic(0.1, 0.9, 0.5), recoveredRepository.vegetationStatistics());
+
+        List<MergedFieldConditionCapture> merged = recoveredRepository.findAllMergedOrderByOccurrenceDesc(30);
+        assertEquals((20 * 0.25 + 10 * 0.75) / 30, merged.get(0).getVegetation(), 0.005);
+        assertEquals(0.25, merged.get(1).getVegetation(), DELTA);
+
+        recoveredWriteAheadLog.close();
+    }
+
+    @Test
+    public void recovery_keeps_the_statistics_of_a_downsampled_day() {
+
+        // given
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        Instant tenOClock = today.minusDays(3).atTime(10, 0).toInstant(ZoneOffset.UTC);
+        Instant elevenOClock = tenOClock.plusSeconds(3600);
+
+        FieldConditionRepositoryInMemoryImpl repository = newRepository();
+        WriteAheadLog writeAheadLog = newWriteAheadLog(repository);
+        PersistenceManager persistenceManager = newPersistenceManager(repository, writeAheadLog);
+        persistenceManager.init();
+
+        writeAheadLog.append(new FieldConditionCapture(0.2, tenOClock));
+        writeAheadLog.append(new FieldConditionCapture(0.4, tenOClock.plusSeconds(60)));
+        writeAheadLog.append(new FieldConditionCapture(0.6, elevenOClock));
+        writeAheadLog.append(new FieldConditionCapture(0.5, Instant.now()));
+
+        assertEquals(3, repository.downsampleDaysBefore(today.minusDays(1), 10).getCaptures());
+        writeAheadLog.append(new FieldConditionCapture(0.8, elevenOClock.plusSeconds(60)));
+
+        persistenceManager.takeSnapshot();
+        writeAheadLog.close();
+
+        // when
+        FieldConditionRepositoryInMemoryImpl recoveredRepository = newRepository();
+        WriteAheadLog recoveredWriteAheadLog = newWriteAheadLog(recoveredRepository);
+        newPersistenceManager(recoveredRepository, recoveredWriteAheadLog).init();
+
+        // then
+        assertEquals(2, recoveredRepository.noOfRecords());
+
+        DailyAggregate day = recoveredRepository.findDailyAggregatesOfLastDays(30).get(today.minusDays(3));
+        assertEquals(4, day.getCount());
+        assertEquals(0.5, day.average(), DELTA);
+        assertEquals(0.2, day.getMin(), DELTA);
+        assertEquals(0.8, day.getMax(), DELTA);
+
+        assertEquals(4, recoveredRepository.findQuantileSketchesOfLastDays(30).get(today.minusDays(3)).count());
+
+        SortedMap<Instant, DailyAggregate> hours = recoveredRepository.findRollups(RollupResolution.HOUR, tenOClock, elevenOClock.plusSeconds(3600));
+        assertEquals(2, hours.size());
+        assertEquals(2, hours.get(tenOClock).getCount());
+        assertEquals(0.3, hours.get(tenOClock).average(), DELTA);
+        assertEquals(2, hours.get(elevenOClock).getCount());
+        assertEquals(0.7, hours.get(elevenOClock).average(), DELTA);
+
+        recoveredWriteAheadLog.close();
+    }
+
+    @Test
+    public void covered_log_segments_are_deleted() {
+
+        // given
+        FieldConditionRepositoryInMemoryImpl repository = newRepository();
+        WriteAheadLog writeAheadLog = newWriteAheadLog(repository);
+        PersistenceManager persistenceManager = newPersistenceManager(repository, writeAheadLog);
+        persistenceManager.init();
+
+        // when
+        for (int snapshot = 0; snapshot < 3; snapshot++) {
+            writeAheadLog.append(new FieldConditionCapture(0.25, Instant.now()));
+            persistenceManager.takeSnapshot();
+        }
+        writeAheadLog.append(new FieldConditionCapture(0.25, Instant.now()));
+
+        // then
+        File[] segments = walDirectory().listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(3, segments.length);
+
+        writeAheadLog.close();
+    }
+
+    // --- utils ---
+
+    private FieldConditionRepositoryInMemoryImpl newRepository() {
+        return new FieldConditionRepositoryInMemoryImpl(
+                new MathProvider(),
+                Clock.systemUTC(),
+                executorService,
+                true,
+                true,
+                0,
+                256,
+                false);
+    }
+
+    private WriteAheadLog newWriteAheadLog(FieldConditionRepositoryInMemoryImpl repository) {
+        return new WriteAheadLog(
+                repository,
+                true,
+                walDirectory().getAbsolutePath(),
+                64 * 1024 * 1024,
+                64,
+                1
+        );
+    }
+
+    private PersistenceManager newPersistenceManager(FieldConditionRepositoryInMemoryImpl repository, WriteAheadLog writeAheadLog) {
+        SnapshotStore snapshotStore = new SnapshotStore(
+                Clock.systemUTC(),
+                new File(temporaryFolder.getRoot(), "snapshots").getAbsolutePath(),
+                2,
+                4
+        );
+
+        PersistenceManager persistenceManager = new PersistenceManager(repository, writeAheadLog, snapshotStore, new PoolHandler());
+        Reflect.on(persistenceManager).set("snapshotEnabled", true);
+        Reflect.on(persistenceManager).set("snapshotInterval", 3_600_000L);
+        return persistenceManager;
+    }
+
+    private File walDirectory() {
+        return new File(temporaryFolder.getRoot(), "wal");
+    }
+}
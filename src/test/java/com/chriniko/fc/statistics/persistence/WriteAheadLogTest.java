@@ -0,0 +1,401 @@
+package com.chriniko.fc.statistics.persistence;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldConditionRepositoryInMemoryImpl;
+import org.joor.Reflect;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    private static ForkJoinPool executorService;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void globalSetup() {
+        executorService = new ForkJoinPool(20);
+    }
+
+    @AfterClass
+    public static void globalCleanup() {
+        executorService.shutdown();
+    }
+
+    @Test
+    public void append_applies_captures_to_repository() {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+
+        // when
+        writeAheadLog.append(new FieldConditionCapture(0.32, Instant.now()));
+
+        // then
+        assertEquals(1, repository.noOfRecords());
+
+        writeAheadLog.close();
+    }
+
+    @Test
+    public void concurrent_appends_are_replayed_after_restart() {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+
+        int captures = 500;
+        List<CompletableFuture<Void>> appends = IntStream.range(0, captures)
+                .mapToObj(idx -> CompletableFuture.runAsync(
+                        () -> writeAheadLog.append(new FieldConditionCapture(0.5, Instant.now())),
+                        executorService))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(appends.toArray(new CompletableFuture[0])).join();
+
+        writeAheadLog.close();
+
+        // when
+        FieldConditionRepository recoveredRepository = newRepository();
+        WriteAheadLog recoveredWriteAheadLog = open(recoveredRepository);
+
+        // then
+        assertEquals(captures, recoveredRepository.noOfRecords());
+
+        recoveredWriteAheadLog.append(new FieldConditionCapture(0.5, Instant.now()));
+        recoveredWriteAheadLog.close();
+
+        FieldConditionRepository secondRecoveredRepository = newRepository();
+        open(secondRecoveredRepository).close();
+        assertEquals(captures + 1, secondRecoveredRepository.noOfRecords());
+    }
+
+    @Test
+    public void requested_rollover_takes_place_before_the_append_returns() {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+        writeAheadLog.append(new FieldConditionCapture(0.30, Instant.now()));
+
+        // when
+        writeAheadLog.requestRollover();
+        writeAheadLog.append(new FieldConditionCapture(0.32, Instant.now()));
+
+        // then
+        Path root = temporaryFolder.getRoot().toPath();
+        assertEquals(2L * WriteAheadLog.RECORD_BYTES, root.resolve(WriteAheadLog.segmentFileName(0)).toFile().length());
+        assertTrue(root.resolve(WriteAheadLog.segmentFileName(2)).toFile().exists());
+
+        writeAheadLog.append(new FieldConditionCapture(0.34, Instant.now()));
+        assertEquals(WriteAheadLog.RECORD_BYTES, root.resolve(WriteAheadLog.segmentFileName(2)).toFile().length());
+
+        writeAheadLog.close();
+    }
+
+    @Test
+    public void appends_racing_with_close_are_committed_or_rejected() throws Exception {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+
+        AtomicInteger committed = new AtomicInteger();
+        List<CompletableFuture<Void>> appenders = IntStream.range(0, 8)
+                .mapToObj(idx -> CompletableFuture.runAsync(() -> {
+                    while (!appendFails(writeAheadLog, new FieldConditionCapture(0.5, Instant.now()))) {
+                        committed.incrementAndGet();
+                    }
+                }, executorService))
+                .collect(Collectors.toList());
+
+        // when
+        Thread.sleep(50);
+        writeAheadLog.close();
+
+        // then
+        CompletableFuture.allOf(appenders.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(committed.get(), repository.noOfRecords());
+    }
+
+    @Test
+    public void torn_tail_is_truncated_on_replay() throws Exception {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+        writeAheadLog.append(new FieldConditionCapture(0.32, Instant.now()));
+        writeAheadLog.append(new FieldConditionCapture(0.34, Instant.now()));
+        writeAheadLog.close();
+
+        Path segment = temporaryFolder.getRoot().toPath().resolve(WriteAheadLog.segmentFileName(0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7}));
+        }
+
+        // when
+        FieldConditionRepository recoveredRepository = newRepository();
+        WriteAheadLog recoveredWriteAheadLog = open(recoveredRepository);
+
+        // then
+        assertEquals(2, recoveredRepository.noOfRecords());
+        assertEquals(2L * WriteAheadLog.RECORD_BYTES, segment.toFile().length());
+
+        recoveredWriteAheadLog.close();
+    }
+
+    @Test
+    public void segments_after_a_corrupted_segment_are_moved_aside_on_replay() throws Exception {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+        writeAheadLog.append(new FieldConditionCapture(0.30, Instant.now()));
+        writeAheadLog.requestRollover();
+        writeAheadLog.append(new FieldConditionCapture(0.32, Instant.now()));
+        writeAheadLog.append(new FieldConditionCapture(0.34, Instant.now()));
+        writeAheadLog.requestRollover();
+        writeAheadLog.append(new FieldConditionCapture(0.36, Instant.now()));
+        writeAheadLog.append(new FieldConditionCapture(0.38, Instant.now()));
+        writeAheadLog.close();
+
+        Path root = temporaryFolder.getRoot().toPath();
+        Path corruptedSegment = root.resolve(WriteAheadLog.segmentFileName(2));
+        try (FileChannel channel = FileChannel.open(corruptedSegment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), WriteAheadLog.RECORD_BYTES + 2);
+        }
+
+        // when
+        FieldConditionRepository recoveredRepository = newRepository();
+        WriteAheadLog recoveredWriteAheadLog = open(recoveredRepository);
+
+        // then
+        assertEquals(3, recoveredRepository.noOfRecords());
+
+        recoveredWriteAheadLog.append(new FieldConditionCapture(0.40, Instant.now()));
+        recoveredWriteAheadLog.close();
+
+        assertFalse(root.resolve(WriteAheadLog.segmentFileName(4)).toFile().exists());
+        assertTrue(root.resolve(WriteAheadLog.segmentFileName(4) + WriteAheadLog.DISCARDED_SEGMENT_SUFFIX).toFile().exists());
+
+        FieldConditionRepository secondRecoveredRepository = newRepository();
+        open(secondRecoveredRepository).close();
+        assertEquals(4, secondRecoveredRepository.noOfRecords());
+    }
+
+    @Test
+    public void failed_write_is_discarded_and_failed_force_stops_the_log() {
+
+        // given
+        FieldConditionRepository repository = newRepository();
+        WriteAheadLog writeAheadLog = open(repository);
+        writeAheadLog.append(new FieldConditionCapture(0.32, Instant.now()));
+
+        FailingFileChannel segmentChannel = new FailingFileChannel(Reflect.on(writeAheadLog).get("segmentChannel"));
+        Reflect.on(writeAheadLog).set("segmentChannel", segmentChannel);
+
+        // when
+        segmentChannel.failWrites = true;
+        boolean failedWrite = appendFails(writeAheadLog, new FieldConditionCapture(0.34, Instant.now()));
+        segmentChannel.failWrites = false;
+
+        writeAheadLog.append(new FieldConditionCapture(0.38, Instant.now()));
+
+        // Note: after a failed fsync the state of the file is unknown, so the log stops accepting captures.
+        segmentChannel.failForce = true;
+        boolean failedForce = appendFails(writeAheadLog, new FieldConditionCapture(0.36, Instant.now()));
+        segmentChannel.failForce = false;
+
+        boolean failedAfterForce = appendFails(writeAheadLog, new FieldConditionCapture(0.40, Instant.now()));
+
+        // then
+        assertTrue(failedWrite);
+        assertTrue(failedForce);
+        assertTrue(failedAfterForce);
+        assertEquals(2, repository.noOfRecords());
+        writeAheadLog.close();
+
+        Path segment = temporaryFolder.getRoot().toPath().resolve(WriteAheadLog.segmentFileName(0));
+        assertEquals(2L * WriteAheadLog.RECORD_BYTES, segment.toFile().length());
+
+        FieldConditionRepository recoveredRepository = newRepository();
+        open(recoveredRepository).close();
+        assertEquals(2, recoveredRepository.noOfRecords());
+        assertEquals(0.35, recoveredRepository.findAllMergedOrderByOccurrenceDesc(1).get(0).getVegetation(), 1e-9);
+    }
+
+    // --- utils ---
+
+    private boolean appendFails(WriteAheadLog writeAheadLog, FieldConditionCapture capture) {
+        try {
+            writeAheadLog.append(capture);
+            return false;
+        } catch (BusinessProcessingException e) {
+            return true;
+        }
+    }
+
+    private FieldConditionRepository newRepository() {
+        return new FieldConditionRepositoryInMemoryImpl(
+                new MathProvider(),
+                Clock.systemUTC(),
+                executorService,
+                true,
+                true,
+                0,
+                256,
+                false);
+    }
+
+    private WriteAheadLog open(FieldConditionRepository repository) {
+        WriteAheadLog writeAheadLog = new WriteAheadLog(
+                repository,
+                true,
+                temporaryFolder.getRoot().getAbsolutePath(),
+                64 * 1024 * 1024,
+                64,
+                1
+        );
+        writeAheadLog.start(0);
+        return writeAheadLog;
+    }
+
+    /*
+        Note: writes half of the provided bytes and then fails, or fails to force, when asked to.
+     */
+    private static final class FailingFileChannel extends FileChannel {
+
+        private final FileChannel delegate;
+
+        private volatile boolean failWrites;
+        private volatile boolean failForce;
+
+        private FailingFileChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (failWrites) {
+                ByteBuffer half = src.duplicate();
+                half.limit(half.position() + src.remaining() / 2);
+                delegate.write(half);
+                src.position(half.position());
+                throw new IOException("injected write failure");
+            }
+            return delegate.write(src);
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                throw new IOException("injected force failure");
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+}
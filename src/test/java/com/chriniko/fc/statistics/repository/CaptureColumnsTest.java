@@ -0,0 +1,50 @@
+package com.chriniko.fc.statistics.repository;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CaptureColumnsTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void append_across_chunks() {
+
+        // given
+        CaptureColumns columns = new CaptureColumns();
+        int captures = 10_000;
+
+        // when
+        for (int i = 0; i < captures; i++) {
+            columns.append(1_000L + i, i * 0.5);
+        }
+
+        // then
+        assertEquals(captures, columns.size());
+        for (int i = 0; i < captures; i++) {
+            assertEquals(1_000L + i, columns.occurrenceAt(i));
+            assertEquals(i * 0.5, columns.vegetation(i), DELTA);
+        }
+    }
+
+    @Test
+    public void averageOfVegetation() {
+
+        // given
+        CaptureColumns columns = new CaptureColumns();
+        double expectedSum = 0.0D;
+        for (int i = 0; i < 1_000; i++) {
+            columns.append(i, i % 7);
+            expectedSum += i % 7;
+        }
+
+        // when
+        double average = columns.averageOfVegetation();
+
+        // then
+        assertEquals(expectedSum / 1_000, average, DELTA);
+        assertEquals(0.0D, new CaptureColumns().averageOfVegetation(), DELTA);
+    }
+
+}
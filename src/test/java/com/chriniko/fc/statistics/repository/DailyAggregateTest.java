@@ -0,0 +1,124 @@
+package com.chriniko.fc.statistics.repository;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DailyAggregateTest {
+
+    @Test
+    public void sum_is_compensated() {
+
+        // given
+        int count = 10_000_000;
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = 0.1;
+        }
+
+        // when
+        DailyAggregate aggregate = DailyAggregate.of(values, count);
+
+        // then
+        double naiveSum = 0.0D;
+        for (double v : values) {
+            naiveSum += v;
+        }
+        assertTrue(Math.abs(naiveSum - 1_000_000) > 1e-6);
+        assertEquals(1_000_000, aggregate.compensatedSum(), 1e-6);
+        assertEquals(0.1, aggregate.average(), 1e-15);
+    }
+
+    @Test
+    public void variance_is_calculated_in_one_pass() {
+
+        // given
+        Random random = new Random(42);
+        double[] values = new double[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Note: a large offset, the `sum of squares - square of sum` variance loses all its digits.
+            values[i] = 1e6 + random.nextDouble();
+        }
+
+        // when
+        DailyAggregate aggregate = addOneByOne(values);
+
+        // then
+        assertEquals(values.length, aggregate.getCount());
+        assertEquals(twoPassVariance(values), aggregate.variance(), 1e-9);
+        assertEquals(Math.sqrt(twoPassVariance(values)), aggregate.standardDeviation(), 1e-9);
+        assertEquals(DailyAggregate.of(values, values.length).variance(), aggregate.variance(), 1e-9);
+    }
+
+    @Test
+    public void merged_aggregates_are_the_aggregate_of_all_the_values() {
+
+        // given
+        Random random = new Random(7);
+        double[] values = new double[30_000];
+        DailyAggregate[] days = new DailyAggregate[30];
+        for (int day = 0; day < days.length; day++) {
+            days[day] = DailyAggregate.EMPTY;
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            // Note: the days have different means, so the merge should account for the deviation between them.
+            values[i] = (i % days.length) * 0.03 + random.nextDouble() * 0.1;
+            days[i % days.length] = days[i % days.length].add(values[i]);
+        }
+
+        // when
+        DailyAggregate window = DailyAggregate.EMPTY;
+        for (DailyAggregate day : days) {
+            window = window.merge(day);
+        }
+
+        // then
+        DailyAggregate expected = DailyAggregate.of(values, values.length);
+        assertEquals(expected.getCount(), window.getCount());
+        assertEquals(expected.average(), window.average(), 1e-12);
+        assertEquals(expected.variance(), window.variance(), 1e-12);
+        assertEquals(expected.getMin(), window.getMin(), 0.0);
+        assertEquals(expected.getMax(), window.getMax(), 0.0);
+    }
+
+    @Test
+    public void empty() {
+
+        // when
+        DailyAggregate aggregate = DailyAggregate.EMPTY.merge(DailyAggregate.EMPTY);
+
+        // then
+        assertTrue(aggregate.isEmpty());
+        assertEquals(0.0, aggregate.average(), 0.0);
+        assertEquals(0.0, aggregate.standardDeviation(), 0.0);
+        assertEquals(DailyAggregate.EMPTY, DailyAggregate.of(new double[0], 0));
+    }
+
+    // --- utils ---
+
+    private static DailyAggregate addOneByOne(double[] values) {
+        DailyAggregate aggregate = DailyAggregate.EMPTY;
+        for (double value : values) {
+            aggregate = aggregate.add(value);
+        }
+        return aggregate;
+    }
+
+    private static double twoPassVariance(double[] values) {
+        double mean = 0.0D;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+
+        double squares = 0.0D;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return squares / values.length;
+    }
+}
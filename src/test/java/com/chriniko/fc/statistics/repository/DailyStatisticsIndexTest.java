@@ -0,0 +1,104 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DailyStatisticsIndexTest {
+
+    private static final double DELTA = 1e-9;
+
+    private final LocalDate today = LocalDate.parse("2019-03-10");
+
+    @Test
+    public void query_range_of_days() {
+
+        // given
+        Map<LocalDate, DailyAggregate> aggregatesByDay = new HashMap<>();
+        aggregatesByDay.put(today, DailyAggregate.of(new double[]{0.30, 0.50}, 2));
+        aggregatesByDay.put(today.minusDays(1), DailyAggregate.of(new double[]{0.20}, 1));
+        aggregatesByDay.put(today.minusDays(3), DailyAggregate.of(new double[]{0.90}, 1));
+        aggregatesByDay.put(today.minusDays(10), DailyAggregate.of(new double[]{0.10}, 1));
+        aggregatesByDay.put(today.minusDays(20), DailyAggregate.EMPTY);
+
+        DailyStatisticsIndex index = DailyStatisticsIndex.of(aggregatesByDay);
+
+        // when
+        VegetationStatistic lastDays = index.query(today.minusDays(3), today);
+        VegetationStatistic all = index.query(today.minusDays(30), today.plusDays(1));
+        VegetationStatistic noCaptures = index.query(today.minusDays(9), today.minusDays(4));
+        VegetationStatistic outOfIndex = index.query(today.plusDays(2), today.plusDays(5));
+
+        // then
+        assertEquals(new VegetationStatistic(0.20, 0.90, 0.50), lastDays);
+        assertEquals(0.10, all.getMin(), DELTA);
+        assertEquals(0.90, all.getMax(), DELTA);
+        assertEquals(0.40, all.getAvg(), DELTA);
+        assertEquals(new VegetationStatistic(), noCaptures);
+        assertEquals(new VegetationStatistic(), outOfIndex);
+    }
+
+    @Test
+    public void query_matches_a_scan_of_the_days() {
+
+        // given
+        Random random = new Random(42);
+        Map<LocalDate, DailyAggregate> aggregatesByDay = new HashMap<>();
+        for (int i = 0; i < 365; i++) {
+            if (random.nextInt(4) != 0) {
+                aggregatesByDay.put(today.minusDays(i), DailyAggregate.of(new double[]{random.nextDouble(), random.nextDouble()}, 2));
+            }
+        }
+        DailyStatisticsIndex index = DailyStatisticsIndex.of(aggregatesByDay);
+
+        for (int i = 0; i < 1000; i++) {
+            LocalDate from = today.minusDays(random.nextInt(365));
+            LocalDate to = from.plusDays(random.nextInt(100));
+
+            // when
+            VegetationStatistic result = index.query(from, to);
+
+            // then
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0.0D;
+            int count = 0;
+            for (Map.Entry<LocalDate, DailyAggregate> entry : aggregatesByDay.entrySet()) {
+                if (!entry.getKey().isBefore(from) && !entry.getKey().isAfter(to)) {
+                    double average = entry.getValue().average();
+                    min = Math.min(min, average);
+                    max = Math.max(max, average);
+                    sum += average;
+                    count++;
+                }
+            }
+
+            if (count == 0) {
+                assertEquals(new VegetationStatistic(), result);
+            } else {
+                assertEquals(min, result.getMin(), DELTA);
+                assertEquals(max, result.getMax(), DELTA);
+                assertEquals(sum / count, result.getAvg(), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void empty_index() {
+
+        // when
+        DailyStatisticsIndex index = DailyStatisticsIndex.of(Collections.emptyMap());
+
+        // then
+        assertTrue(index.isEmpty());
+        assertEquals(new VegetationStatistic(), index.query(today.minusDays(30), today));
+    }
+}
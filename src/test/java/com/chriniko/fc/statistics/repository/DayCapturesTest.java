@@ -0,0 +1,103 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class DayCapturesTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void concurrent_writers_are_merged_at_read_time() {
+
+        // given
+        DayCaptures dayCaptures = new DayCaptures(8);
+
+        int writers = 16;
+        int capturesPerWriter = 5_000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(writers);
+
+        // when
+        List<CompletableFuture<Void>> writes = IntStream.range(0, writers)
+                .mapToObj(writer -> CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < capturesPerWriter; i++) {
+                        dayCaptures.add(1_000L + i, writer % 2 == 0 ? 0.25 : 0.75);
+                    }
+                }, executorService))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+
+        executorService.shutdown();
+
+        // then
+        int expectedCaptures = writers * capturesPerWriter;
+        assertEquals(expectedCaptures, dayCaptures.size());
+
+        DailyAggregate aggregate = dayCaptures.aggregate();
+        assertEquals(expectedCaptures, aggregate.getCount());
+        assertEquals(0.5, aggregate.average(), DELTA);
+        assertEquals(0.25, aggregate.getMin(), DELTA);
+        assertEquals(0.75, aggregate.getMax(), DELTA);
+
+        assertEquals(0.5, dayCaptures.averageOfVegetation(), DELTA);
+
+        final List<FieldConditionCapture> captures = new ArrayList<>();
+        dayCaptures.collectTo(captures);
+        assertEquals(expectedCaptures, captures.size());
+
+        QuantileSketch sketch = dayCaptures.sketch();
+        assertEquals(expectedCaptures, sketch.count());
+        assertEquals(0.25, sketch.quantile(0.25), 0.25 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(0.75, sketch.quantile(0.75), 0.75 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void snapshot_pairs_occurrences_with_vegetation_across_stripes() {
+
+        // given
+        DayCaptures dayCaptures = new DayCaptures(4);
+
+        List<Thread> writers = IntStream.range(0, 4)
+                .mapToObj(writer -> new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        long occurrenceAt = writer * 1_000L + i;
+                        dayCaptures.add(occurrenceAt, occurrenceAt / 10_000.0);
+                    }
+                }))
+                .collect(Collectors.toList());
+        writers.forEach(Thread::start);
+        writers.forEach(writer -> {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // when
+        DayCapturesSnapshot snapshot = dayCaptures.snapshot(null);
+
+        // then
+        assertEquals(400, snapshot.size());
+
+        List<Long> occurrences = new ArrayList<>();
+        List<Double> vegetations = new ArrayList<>();
+        snapshot.forEachOccurrenceAt(occurrences::add);
+        snapshot.forEachVegetation(vegetations::add);
+
+        for (int i = 0; i < occurrences.size(); i++) {
+            assertEquals(occurrences.get(i) / 10_000.0, vegetations.get(i), DELTA);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.chriniko.fc.statistics.repository;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DaySlotRingTest {
+
+    @Test
+    public void expired_day_slot_is_claimed_by_newer_day() {
+
+        // given
+        DaySlotRing ring = new DaySlotRing(4, 1);
+
+        DayCaptures day10 = ring.getOrClaim(10);
+        day10.add(1_000L, 0.5);
+
+        // when
+        DayCaptures day14 = ring.getOrClaim(14);
+
+        // then
+        assertNotSame(day10, day14);
+        assertSame(day14, ring.get(14));
+        assertNull(ring.get(10));
+        assertEquals(0, day14.size());
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void older_day_does_not_claim_slot_of_newer_day() {
+
+        // given
+        DaySlotRing ring = new DaySlotRing(4, 1);
+        DayCaptures day14 = ring.getOrClaim(14);
+
+        // when
+        DayCaptures day10 = ring.getOrClaim(10);
+
+        // then
+        assertNull(day10);
+        assertSame(day14, ring.get(14));
+    }
+
+    @Test
+    public void forEach_visits_the_stored_days() {
+
+        // given
+        DaySlotRing ring = new DaySlotRing(8, 1);
+        for (long epochDay = 100; epochDay < 104; epochDay++) {
+            ring.getOrClaim(epochDay).add(epochDay, 0.5);
+        }
+        ring.remove(101);
+
+        // when
+        List<LocalDate> dates = new ArrayList<>();
+        ring.forEach((date, dayCaptures) -> dates.add(date));
+
+        // then
+        assertEquals(3, dates.size());
+        assertTrue(dates.contains(LocalDate.ofEpochDay(100)));
+        assertFalse(dates.contains(LocalDate.ofEpochDay(101)));
+
+        ring.clear();
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -12,11 +12,16 @@ import org.junit.Test;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
 public class FieldConditionRepositoryInMemoryImplTest {
@@ -24,13 +29,13 @@ public class FieldConditionRepositoryInMemoryImplTest {
     private static final double DELTA = 1e-15;
     private static final int DAY_IN_SECONDS = 86400;
 
-    private static ExecutorService executorService;
+    private static ForkJoinPool executorService;
 
     private FieldConditionRepository fieldConditionRepository;
 
     @BeforeClass
     public static void globalSetup() {
-        executorService = Executors.newFixedThreadPool(20);
+        executorService = new ForkJoinPool(20);
     }
 
     @AfterClass
@@ -44,6 +49,10 @@ public class FieldConditionRepositoryInMemoryImplTest {
                 new MathProvider(),
                 Clock.systemUTC(),
                 executorService,
+                true,
+                false,
+                0,
+                256,
                 true);
     }
 
@@ -75,6 +84,178 @@ public class FieldConditionRepositoryInMemoryImplTest {
         assertEquals(1, fieldConditionRepository.findAll().size());
     }
 
+    @Test
+    public void save_out_of_retained_window_is_dropped() {
+
+        // given
+        Instant now = Instant.now();
+        FieldConditionCapture tooOld = new FieldConditionCapture(0.32, now.minusSeconds(300L * DAY_IN_SECONDS));
+        FieldConditionCapture tooNew = new FieldConditionCapture(0.32, now.plusSeconds(3L * DAY_IN_SECONDS));
+
+        // when
+        fieldConditionRepository.save(tooOld);
+        fieldConditionRepository.save(tooNew);
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, now.minusSeconds(200L * DAY_IN_SECONDS)));
+
+        // then
+        assertEquals(1, fieldConditionRepository.findAll().size());
+        assertEquals(2, ((FieldConditionRepositoryInMemoryImpl) fieldConditionRepository).outOfWindowCaptures());
+        assertFalse(fieldConditionRepository.isInRetainedWindow(tooOld.getOccurrenceAt().toEpochMilli()));
+        assertTrue(fieldConditionRepository.isInRetainedWindow(now.toEpochMilli()));
+    }
+
+    @Test
+    public void evictDaysBefore_evicts_the_oldest_days_step_by_step() {
+
+        // given
+        Instant now = Instant.now();
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.34, now.minusSeconds(100L * DAY_IN_SECONDS)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.36, now.minusSeconds(101L * DAY_IN_SECONDS)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.38, now.minusSeconds(101L * DAY_IN_SECONDS)));
+
+        LocalDate cutoff = LocalDate.now(Clock.systemUTC()).minusDays(50);
+
+        // when
+        EvictedDays firstStep = fieldConditionRepository.evictDaysBefore(cutoff, 1);
+        EvictedDays secondStep = fieldConditionRepository.evictDaysBefore(cutoff, 1);
+        EvictedDays thirdStep = fieldConditionRepository.evictDaysBefore(cutoff, 1);
+
+        // then
+        assertEquals(1, firstStep.getDays());
+        assertEquals(2, firstStep.getCaptures());
+        assertTrue(firstStep.getBytes() > 0);
+
+        assertEquals(1, secondStep.getDays());
+        assertEquals(1, secondStep.getCaptures());
+
+        assertTrue(thirdStep.isEmpty());
+
+        assertEquals(1, fieldConditionRepository.noOfMergedRecords());
+        assertEquals(1, fieldConditionRepository.noOfRecords());
+    }
+
+    @Test
+    public void findRollups_aggregates_the_captures_by_minute_hour_and_day() {
+
+        // given
+        Instant startOfDay = LocalDate.now(Clock.systemUTC()).minusDays(2).atStartOfDay(Clock.systemUTC().getZone()).toInstant();
+        fieldConditionRepository.save(new FieldConditionCapture(0.30, startOfDay.plusSeconds(10 * 3600 + 5 * 60)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.50, startOfDay.plusSeconds(10 * 3600 + 5 * 60 + 30)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.70, startOfDay.plusSeconds(11 * 3600 + 20 * 60)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.90, startOfDay.plusSeconds(DAY_IN_SECONDS + 3600)));
+
+        Instant to = startOfDay.plusSeconds(DAY_IN_SECONDS);
+
+        // when
+        SortedMap<Instant, DailyAggregate> minutes = fieldConditionRepository.findRollups(RollupResolution.MINUTE, startOfDay, to);
+        SortedMap<Instant, DailyAggregate> hours = fieldConditionRepository.findRollups(RollupResolution.HOUR, startOfDay, to);
+        SortedMap<Instant, DailyAggregate> days = fieldConditionRepository.findRollups(RollupResolution.DAY, startOfDay, to);
+
+        // then
+        assertEquals(Arrays.asList(startOfDay.plusSeconds(10 * 3600 + 5 * 60), startOfDay.plusSeconds(11 * 3600 + 20 * 60)),
+                new ArrayList<>(minutes.keySet()));
+
+        assertEquals(Arrays.asList(startOfDay.plusSeconds(10 * 3600), startOfDay.plusSeconds(11 * 3600)), new ArrayList<>(hours.keySet()));
+        DailyAggregate tenOClock = hours.get(startOfDay.plusSeconds(10 * 3600));
+        assertEquals(2, tenOClock.getCount());
+        assertEquals(0.40, tenOClock.average(), DELTA);
+        assertEquals(0.10, tenOClock.standardDeviation(), 1e-12);
+        assertEquals(0.30, tenOClock.getMin(), DELTA);
+        assertEquals(0.50, tenOClock.getMax(), DELTA);
+
+        assertEquals(1, days.size());
+        assertEquals(3, days.get(startOfDay).getCount());
+    }
+
+    @Test
+    public void downsampleDaysBefore_discards_the_captures_and_keeps_the_rollups() {
+
+        // given
+        Instant now = Instant.now();
+        Instant old = now.minusSeconds(40L * DAY_IN_SECONDS);
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.30, old));
+        fieldConditionRepository.save(new FieldConditionCapture(0.50, old));
+
+        LocalDate cutoff = LocalDate.now(Clock.systemUTC()).minusDays(10);
+
+        // when
+        EvictedDays firstStep = fieldConditionRepository.downsampleDaysBefore(cutoff, 8);
+        EvictedDays secondStep = fieldConditionRepository.downsampleDaysBefore(cutoff, 8);
+
+        // then
+        assertEquals(1, firstStep.getDays());
+        assertEquals(2, firstStep.getCaptures());
+        assertTrue(firstStep.getBytes() > 0);
+        assertTrue(secondStep.isEmpty());
+
+        assertEquals(1, fieldConditionRepository.noOfRecords());
+        assertEquals(2, fieldConditionRepository.noOfMergedRecords());
+
+        Instant from = old.minusSeconds(DAY_IN_SECONDS);
+        Instant to = old.plusSeconds(DAY_IN_SECONDS);
+        assertEquals(2, fieldConditionRepository.findRollups(RollupResolution.HOUR, from, to).values().stream().mapToLong(DailyAggregate::getCount).sum());
+        assertTrue(fieldConditionRepository.findRollups(RollupResolution.MINUTE, from, to).isEmpty());
+
+        // Note: the statistics of the downsampled day are kept, with every calculation approach.
+        assertEquals(0.40, fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(60).get(1).getVegetation(), DELTA);
+        Reflect.on(fieldConditionRepository).set("mergedCapturesCalcSingleThreadApproach", false);
+        assertEquals(0.40, fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(60).get(1).getVegetation(), DELTA);
+        Reflect.on(fieldConditionRepository).set("mergedCapturesCalcSingleThreadApproach", true);
+
+        // Note: the eviction of a downsampled day counts its discarded captures too.
+        EvictedDays evicted = fieldConditionRepository.evictDaysBefore(cutoff, 8);
+        assertEquals(1, evicted.getDays());
+        assertEquals(2, evicted.getCaptures());
+    }
+
+    @Test
+    public void writeVersion_changes_on_every_write() {
+
+        // given
+        long initialVersion = fieldConditionRepository.writeVersion();
+
+        // when
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, Instant.now()));
+        long afterSave = fieldConditionRepository.writeVersion();
+
+        fieldConditionRepository.findAll();
+        long afterRead = fieldConditionRepository.writeVersion();
+
+        fieldConditionRepository.clear();
+        long afterClear = fieldConditionRepository.writeVersion();
+
+        // then
+        assertTrue(afterSave != initialVersion);
+        assertEquals(afterSave, afterRead);
+        assertTrue(afterClear != afterRead);
+    }
+
+    @Test
+    public void saveAll() {
+
+        // given
+        Instant now = Instant.now();
+        List<FieldConditionCapture> captures = Arrays.asList(
+                new FieldConditionCapture(0.32, now),
+                new FieldConditionCapture(0.36, now.minusSeconds(DAY_IN_SECONDS)),
+                new FieldConditionCapture(0.34, now),
+                new FieldConditionCapture(0.82, now.minusSeconds(DAY_IN_SECONDS))
+        );
+
+        // when
+        fieldConditionRepository.saveAll(CaptureBatch.of(captures));
+
+        // then
+        assertEquals(4, fieldConditionRepository.noOfRecords());
+        assertEquals(2, fieldConditionRepository.noOfMergedRecords());
+
+        List<MergedFieldConditionCapture> merged = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(30);
+        assertEquals(0.33, merged.get(0).getVegetation(), DELTA);
+        assertEquals(0.59, merged.get(1).getVegetation(), DELTA);
+    }
+
     @Test
     public void findAll() {
 
@@ -205,6 +386,94 @@ public class FieldConditionRepositoryInMemoryImplTest {
         Reflect.on(fieldConditionRepository).set("mergedCapturesCalcSingleThreadApproach", true);
     }
 
+    @Test
+    public void findAllMergedOrderByOccurrenceDesc_multi_thread_calculation_approach_splits_hot_day() {
+
+        // given
+        Reflect.on(fieldConditionRepository).set("mergedCapturesCalcSingleThreadApproach", false);
+
+        Instant now = Instant.now();
+        CaptureBatch batch = new CaptureBatch();
+        for (int i = 0; i < 200_000; i++) {
+            batch.add(now.toEpochMilli(), i % 2 == 0 ? 0.2 : 0.4);
+        }
+        batch.add(now.minusSeconds(DAY_IN_SECONDS).toEpochMilli(), 0.71);
+
+        fieldConditionRepository.saveAll(batch);
+
+        // when
+        List<MergedFieldConditionCapture> merged = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(30);
+
+        // then
+        assertEquals(2, merged.size());
+        assertEquals(0.3, merged.get(0).getVegetation(), DELTA);
+        assertEquals(0.71, merged.get(1).getVegetation(), DELTA);
+
+        // clean up
+        Reflect.on(fieldConditionRepository).set("mergedCapturesCalcSingleThreadApproach", true);
+    }
+
+    @Test
+    public void findAllMergedOrderByOccurrenceDesc_running_aggregates_calculation_approach() {
+
+        // given
+        Reflect.on(fieldConditionRepository).set("mergedCapturesCalcRunningAggregates", true);
+
+        Instant now = Instant.now();
+        FieldConditionCapture capture1 = new FieldConditionCapture(0.32, now);
+        FieldConditionCapture capture2 = new FieldConditionCapture(0.34, now);
+
+        FieldConditionCapture capture3 = new FieldConditionCapture(0.36, now.minusSeconds(DAY_IN_SECONDS));
+        FieldConditionCapture capture4 = new FieldConditionCapture(0.82, now.minusSeconds(DAY_IN_SECONDS));
+
+        FieldConditionCapture capture5 = new FieldConditionCapture(0.71, now.minusSeconds(2 * DAY_IN_SECONDS));
+
+        FieldConditionCapture capture6 = new FieldConditionCapture(0.99, now.minusSeconds(40 * DAY_IN_SECONDS));
+
+
+        fieldConditionRepository.save(capture1);
+        fieldConditionRepository.save(capture2);
+
+        fieldConditionRepository.save(capture3);
+        fieldConditionRepository.save(capture4);
+
+        fieldConditionRepository.save(capture5);
+
+        fieldConditionRepository.save(capture6);
+
+
+        // when
+        List<MergedFieldConditionCapture> merged = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(30);
+
+
+        // then
+        assertEquals(3, merged.size());
+
+        MergedFieldConditionCapture mergedFieldConditionCapture3 = merged.get(0);
+        assertEquals(
+                (capture1.getVegetation() + capture2.getVegetation()) / 2,
+                mergedFieldConditionCapture3.getVegetation(),
+                DELTA
+        );
+
+        MergedFieldConditionCapture mergedFieldConditionCapture2 = merged.get(1);
+        assertEquals(
+                (capture3.getVegetation() + capture4.getVegetation()) / 2,
+                mergedFieldConditionCapture2.getVegetation(),
+                DELTA
+        );
+
+        MergedFieldConditionCapture mergedFieldConditionCapture1 = merged.get(2);
+        assertEquals(
+                capture5.getVegetation(),
+                mergedFieldConditionCapture1.getVegetation(),
+                DELTA
+        );
+
+
+        // clean up
+        Reflect.on(fieldConditionRepository).set("mergedCapturesCalcRunningAggregates", false);
+    }
 
     @Test
     public void findAllMergedOrderByOccurrenceDesc_noOfDaysParam_case_one() {
@@ -319,10 +588,10 @@ public class FieldConditionRepositoryInMemoryImplTest {
         FieldConditionCapture capture1 = new FieldConditionCapture(0.32, now);
         FieldConditionCapture capture2 = new FieldConditionCapture(0.34, now);
 
-        FieldConditionCapture capture3 = new FieldConditionCapture(0.36, now.plusSeconds(DAY_IN_SECONDS));
-        FieldConditionCapture capture4 = new FieldConditionCapture(0.82, now.plusSeconds(DAY_IN_SECONDS));
+        FieldConditionCapture capture3 = new FieldConditionCapture(0.36, now.minusSeconds(DAY_IN_SECONDS));
+        FieldConditionCapture capture4 = new FieldConditionCapture(0.82, now.minusSeconds(DAY_IN_SECONDS));
 
-        FieldConditionCapture capture5 = new FieldConditionCapture(0.71, now.plusSeconds(2 * DAY_IN_SECONDS));
+        FieldConditionCapture capture5 = new FieldConditionCapture(0.71, now.minusSeconds(2 * DAY_IN_SECONDS));
 
         fieldConditionRepository.save(capture1);
         fieldConditionRepository.save(capture2);
@@ -346,10 +615,10 @@ public class FieldConditionRepositoryInMemoryImplTest {
         FieldConditionCapture capture1 = new FieldConditionCapture(0.32, now);
         FieldConditionCapture capture2 = new FieldConditionCapture(0.34, now);
 
-        FieldConditionCapture capture3 = new FieldConditionCapture(0.36, now.plusSeconds(DAY_IN_SECONDS));
-        FieldConditionCapture capture4 = new FieldConditionCapture(0.82, now.plusSeconds(DAY_IN_SECONDS));
+        FieldConditionCapture capture3 = new FieldConditionCapture(0.36, now.minusSeconds(DAY_IN_SECONDS));
+        FieldConditionCapture capture4 = new FieldConditionCapture(0.82, now.minusSeconds(DAY_IN_SECONDS));
 
-        FieldConditionCapture capture5 = new FieldConditionCapture(0.71, now.plusSeconds(2 * DAY_IN_SECONDS));
+        FieldConditionCapture capture5 = new FieldConditionCapture(0.71, now.minusSeconds(2 * DAY_IN_SECONDS));
 
         fieldConditionRepository.save(capture1);
         fieldConditionRepository.save(capture2);
@@ -0,0 +1,308 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FieldConditionRepositoryMappedFileImplTest {
+
+    private static final double DELTA = 1e-15;
+    private static final int DAY_IN_SECONDS = 86400;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FieldConditionRepositoryMappedFileImpl fieldConditionRepository;
+
+    @Before
+    public void setUp() {
+        fieldConditionRepository = open();
+    }
+
+    @After
+    public void tearDown() {
+        fieldConditionRepository.close();
+    }
+
+    @Test
+    public void save() {
+
+        // given
+        FieldConditionCapture capture = new FieldConditionCapture(0.32, Instant.now());
+
+        // when
+        fieldConditionRepository.save(capture);
+
+        // then
+        List<FieldConditionCapture> records = fieldConditionRepository.findAll();
+        assertEquals(1, records.size());
+        assertEquals(capture.getVegetation(), records.get(0).getVegetation(), DELTA);
+        assertEquals(capture.getOccurrenceAt().toEpochMilli(), records.get(0).getOccurrenceAt().toEpochMilli());
+    }
+
+    @Test
+    public void save_grows_segment() {
+
+        // given
+        Instant now = Instant.now();
+        int captures = 100;
+
+        // when
+        for (int i = 0; i < captures; i++) {
+            fieldConditionRepository.save(new FieldConditionCapture(0.5, now));
+        }
+
+        // then
+        assertEquals(captures, fieldConditionRepository.noOfRecords());
+        assertEquals(captures, fieldConditionRepository.findAll().size());
+    }
+
+    @Test
+    public void saveAll_grows_segment() {
+
+        // given
+        Instant now = Instant.now();
+        List<FieldConditionCapture> captures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            captures.add(new FieldConditionCapture(i % 2 == 0 ? 0.25 : 0.75, now.minusSeconds((i % 2) * DAY_IN_SECONDS)));
+        }
+
+        // when
+        fieldConditionRepository.saveAll(CaptureBatch.of(captures));
+
+        // then
+        assertEquals(100, fieldConditionRepository.noOfRecords());
+        assertEquals(2, fieldConditionRepository.noOfMergedRecords());
+
+        List<MergedFieldConditionCapture> merged = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(30);
+        assertEquals(0.25, merged.get(0).getVegetation(), DELTA);
+        assertEquals(0.75, merged.get(1).getVegetation(), DELTA);
+    }
+
+    @Test
+    public void findAllMergedOrderByOccurrenceDesc() {
+
+        // given
+        Instant now = Instant.now();
+        FieldConditionCapture capture1 = new FieldConditionCapture(0.32, now);
+        FieldConditionCapture capture2 = new FieldConditionCapture(0.34, now);
+
+        FieldConditionCapture capture3 = new FieldConditionCapture(0.36, now.minusSeconds(DAY_IN_SECONDS));
+        FieldConditionCapture capture4 = new FieldConditionCapture(0.82, now.minusSeconds(DAY_IN_SECONDS));
+
+        FieldConditionCapture capture5 = new FieldConditionCapture(0.71, now.minusSeconds(40 * DAY_IN_SECONDS));
+
+        fieldConditionRepository.save(capture1);
+        fieldConditionRepository.save(capture2);
+        fieldConditionRepository.save(capture3);
+        fieldConditionRepository.save(capture4);
+        fieldConditionRepository.save(capture5);
+
+        // when
+        List<MergedFieldConditionCapture> merged = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(30);
+
+        // then
+        assertEquals(2, merged.size());
+        assertEquals((capture1.getVegetation() + capture2.getVegetation()) / 2, merged.get(0).getVegetation(), DELTA);
+        assertEquals((capture3.getVegetation() + capture4.getVegetation()) / 2, merged.get(1).getVegetation(), DELTA);
+
+        assertEquals(3, fieldConditionRepository.noOfMergedRecords());
+        assertEquals(5, fieldConditionRepository.noOfRecords());
+    }
+
+    @Test
+    public void segments_are_remapped_on_restart() {
+
+        // given
+        Instant now = Instant.now();
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.34, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.36, now.minusSeconds(DAY_IN_SECONDS)));
+
+        // when
+        fieldConditionRepository.close();
+        fieldConditionRepository = open();
+
+        // then
+        assertEquals(3, fieldConditionRepository.noOfRecords());
+        assertEquals(2, fieldConditionRepository.noOfMergedRecords());
+
+        List<MergedFieldConditionCapture> merged = fieldConditionRepository.findAllMergedOrderByOccurrenceDesc(30);
+        assertEquals(0.33, merged.get(0).getVegetation(), DELTA);
+        assertEquals(0.36, merged.get(1).getVegetation(), DELTA);
+    }
+
+    @Test
+    public void segments_without_deviations_are_upgraded_on_restart() throws Exception {
+
+        // given
+        Instant now = Instant.now();
+        fieldConditionRepository.save(new FieldConditionCapture(0.30, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.50, now));
+        fieldConditionRepository.close();
+
+        // Note: the header of a segment of version 1, no compensation and no squared deviations.
+        Path segment = temporaryFolder.getRoot().toPath().resolve(LocalDate.now(Clock.systemUTC()) + MappedDaySegment.FILE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, 64);
+            header.putInt(4, 1);
+            header.putDouble(48, 0.0D);
+            header.putDouble(56, 0.0D);
+            header.force();
+        }
+
+        // when
+        fieldConditionRepository = open();
+
+        // then
+        DailyAggregate aggregate = fieldConditionRepository.findDailyAggregatesOfLastDays(0).get(LocalDate.now(Clock.systemUTC()));
+        assertEquals(2, aggregate.getCount());
+        assertEquals(0.40, aggregate.average(), DELTA);
+        assertEquals(0.10, aggregate.standardDeviation(), 1e-12);
+    }
+
+    @Test
+    public void segment_headers_are_rescanned_after_an_unclean_shutdown() throws Exception {
+
+        // given
+        Instant now = Instant.now();
+        fieldConditionRepository.save(new FieldConditionCapture(0.30, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.50, now));
+        fieldConditionRepository.close();
+
+        // Note: a crash does not leave the marker, and a crash between the aggregate and the count leaves an uncommitted record (0.90) in the aggregate.
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.delete(root.resolve(FieldConditionRepositoryMappedFileImpl.CLEAN_SHUTDOWN_MARKER));
+
+        Path segment = root.resolve(LocalDate.now(Clock.systemUTC()) + MappedDaySegment.FILE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, 64);
+            header.putDouble(24, 0.30 + 0.50 + 0.90);
+            header.putDouble(40, 0.90);
+            header.force();
+        }
+
+        // when
+        fieldConditionRepository = open();
+
+        // then
+        DailyAggregate aggregate = fieldConditionRepository.findDailyAggregatesOfLastDays(0).get(LocalDate.now(Clock.systemUTC()));
+        assertEquals(2, aggregate.getCount());
+        assertEquals(0.40, aggregate.average(), DELTA);
+        assertEquals(0.50, aggregate.getMax(), DELTA);
+        assertFalse(Files.exists(root.resolve(FieldConditionRepositoryMappedFileImpl.CLEAN_SHUTDOWN_MARKER)));
+    }
+
+    @Test
+    public void segments_which_were_not_completely_created_are_deleted_on_restart() throws Exception {
+
+        // given
+        Instant now = Instant.now();
+        fieldConditionRepository.save(new FieldConditionCapture(0.30, now));
+        fieldConditionRepository.close();
+
+        // Note: a crash right after the creation of the file of a segment leaves it without header.
+        Path root = temporaryFolder.getRoot().toPath();
+        Path temporary = root.resolve(LocalDate.now(Clock.systemUTC()).plusDays(1) + MappedDaySegment.TEMPORARY_FILE_SUFFIX);
+        Files.write(temporary, new byte[4096]);
+
+        // when
+        fieldConditionRepository = open();
+
+        // then
+        assertEquals(1, fieldConditionRepository.noOfRecords());
+        assertFalse(Files.exists(temporary));
+
+        fieldConditionRepository.save(new FieldConditionCapture(0.50, now.plusSeconds(86400)));
+        assertEquals(2, fieldConditionRepository.noOfRecords());
+    }
+
+    @Test
+    public void findRollups_aggregates_the_records_of_the_days_of_the_range() {
+
+        // given
+        Instant startOfDay = LocalDate.now(Clock.systemUTC()).minusDays(1).atStartOfDay(Clock.systemUTC().getZone()).toInstant();
+        fieldConditionRepository.save(new FieldConditionCapture(0.30, startOfDay.plusSeconds(3600 + 60)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.50, startOfDay.plusSeconds(3600 + 120)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.70, startOfDay.plusSeconds(2 * 3600)));
+
+        // when
+        SortedMap<Instant, DailyAggregate> hours
+                = fieldConditionRepository.findRollups(RollupResolution.HOUR, startOfDay, startOfDay.plusSeconds(DAY_IN_SECONDS));
+
+        // then
+        assertEquals(2, hours.size());
+        assertEquals(2, hours.get(startOfDay.plusSeconds(3600)).getCount());
+        assertEquals(0.40, hours.get(startOfDay.plusSeconds(3600)).average(), DELTA);
+        assertEquals(0.70, hours.get(startOfDay.plusSeconds(2 * 3600)).getMax(), DELTA);
+    }
+
+    @Test
+    public void clear() {
+
+        // given
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, Instant.now()));
+
+        // when
+        fieldConditionRepository.clear();
+
+        // then
+        assertEquals(0, fieldConditionRepository.findAll().size());
+        assertEquals(0, fieldConditionRepository.noOfMergedRecords());
+    }
+
+    @Test
+    public void evictDaysBefore_deletes_the_segments_of_the_oldest_days() {
+
+        // given
+        Instant now = Instant.now();
+        fieldConditionRepository.save(new FieldConditionCapture(0.32, now));
+        fieldConditionRepository.save(new FieldConditionCapture(0.34, now.minusSeconds(100L * DAY_IN_SECONDS)));
+        fieldConditionRepository.save(new FieldConditionCapture(0.36, now.minusSeconds(101L * DAY_IN_SECONDS)));
+
+        // when
+        EvictedDays evicted = fieldConditionRepository.evictDaysBefore(LocalDate.now(Clock.systemUTC()).minusDays(50), 8);
+
+        // then
+        assertEquals(2, evicted.getDays());
+        assertEquals(2, evicted.getCaptures());
+        assertTrue(evicted.getBytes() > 0);
+
+        fieldConditionRepository.close();
+        fieldConditionRepository = open();
+        assertEquals(1, fieldConditionRepository.noOfMergedRecords());
+        assertEquals(1, fieldConditionRepository.noOfRecords());
+    }
+
+    // --- utils ---
+
+    private FieldConditionRepositoryMappedFileImpl open() {
+        return new FieldConditionRepositoryMappedFileImpl(
+                new MathProvider(),
+                Clock.systemUTC(),
+                temporaryFolder.getRoot().getAbsolutePath(),
+                4
+        );
+    }
+}
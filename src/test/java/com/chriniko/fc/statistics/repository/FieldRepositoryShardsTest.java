@@ -0,0 +1,135 @@
+package com.chriniko.fc.statistics.repository;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.error.BusinessValidationException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FieldRepositoryShardsTest {
+
+    private final Instant occurrenceAt = Instant.parse("2019-03-10T08:00:00Z");
+
+    private FieldConditionRepository defaultFieldRepository;
+    private FieldRepositoryShards fieldRepositoryShards;
+
+    @Before
+    public void setUp() {
+        defaultFieldRepository = Mockito.mock(FieldConditionRepository.class);
+
+        Clock clock = Clock.fixed(Instant.parse("2019-03-10T10:15:30Z"), ZoneOffset.UTC);
+        fieldRepositoryShards = new FieldRepositoryShards(
+                defaultFieldRepository, new MathProvider(), clock, ForkJoinPool.commonPool(), new SimpleMeterRegistry(), 4, 3, 1, 256, false, false, "memoRepo"
+        );
+    }
+
+    @Test
+    public void fields_are_routed_to_independent_repositories() {
+
+        // when
+        fieldRepositoryShards.save("field-1", new FieldConditionCapture(0.40, occurrenceAt, "field-1"));
+        fieldRepositoryShards.save("field-1", new FieldConditionCapture(0.20, occurrenceAt.plusSeconds(1), "field-1"));
+        fieldRepositoryShards.saveAll("field-2", CaptureBatch.of(Arrays.asList(
+                new FieldConditionCapture(0.70, occurrenceAt),
+                new FieldConditionCapture(0.50, occurrenceAt.plusSeconds(1)),
+                new FieldConditionCapture(0.10, occurrenceAt.plusSeconds(2))
+        )));
+
+        // then
+        assertEquals(2, fieldRepositoryShards.noOfFields());
+        assertEquals(2, fieldRepositoryShards.find("field-1").noOfRecords());
+        assertEquals(3, fieldRepositoryShards.find("field-2").noOfRecords());
+        assertNotSame(fieldRepositoryShards.find("field-1"), fieldRepositoryShards.find("field-2"));
+        assertNull(fieldRepositoryShards.find("field-3"));
+
+        assertSame(defaultFieldRepository, fieldRepositoryShards.find(null));
+        assertSame(defaultFieldRepository, fieldRepositoryShards.find(FieldRepositoryShards.DEFAULT_FIELD_ID));
+        Mockito.verifyZeroInteractions(defaultFieldRepository);
+    }
+
+    @Test
+    public void dirty_fields_are_drained_once() {
+
+        // given
+        fieldRepositoryShards.save("field-1", new FieldConditionCapture(0.40, occurrenceAt, "field-1"));
+        fieldRepositoryShards.save("field-2", new FieldConditionCapture(0.40, occurrenceAt, "field-2"));
+        fieldRepositoryShards.save("field-2", new FieldConditionCapture(0.30, occurrenceAt.plusSeconds(1), "field-2"));
+
+        // when
+        List<String> drained = drainAll();
+
+        // then
+        assertEquals(new HashSet<>(Arrays.asList("field-1", "field-2")), new HashSet<>(drained));
+        assertEquals(2, drained.size());
+        assertTrue(drainAll().isEmpty());
+
+        // when
+        fieldRepositoryShards.markAllDirty();
+
+        // then
+        assertEquals(2, drainAll().size());
+    }
+
+    @Test(expected = BusinessOverloadedException.class)
+    public void field_is_not_created_over_max_fields() {
+
+        // given
+        for (int i = 0; i < 3; i++) {
+            fieldRepositoryShards.save("field-" + i, new FieldConditionCapture(0.40, occurrenceAt));
+        }
+
+        // when
+        fieldRepositoryShards.save("field-3", new FieldConditionCapture(0.40, occurrenceAt));
+    }
+
+    @Test
+    public void fields_are_rejected_when_the_default_field_is_persisted() {
+
+        // given
+        Clock clock = Clock.fixed(Instant.parse("2019-03-10T10:15:30Z"), ZoneOffset.UTC);
+        FieldRepositoryShards persistedShards = new FieldRepositoryShards(
+                defaultFieldRepository, new MathProvider(), clock, ForkJoinPool.commonPool(), new SimpleMeterRegistry(), 4, 3, 1, 256, true, false, "memoRepo"
+        );
+
+        // when
+        try {
+            persistedShards.save("field-1", new FieldConditionCapture(0.40, occurrenceAt, "field-1"));
+            fail();
+        } catch (BusinessValidationException ignored) {
+        }
+
+        // then
+        assertEquals(0, persistedShards.noOfFields());
+        assertNull(persistedShards.find("field-1"));
+        assertSame(defaultFieldRepository, persistedShards.find(FieldRepositoryShards.DEFAULT_FIELD_ID));
+    }
+
+    // --- utils ---
+
+    private List<String> drainAll() {
+        List<String> result = new ArrayList<>();
+        for (int shardIdx = 0; shardIdx < fieldRepositoryShards.noOfShards(); shardIdx++) {
+            result.addAll(fieldRepositoryShards.drainDirtyFields(shardIdx));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,119 @@
+package com.chriniko.fc.statistics.repository;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0.0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1.0};
+
+    @Test
+    public void quantiles_are_within_the_relative_accuracy() {
+
+        // given
+        Random random = new Random(42);
+        double[] values = new double[100_000];
+        QuantileSketch sketch = new QuantileSketch();
+
+        // when
+        for (int i = 0; i < values.length; i++) {
+            // Note: skewed, a few faulty sensors report values far from the rest.
+            values[i] = i % 100 == 0 ? 50 + random.nextDouble() * 50 : Math.exp(random.nextGaussian() * 0.5) * 0.3;
+            sketch.add(values[i]);
+        }
+
+        // then
+        assertQuantiles(values, sketch);
+    }
+
+    @Test
+    public void merged_sketches_answer_as_one_sketch() {
+
+        // given
+        Random random = new Random(7);
+        double[] values = new double[30_000];
+        QuantileSketch[] days = new QuantileSketch[30];
+        for (int day = 0; day < days.length; day++) {
+            days[day] = new QuantileSketch();
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+            days[i % days.length].add(values[i]);
+        }
+
+        // when
+        QuantileSketch window = new QuantileSketch();
+        for (QuantileSketch day : days) {
+            window.merge(day);
+        }
+
+        // then
+        assertEquals(values.length, window.count());
+        assertQuantiles(values, window);
+    }
+
+    @Test
+    public void zeros_are_counted() {
+
+        // given
+        QuantileSketch sketch = new QuantileSketch();
+
+        // when
+        for (int i = 0; i < 60; i++) {
+            sketch.add(0.0);
+        }
+        for (int i = 0; i < 40; i++) {
+            sketch.add(0.8);
+        }
+
+        // then
+        assertEquals(0.0, sketch.quantile(0.5), 0.0);
+        assertEquals(0.8, sketch.quantile(0.9), 0.8 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void bins_are_bounded() {
+
+        // given
+        QuantileSketch sketch = new QuantileSketch();
+
+        // when - values of many orders of magnitude
+        for (int exponent = -8; exponent <= 300; exponent++) {
+            sketch.add(Math.pow(10, exponent));
+        }
+
+        // then
+        assertTrue(sketch.allocatedBytes() <= 8L * QuantileSketch.MAX_BINS);
+        assertEquals(1e300, sketch.quantile(1.0), 1e300 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(1e296, sketch.quantile(0.99), 1e296 * QuantileSketch.RELATIVE_ACCURACY);
+    }
+
+    @Test
+    public void empty_sketch() {
+
+        // when
+        QuantileSketch sketch = new QuantileSketch();
+
+        // then
+        assertTrue(sketch.isEmpty());
+        assertEquals(0.0, sketch.quantile(0.5), 0.0);
+    }
+
+    // --- utils ---
+
+    private static void assertQuantiles(double[] values, QuantileSketch sketch) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (double q : QUANTILES) {
+            double exact = sorted[(int) Math.floor(q * (sorted.length - 1))];
+            assertEquals("quantile: " + q, exact, sketch.quantile(q), exact * QuantileSketch.RELATIVE_ACCURACY + 1e-12);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.chriniko.fc.statistics.repository;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollupBucketsTest {
+
+    private static final double DELTA = 1e-12;
+    private static final long HOUR = RollupResolution.HOUR.bucketMillis();
+
+    @Test
+    public void buckets_grow_in_both_directions() {
+
+        // given
+        long startOfDay = Instant.parse("2019-03-10T00:00:00Z").toEpochMilli();
+        RollupBuckets buckets = new RollupBuckets(RollupResolution.HOUR);
+
+        // when
+        buckets.add(startOfDay + 12 * HOUR + 1, 0.50);
+        buckets.add(startOfDay + 23 * HOUR + 59, 0.70);
+        buckets.add(startOfDay + 1, 0.10);
+        buckets.add(startOfDay + 12 * HOUR + 2, 0.30);
+
+        // then
+        SortedMap<Instant, DailyAggregate> result = new TreeMap<>();
+        buckets.mergeTo(result, startOfDay, startOfDay + 24 * HOUR);
+
+        assertEquals(
+                Arrays.asList(Instant.ofEpochMilli(startOfDay), Instant.ofEpochMilli(startOfDay + 12 * HOUR), Instant.ofEpochMilli(startOfDay + 23 * HOUR)),
+                new ArrayList<>(result.keySet())
+        );
+
+        DailyAggregate noon = result.get(Instant.ofEpochMilli(startOfDay + 12 * HOUR));
+        assertEquals(DailyAggregate.of(new double[]{0.50, 0.30}, 2), noon);
+        assertEquals(0.40, noon.average(), DELTA);
+        assertEquals(0.10, noon.standardDeviation(), DELTA);
+        assertTrue(buckets.allocatedBytes() >= 24 * 48);
+    }
+
+    @Test
+    public void mergeTo_only_the_buckets_of_the_range() {
+
+        // given
+        long startOfDay = Instant.parse("2019-03-10T00:00:00Z").toEpochMilli();
+        RollupBuckets buckets = new RollupBuckets(RollupResolution.HOUR);
+        buckets.add(startOfDay + HOUR, 0.20);
+        buckets.add(startOfDay + 2 * HOUR, 0.40);
+        buckets.add(startOfDay + 3 * HOUR, 0.60);
+
+        SortedMap<Instant, DailyAggregate> result = new TreeMap<>();
+        result.put(Instant.ofEpochMilli(startOfDay + 2 * HOUR), DailyAggregate.of(new double[]{0.80}, 1));
+
+        // when
+        buckets.mergeTo(result, startOfDay + 2 * HOUR, startOfDay + 3 * HOUR);
+
+        // then
+        assertEquals(1, result.size());
+        assertEquals(2, result.get(Instant.ofEpochMilli(startOfDay + 2 * HOUR)).getCount());
+        assertEquals(0.60, result.get(Instant.ofEpochMilli(startOfDay + 2 * HOUR)).average(), DELTA);
+    }
+}
@@ -2,11 +2,18 @@ package com.chriniko.fc.statistics.resource;
 
 import com.chriniko.fc.statistics.dto.FieldConditionCapture;
 import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.dto.VegetationSeries;
+import com.chriniko.fc.statistics.dto.VegetationSeriesPoint;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.RollupResolution;
 import com.chriniko.fc.statistics.service.FieldConditionService;
 import com.chriniko.fc.statistics.validator.FieldConditionInputValidator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -14,11 +21,16 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collections;
 
+import static org.junit.Assert.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -27,6 +39,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 public class FieldConditionResourceTest {
 
+    private static final double DELTA = 1e-15;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -36,6 +50,12 @@ public class FieldConditionResourceTest {
     @MockBean
     private FieldConditionInputValidator fieldConditionInputValidator;
 
+    @MockBean
+    private StatisticsLongPolling statisticsLongPolling;
+
+    @MockBean
+    private StatisticsStream statisticsStream;
+
     @Autowired
     private ObjectMapper objectMapper;
 
@@ -66,6 +86,95 @@ public class FieldConditionResourceTest {
                 );
     }
 
+    @Test
+    public void save_batch_json_array() throws Exception {
+
+        // given
+        Instant occurrenceAt = Instant.parse("2019-03-10T10:15:30.000Z");
+
+        String payload = "["
+                + "{\"vegetation\": 0.34, \"occurrenceAt\": \"2019-03-10T10:15:30.000Z\"},"
+                + "{\"occurrenceAt\": \"2019-03-10T10:15:30.000Z\"},"
+                + "{\"vegetation\": 0.36, \"occurrenceAt\": \"2019-03-10T10:15:30.000Z\"}"
+                + "]";
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        post("/field-conditions/batch")
+                                .contentType("application/json")
+                                .content(payload)
+                )
+                .andExpect(
+                        status().isOk()
+                )
+                .andExpect(
+                        content().json("{\"received\": 3, \"accepted\": 2, \"rejected\": 1, "
+                                + "\"errors\": [{\"index\": 1, \"message\": \"vegetation: must not be null\"}]}")
+                );
+
+        ArgumentCaptor<CaptureBatch> stored = ArgumentCaptor.forClass(CaptureBatch.class);
+        Mockito.verify(fieldConditionService).storeAll(Mockito.isNull(), stored.capture());
+
+        assertEquals(2, stored.getValue().size());
+        assertEquals(occurrenceAt.toEpochMilli(), stored.getValue().occurrenceAt(0));
+        assertEquals(0.34, stored.getValue().vegetation(0), DELTA);
+        assertEquals(0.36, stored.getValue().vegetation(1), DELTA);
+    }
+
+    @Test
+    public void save_batch_ndjson_stream() throws Exception {
+
+        // given
+        String payload = "{\"vegetation\": 0.34, \"occurrenceAt\": \"2019-03-10T10:15:30.000Z\"}\n"
+                + "{\"vegetation\": \"high\", \"occurrenceAt\": \"2019-03-10T10:15:31.000Z\"}\n"
+                + "{\"vegetation\": 0.36, \"occurrenceAt\": \"2019-03-10T10:15:32.000Z\"}\n";
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        post("/field-conditions/batch")
+                                .contentType("application/x-ndjson")
+                                .content(payload)
+                )
+                .andExpect(
+                        status().isOk()
+                )
+                .andExpect(
+                        content().json("{\"received\": 3, \"accepted\": 2, \"rejected\": 1}")
+                );
+
+        ArgumentCaptor<CaptureBatch> stored = ArgumentCaptor.forClass(CaptureBatch.class);
+        Mockito.verify(fieldConditionService).storeAll(Mockito.isNull(), stored.capture());
+
+        assertEquals(2, stored.getValue().size());
+        assertEquals(Instant.parse("2019-03-10T10:15:30.000Z").toEpochMilli(), stored.getValue().occurrenceAt(0));
+        assertEquals(Instant.parse("2019-03-10T10:15:32.000Z").toEpochMilli(), stored.getValue().occurrenceAt(1));
+    }
+
+    @Test
+    public void save_batch_malformed() throws Exception {
+
+        // given
+        String payload = "[{\"vegetation\": 0.34, \"occurrenceAt\": \"2019-03-10T10:15:30.000Z\"}, {\"vegetation\": 0.3";
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        post("/field-conditions/batch")
+                                .contentType("application/json")
+                                .content(payload)
+                )
+                .andExpect(
+                        status().isBadRequest()
+                );
+
+        Mockito.verify(fieldConditionService, Mockito.never()).storeAll(Mockito.any(), Mockito.any());
+    }
+
     @Test
     public void statistics() throws Exception {
 
@@ -75,7 +184,75 @@ public class FieldConditionResourceTest {
         statistics.getVegetation().setMax(0.45);
         statistics.getVegetation().setAvg(0.32);
 
-        Mockito.when(fieldConditionService.getStatistics())
+        String statisticsAsString = objectMapper.writeValueAsString(statistics);
+        EncodedStatistics encodedStatistics = new EncodedStatistics(
+                statistics.getVegetation(),
+                statisticsAsString.getBytes(StandardCharsets.UTF_8),
+                3
+        );
+
+        Mockito.when(fieldConditionService.getEncodedStatistics(null))
+                .thenReturn(encodedStatistics);
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        get("/field-conditions")
+                )
+                .andExpect(
+                        status().isOk()
+                )
+                .andExpect(
+                        header().string("ETag", encodedStatistics.entityTag())
+                )
+                .andExpect(
+                        content().string(statisticsAsString)
+                );
+    }
+
+    @Test
+    public void statistics_of_range() throws Exception {
+
+        // given
+        FieldStatistics statistics = new FieldStatistics();
+        statistics.getVegetation().setMin(0.21);
+        statistics.getVegetation().setMax(0.67);
+        statistics.getVegetation().setAvg(0.4);
+
+        Mockito.when(fieldConditionService.getStatistics(null, LocalDate.parse("2019-03-01"), LocalDate.parse("2019-03-07")))
+                .thenReturn(statistics);
+
+        String statisticsAsString = objectMapper.writeValueAsString(statistics);
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        get("/field-conditions/range")
+                                .param("from", "2019-03-01")
+                                .param("to", "2019-03-07")
+                )
+                .andExpect(
+                        status().isOk()
+                )
+                .andExpect(
+                        content().string(statisticsAsString)
+                );
+
+        Mockito.verify(fieldConditionInputValidator).validateRange(LocalDate.parse("2019-03-01"), LocalDate.parse("2019-03-07"));
+    }
+
+    @Test
+    public void statistics_of_window() throws Exception {
+
+        // given
+        FieldStatistics statistics = new FieldStatistics();
+        statistics.getVegetation().setMin(0.18);
+        statistics.getVegetation().setMax(0.52);
+        statistics.getVegetation().setAvg(0.35);
+
+        Mockito.when(fieldConditionService.getStatistics(null, 7))
                 .thenReturn(statistics);
 
         String statisticsAsString = objectMapper.writeValueAsString(statistics);
@@ -85,6 +262,7 @@ public class FieldConditionResourceTest {
         mockMvc
                 .perform(
                         get("/field-conditions")
+                                .param("window", "7")
                 )
                 .andExpect(
                         status().isOk()
@@ -92,5 +270,101 @@ public class FieldConditionResourceTest {
                 .andExpect(
                         content().string(statisticsAsString)
                 );
+
+        Mockito.verify(fieldConditionInputValidator).validateWindow(7);
+    }
+
+    @Test
+    public void statistics_not_modified() throws Exception {
+
+        // given
+        EncodedStatistics encodedStatistics = new EncodedStatistics(
+                new VegetationStatistic(0.13, 0.45, 0.32),
+                "{}".getBytes(StandardCharsets.UTF_8),
+                5
+        );
+
+        Mockito.when(fieldConditionService.getEncodedStatistics(null))
+                .thenReturn(encodedStatistics);
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        get("/field-conditions")
+                                .header("If-None-Match", encodedStatistics.entityTag())
+                )
+                .andExpect(
+                        status().isNotModified()
+                )
+                .andExpect(
+                        header().string("ETag", encodedStatistics.entityTag())
+                )
+                .andExpect(
+                        content().string("")
+                );
+    }
+
+    @Test
+    public void statistics_of_field() throws Exception {
+
+        // given
+        EncodedStatistics encodedStatistics = new EncodedStatistics(
+                new VegetationStatistic(0.11, 0.62, 0.37),
+                "{\"vegetation\":{\"min\":0.11,\"max\":0.62,\"avg\":0.37}}".getBytes(StandardCharsets.UTF_8),
+                2
+        );
+
+        Mockito.when(fieldConditionService.getEncodedStatistics("field-7"))
+                .thenReturn(encodedStatistics);
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        get("/field-conditions")
+                                .param("field-id", "field-7")
+                )
+                .andExpect(
+                        status().isOk()
+                )
+                .andExpect(
+                        content().string("{\"vegetation\":{\"min\":0.11,\"max\":0.62,\"avg\":0.37}}")
+                );
+
+        Mockito.verify(fieldConditionInputValidator).validateFieldId("field-7");
+    }
+
+    @Test
+    public void series() throws Exception {
+
+        // given
+        Instant from = Instant.parse("2019-03-10T00:00:00Z");
+        Instant to = Instant.parse("2019-03-11T00:00:00Z");
+
+        VegetationSeries series = new VegetationSeries("hour", Collections.singletonList(
+                new VegetationSeriesPoint(Instant.parse("2019-03-10T10:00:00Z"), 2, 0.30, 0.50, 0.40, 0.10)
+        ));
+
+        Mockito.when(fieldConditionInputValidator.validateSeries(from, to, null)).thenReturn(RollupResolution.HOUR);
+        Mockito.when(fieldConditionService.getSeries("field-7", from, to, RollupResolution.HOUR)).thenReturn(series);
+
+
+        // when - then
+        mockMvc
+                .perform(
+                        get("/field-conditions/series")
+                                .param("from", "2019-03-10T00:00:00Z")
+                                .param("to", "2019-03-11T00:00:00Z")
+                                .param("field-id", "field-7")
+                )
+                .andExpect(
+                        status().isOk()
+                )
+                .andExpect(
+                        content().string(objectMapper.writeValueAsString(series))
+                );
+
+        Mockito.verify(fieldConditionInputValidator).validateFieldId("field-7");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package com.chriniko.fc.statistics.resource;
+
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticsLongPollingTest {
+
+    private FieldConditionRepository repository;
+    private FieldRepositoryShards fieldRepositoryShards;
+    private StatisticsLongPolling statisticsLongPolling;
+
+    private final EncodedStatistics first = encoded(0.30, 1);
+    private final EncodedStatistics second = encoded(0.40, 2);
+
+    @Before
+    public void setUp() {
+        repository = Mockito.mock(FieldConditionRepository.class);
+        fieldRepositoryShards = Mockito.mock(FieldRepositoryShards.class);
+        Mockito.when(fieldRepositoryShards.find(FieldRepositoryShards.DEFAULT_FIELD_ID)).thenReturn(repository);
+        statisticsLongPolling = new StatisticsLongPolling(fieldRepositoryShards, new SimpleMeterRegistry(), 60_000, 2);
+    }
+
+    @Test
+    public void await_answers_at_once_when_the_client_is_behind() {
+
+        // given
+        Mockito.when(repository.encodedStatistics()).thenReturn(second);
+
+        // when
+        DeferredResult<ResponseEntity<?>> result = statisticsLongPolling.await(first.entityTag(), 30_000);
+
+        // then
+        assertTrue(result.hasResult());
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(second.body(), (byte[]) response.getBody());
+    }
+
+    @Test
+    public void await_parks_until_a_newer_version_is_published() {
+
+        // given
+        Mockito.when(repository.encodedStatistics()).thenReturn(first);
+        DeferredResult<ResponseEntity<?>> result = statisticsLongPolling.await(first.entityTag(), 30_000);
+        assertFalse(result.hasResult());
+
+        // when
+        Mockito.when(repository.encodedStatistics()).thenReturn(second);
+        statisticsLongPolling.published(FieldRepositoryShards.DEFAULT_FIELD_ID, second);
+
+        // then
+        assertTrue(result.hasResult());
+        ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(second.entityTag(), response.getHeaders().getETag());
+    }
+
+    @Test
+    public void published_completes_only_the_requests_of_its_field() {
+
+        // given
+        Mockito.when(repository.encodedStatistics()).thenReturn(first);
+        DeferredResult<ResponseEntity<?>> defaultFieldResult = statisticsLongPolling.await(first.entityTag(), 30_000);
+        // Note: a field without captures yet has the empty statistics.
+        DeferredResult<ResponseEntity<?>> fieldResult = statisticsLongPolling.await("field-1", EncodedStatistics.EMPTY.entityTag(), 30_000);
+        assertFalse(defaultFieldResult.hasResult());
+        assertFalse(fieldResult.hasResult());
+
+        // when
+        FieldConditionRepository fieldRepository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(fieldRepository.encodedStatistics()).thenReturn(second);
+        Mockito.when(fieldRepositoryShards.find("field-1")).thenReturn(fieldRepository);
+        statisticsLongPolling.published("field-1", second);
+
+        // then
+        assertTrue(fieldResult.hasResult());
+        assertEquals(second.entityTag(), ((ResponseEntity<?>) fieldResult.getResult()).getHeaders().getETag());
+        assertFalse(defaultFieldResult.hasResult());
+    }
+
+    @Test(expected = BusinessOverloadedException.class)
+    public void await_rejects_when_too_many_requests_are_parked() {
+
+        // given
+        Mockito.when(repository.encodedStatistics()).thenReturn(first);
+        statisticsLongPolling.await(first.entityTag(), 30_000);
+        statisticsLongPolling.await(first.entityTag(), 30_000);
+
+        // when
+        statisticsLongPolling.await(first.entityTag(), 30_000);
+    }
+
+    // --- utils ---
+
+    private static EncodedStatistics encoded(double avg, long version) {
+        VegetationStatistic statistic = new VegetationStatistic(0.1, 0.9, avg);
+        return new EncodedStatistics(statistic, ("{\"avg\":" + avg + "}").getBytes(StandardCharsets.UTF_8), version);
+    }
+}
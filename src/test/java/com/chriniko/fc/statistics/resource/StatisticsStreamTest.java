@@ -0,0 +1,210 @@
+package com.chriniko.fc.statistics.resource;
+
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.error.BusinessOverloadedException;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.worker.PoolHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticsStreamTest {
+
+    private FieldConditionRepository repository;
+    private FieldRepositoryShards fieldRepositoryShards;
+    private SimpleMeterRegistry meterRegistry;
+    private StatisticsStream statisticsStream;
+
+    private final EncodedStatistics first = encoded(0.30, 1);
+
+    @Before
+    public void setUp() {
+        repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(repository.encodedStatistics()).thenReturn(first);
+        fieldRepositoryShards = Mockito.mock(FieldRepositoryShards.class);
+        Mockito.when(fieldRepositoryShards.find(FieldRepositoryShards.DEFAULT_FIELD_ID)).thenReturn(repository);
+
+        meterRegistry = new SimpleMeterRegistry();
+        statisticsStream = new StatisticsStream(fieldRepositoryShards, new PoolHandler(), meterRegistry, 60_000, 2, 2, 2, 60_000);
+    }
+
+    @After
+    public void tearDown() {
+        statisticsStream.close();
+    }
+
+    @Test
+    public void published_frame_is_encoded_once_and_shared_by_the_subscribers() {
+
+        // given
+        RecordingEmitter subscriberA = new RecordingEmitter(null);
+        RecordingEmitter subscriberB = new RecordingEmitter(null);
+        statisticsStream.subscribe(subscriberA);
+        statisticsStream.subscribe(subscriberB);
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> subscriberA.frames.size() == 1 && subscriberB.frames.size() == 1);
+
+        // when
+        statisticsStream.published(FieldRepositoryShards.DEFAULT_FIELD_ID, encoded(0.40, 2));
+
+        // then
+        await().atMost(5, TimeUnit.SECONDS).until(() -> subscriberA.frames.size() == 2 && subscriberB.frames.size() == 2);
+
+        assertEquals("id: 1\nevent: statistics\ndata: {\"avg\":0.3}\n\n", new String(subscriberA.frames.get(0), StandardCharsets.UTF_8));
+        assertEquals("id: 2\nevent: statistics\ndata: {\"avg\":0.4}\n\n", new String(subscriberA.frames.get(1), StandardCharsets.UTF_8));
+        assertSame(subscriberA.frames.get(1), subscriberB.frames.get(1));
+
+        statisticsStream.close();
+        assertTrue(subscriberA.completed && subscriberB.completed);
+    }
+
+    @Test
+    public void published_frame_is_offered_only_to_the_subscribers_of_its_field() {
+
+        // given
+        RecordingEmitter defaultFieldSubscriber = new RecordingEmitter(null);
+        RecordingEmitter fieldSubscriber = new RecordingEmitter(null);
+        statisticsStream.subscribe(defaultFieldSubscriber);
+        // Note: a field without captures yet starts with the empty statistics.
+        statisticsStream.subscribe("field-1", fieldSubscriber);
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> defaultFieldSubscriber.frames.size() == 1 && fieldSubscriber.frames.size() == 1);
+
+        // when
+        statisticsStream.published("field-1", encoded(0.40, 1));
+        statisticsStream.published("field-2", encoded(0.50, 1));
+
+        // then
+        await().atMost(5, TimeUnit.SECONDS).until(() -> fieldSubscriber.frames.size() == 2);
+
+        assertEquals("id: 0\nevent: statistics\ndata: " + new String(EncodedStatistics.EMPTY.body(), StandardCharsets.UTF_8) + "\n\n",
+                new String(fieldSubscriber.frames.get(0), StandardCharsets.UTF_8));
+        assertEquals("id: 1\nevent: statistics\ndata: {\"avg\":0.4}\n\n", new String(fieldSubscriber.frames.get(1), StandardCharsets.UTF_8));
+        assertEquals(1, defaultFieldSubscriber.frames.size());
+    }
+
+    @Test
+    public void slow_subscriber_is_evicted() throws Exception {
+
+        // given
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(blocked);
+        RecordingEmitter fast = new RecordingEmitter(null);
+        statisticsStream.subscribe(slow);
+        statisticsStream.subscribe(fast);
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> slow.sending && fast.frames.size() == 1);
+
+        // when
+        for (int version = 2; version <= 5; version++) {
+            statisticsStream.published(FieldRepositoryShards.DEFAULT_FIELD_ID, encoded(0.30 + version / 100.0, version));
+            int expected = version;
+            await().atMost(5, TimeUnit.SECONDS).until(() -> fast.frames.size() == expected);
+        }
+
+        // then
+        // Note: the eviction interrupts the send in progress, so the writer is released.
+        await().atMost(5, TimeUnit.SECONDS).until(() -> slow.interrupted);
+        assertEquals(1.0, meterRegistry.get("statistics.stream.evicted").counter().count(), 0.0);
+        assertEquals(1.0, meterRegistry.get("statistics.stream.subscribers").gauge().value(), 0.0);
+
+        blocked.countDown();
+    }
+
+    @Test
+    public void stalled_send_is_interrupted_and_releases_the_writer() {
+
+        // given
+        statisticsStream.close();
+        meterRegistry = new SimpleMeterRegistry();
+        statisticsStream = new StatisticsStream(fieldRepositoryShards, new PoolHandler(), meterRegistry, 60_000, 2, 2, 1, 200);
+
+        RecordingEmitter stalled = new RecordingEmitter(new CountDownLatch(1));
+        statisticsStream.subscribe(stalled);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> stalled.sending);
+
+        // when
+        RecordingEmitter healthy = new RecordingEmitter(null);
+        statisticsStream.subscribe(healthy);
+
+        // then
+        await().atMost(5, TimeUnit.SECONDS).until(() -> healthy.frames.size() == 1);
+        assertTrue(stalled.interrupted);
+        assertEquals(1.0, meterRegistry.get("statistics.stream.evicted").counter().count(), 0.0);
+        assertEquals(1.0, meterRegistry.get("statistics.stream.subscribers").gauge().value(), 0.0);
+
+        statisticsStream.published(FieldRepositoryShards.DEFAULT_FIELD_ID, encoded(0.40, 2));
+        await().atMost(5, TimeUnit.SECONDS).until(() -> healthy.frames.size() == 2);
+    }
+
+    @Test(expected = BusinessOverloadedException.class)
+    public void subscribe_rejects_when_too_many_subscribers() {
+
+        // given
+        statisticsStream.subscribe(new RecordingEmitter(null));
+        statisticsStream.subscribe(new RecordingEmitter(null));
+
+        // when
+        statisticsStream.subscribe(new RecordingEmitter(null));
+    }
+
+    // --- utils ---
+
+    private static EncodedStatistics encoded(double avg, long version) {
+        VegetationStatistic statistic = new VegetationStatistic(0.1, 0.9, avg);
+        return new EncodedStatistics(statistic, ("{\"avg\":" + avg + "}").getBytes(StandardCharsets.UTF_8), version);
+    }
+
+    private static class RecordingEmitter extends ResponseBodyEmitter {
+
+        private final CountDownLatch blocked;
+
+        private final List<byte[]> frames = new CopyOnWriteArrayList<>();
+        private volatile boolean sending;
+        private volatile boolean interrupted;
+        private volatile boolean completed;
+
+        private RecordingEmitter(CountDownLatch blocked) {
+            this.blocked = blocked;
+        }
+
+        @Override
+        public void send(Object object, MediaType mediaType) throws IOException {
+            sending = true;
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            frames.add((byte[]) object);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+    }
+}
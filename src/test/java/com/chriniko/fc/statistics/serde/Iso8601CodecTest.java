@@ -0,0 +1,134 @@
+package com.chriniko.fc.statistics.serde;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Iso8601CodecTest {
+
+    @Test
+    public void parseEpochMillis_same_as_jdk() {
+
+        // given
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10_000; i++) {
+            Instant instant = Instant.ofEpochSecond(
+                    random.nextInt(Integer.MAX_VALUE) - (long) Integer.MAX_VALUE / 2 * 3,
+                    random.nextInt(4) == 0 ? 0 : random.nextInt(1_000_000_000)
+            );
+            char[] text = ("  " + instant + " ").toCharArray();
+
+            // when
+            long epochMillis = Iso8601Codec.parseEpochMillis(text, 2, text.length - 3);
+
+            // then
+            assertEquals(instant.toString(), instant.toEpochMilli(), epochMillis);
+        }
+    }
+
+    @Test
+    public void parseInstant_and_format_same_as_jdk() {
+
+        // given
+        Random random = new Random(42);
+        char[] buffer = new char[Iso8601Codec.MAX_FORMATTED_LENGTH];
+
+        for (int i = 0; i < 10_000; i++) {
+            int nanos;
+            switch (random.nextInt(4)) {
+                case 0:
+                    nanos = 0;
+                    break;
+                case 1:
+                    nanos = random.nextInt(1000) * 1_000_000;
+                    break;
+                case 2:
+                    nanos = random.nextInt(1_000_000) * 1000;
+                    break;
+                default:
+                    nanos = random.nextInt(1_000_000_000);
+            }
+            Instant instant = Instant.ofEpochSecond((long) (random.nextDouble() * 320_000_000_000L) - 62_167_219_200L, nanos);
+            String expected = instant.toString();
+
+            // when
+            int length = Iso8601Codec.format(instant.getEpochSecond(), instant.getNano(), buffer);
+            Instant parsed = Iso8601Codec.parseInstant(expected.toCharArray(), 0, expected.length());
+
+            // then
+            if (length < 0) {
+                assertTrue(expected, instant.getEpochSecond() > 253_402_300_799L);
+            } else {
+                assertEquals(expected, new String(buffer, 0, length));
+            }
+            assertEquals(instant, parsed);
+        }
+    }
+
+    @Test
+    public void format_bounds() {
+
+        // given
+        char[] buffer = new char[Iso8601Codec.MAX_FORMATTED_LENGTH];
+        Instant[] instants = {
+                Instant.parse("0000-01-01T00:00:00Z"),
+                Instant.parse("0000-02-29T23:59:59.999Z"),
+                Instant.parse("1969-12-31T23:59:59.999999999Z"),
+                Instant.EPOCH,
+                Instant.parse("9999-12-31T23:59:59.000001Z")
+        };
+
+        for (Instant instant : instants) {
+
+            // when
+            int length = Iso8601Codec.format(instant.getEpochSecond(), instant.getNano(), buffer);
+
+            // then
+            assertEquals(instant.toString(), new String(buffer, 0, length));
+        }
+        assertEquals(-1, Iso8601Codec.format(Instant.parse("-0001-12-31T23:59:59Z").getEpochSecond(), 0, buffer));
+    }
+
+    @Test
+    public void parseEpochMillis_fraction_digits() {
+
+        // when - then
+        assertEquals(Instant.parse("2019-03-10T10:15:30.100Z").toEpochMilli(), parse("2019-03-10T10:15:30.1Z"));
+        assertEquals(Instant.parse("2019-03-10T10:15:30.120Z").toEpochMilli(), parse("2019-03-10T10:15:30.12Z"));
+        assertEquals(Instant.parse("2019-03-10T10:15:30.123Z").toEpochMilli(), parse("2019-03-10T10:15:30.123456789Z"));
+        assertEquals(Instant.parse("2020-02-29T23:59:59Z").toEpochMilli(), parse("2020-02-29T23:59:59Z"));
+    }
+
+    @Test
+    public void parseEpochMillis_falls_back_to_jdk() {
+
+        // when - then
+        assertEquals(Instant.parse("+12019-03-10T10:15:30Z").toEpochMilli(), parse("+12019-03-10T10:15:30Z"));
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void parseEpochMillis_invalid_date() {
+
+        // when
+        parse("2019-02-29T10:15:30Z");
+    }
+
+    @Test(expected = DateTimeParseException.class)
+    public void parseEpochMillis_invalid_format() {
+
+        // when
+        parse("2019-03-10 10:15:30");
+    }
+
+    // --- utils ---
+
+    private long parse(String text) {
+        return Iso8601Codec.parseEpochMillis(text.toCharArray(), 0, text.length());
+    }
+}
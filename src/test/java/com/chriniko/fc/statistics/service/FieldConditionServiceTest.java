@@ -1,9 +1,18 @@
 package com.chriniko.fc.statistics.service;
 
+import com.chriniko.fc.statistics.common.MathProvider;
 import com.chriniko.fc.statistics.dto.FieldConditionCapture;
 import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.dto.VegetationSeries;
+import com.chriniko.fc.statistics.dto.VegetationSeriesPoint;
 import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.ingestion.IngestionPipeline;
+import com.chriniko.fc.statistics.persistence.WriteAheadLog;
+import com.chriniko.fc.statistics.repository.CaptureBatch;
+import com.chriniko.fc.statistics.repository.DailyAggregate;
 import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.repository.RollupResolution;
 import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.noop.NoopTimer;
@@ -14,6 +23,11 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
 import static org.junit.Assert.assertEquals;
 
 
@@ -25,12 +39,21 @@ public class FieldConditionServiceTest {
     @Mock
     private FieldConditionRepository mockedFieldConditionRepository;
 
+    @Mock
+    private FieldRepositoryShards fieldRepositoryShards;
+
+    @Mock
+    private WriteAheadLog writeAheadLog;
+
+    @Mock
+    private IngestionPipeline ingestionPipeline;
+
     @Mock
     private MeterRegistry meterRegistry;
 
     @Before
     public void setUp() {
-        fieldConditionService = new FieldConditionService(mockedFieldConditionRepository, meterRegistry);
+        fieldConditionService = new FieldConditionService(mockedFieldConditionRepository, fieldRepositoryShards, writeAheadLog, ingestionPipeline, meterRegistry, new MathProvider());
     }
 
     @Test
@@ -54,6 +77,98 @@ public class FieldConditionServiceTest {
 
     }
 
+    @Test
+    public void store_with_write_ahead_log() {
+
+        // given
+        FieldConditionCapture capture = new FieldConditionCapture();
+
+        Mockito.when(writeAheadLog.isEnabled()).thenReturn(true);
+
+        Mockito.when(meterRegistry.timer("store"))
+                .thenReturn(
+                        new NoopTimer(
+                                new Meter.Id("store", null, null, null, Meter.Type.TIMER)
+                        )
+                );
+
+        // when
+        fieldConditionService.store(capture);
+
+        // then
+        Mockito.verify(writeAheadLog).append(capture);
+        Mockito.verifyZeroInteractions(mockedFieldConditionRepository);
+    }
+
+    @Test
+    public void store_with_ingestion_pipeline() {
+
+        // given
+        Instant occurrenceAt = Instant.now();
+        FieldConditionCapture capture = new FieldConditionCapture(0.42, occurrenceAt);
+
+        Mockito.when(ingestionPipeline.isEnabled()).thenReturn(true);
+
+        Mockito.when(meterRegistry.timer("store"))
+                .thenReturn(
+                        new NoopTimer(
+                                new Meter.Id("store", null, null, null, Meter.Type.TIMER)
+                        )
+                );
+
+        // when
+        fieldConditionService.store(capture);
+
+        // then
+        Mockito.verify(ingestionPipeline).publish(occurrenceAt.toEpochMilli(), 0.42);
+        Mockito.verifyZeroInteractions(mockedFieldConditionRepository, writeAheadLog);
+    }
+
+    @Test
+    public void store_of_a_field_of_the_shards() {
+
+        // given
+        FieldConditionCapture capture = new FieldConditionCapture(0.42, Instant.now(), "field-7");
+
+        Mockito.when(meterRegistry.timer("store"))
+                .thenReturn(
+                        new NoopTimer(
+                                new Meter.Id("store", null, null, null, Meter.Type.TIMER)
+                        )
+                );
+
+        // when
+        fieldConditionService.store(capture);
+
+        // then
+        Mockito.verify(fieldRepositoryShards).save("field-7", capture);
+        Mockito.verifyZeroInteractions(mockedFieldConditionRepository, writeAheadLog, ingestionPipeline);
+    }
+
+    @Test
+    public void storeAll() {
+
+        // given
+        CaptureBatch batch = CaptureBatch.of(Arrays.asList(
+                new FieldConditionCapture(0.32, Instant.now()),
+                new FieldConditionCapture(0.34, Instant.now())
+        ));
+
+        Mockito.when(meterRegistry.timer("storeAll"))
+                .thenReturn(
+                        new NoopTimer(
+                                new Meter.Id("storeAll", null, null, null, Meter.Type.TIMER)
+                        )
+                );
+
+        // when
+        fieldConditionService.storeAll(batch);
+
+        // then
+        Mockito.verify(mockedFieldConditionRepository).saveAll(batch);
+        Mockito.verify(mockedFieldConditionRepository, Mockito.never()).save(Mockito.any());
+    }
+
     @Test
     public void getStatistics() {
 
@@ -78,4 +193,35 @@ public class FieldConditionServiceTest {
         // then
         assertEquals(vegetation, statistics.getVegetation());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getSeries() {
+
+        // given
+        Instant from = Instant.parse("2019-03-10T00:00:00Z");
+        Instant to = Instant.parse("2019-03-11T00:00:00Z");
+
+        SortedMap<Instant, DailyAggregate> buckets = new TreeMap<>();
+        buckets.put(Instant.parse("2019-03-10T10:00:00Z"), DailyAggregate.of(new double[]{0.30, 0.50}, 2));
+        buckets.put(Instant.parse("2019-03-10T11:00:00Z"), DailyAggregate.of(new double[]{0.333}, 1));
+
+        Mockito.when(fieldRepositoryShards.find("field-7")).thenReturn(mockedFieldConditionRepository);
+        Mockito.when(mockedFieldConditionRepository.findRollups(RollupResolution.HOUR, from, to)).thenReturn(buckets);
+        Mockito.when(meterRegistry.timer("getSeries"))
+                .thenReturn(
+                        new NoopTimer(
+                                new Meter.Id("getSeries", null, null, null, Meter.Type.TIMER)
+                        )
+                );
+
+        // when
+        VegetationSeries series = fieldConditionService.getSeries("field-7", from, to, RollupResolution.HOUR);
+
+        // then
+        assertEquals("hour", series.getResolution());
+        assertEquals(Arrays.asList(
+                new VegetationSeriesPoint(Instant.parse("2019-03-10T10:00:00Z"), 2, 0.30, 0.50, 0.40, 0.10),
+                new VegetationSeriesPoint(Instant.parse("2019-03-10T11:00:00Z"), 1, 0.333, 0.333, 0.33, 0.00)
+        ), series.getPoints());
+    }
+}
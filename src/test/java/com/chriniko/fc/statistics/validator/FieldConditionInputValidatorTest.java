@@ -0,0 +1,77 @@
+package com.chriniko.fc.statistics.validator;
+
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.error.BusinessValidationException;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+public class FieldConditionInputValidatorTest {
+
+    private static final LocalDate TODAY = LocalDate.parse("2019-03-10");
+
+    private FieldConditionRepository repository;
+    private Clock clock;
+
+    private FieldConditionInputValidator fieldConditionInputValidator;
+
+    @Before
+    public void setUp() {
+        repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(repository.isInRetainedWindow(Mockito.anyLong())).thenReturn(true);
+
+        clock = Clock.fixed(Instant.parse("2019-03-10T12:00:00Z"), ZoneOffset.UTC);
+        fieldConditionInputValidator = newValidator(20, 40);
+    }
+
+    @Test
+    public void validateRange_accepts_the_last_days() {
+
+        // when - then
+        fieldConditionInputValidator.validateRange(TODAY.minusDays(19), TODAY);
+    }
+
+    @Test(expected = BusinessValidationException.class)
+    public void validateRange_rejects_days_older_than_the_max_days() {
+
+        // when
+        fieldConditionInputValidator.validateRange(TODAY.minusDays(20), TODAY);
+    }
+
+    @Test(expected = BusinessValidationException.class)
+    public void validateRange_rejects_days_after_today() {
+
+        // when
+        fieldConditionInputValidator.validateRange(TODAY, TODAY.plusDays(1));
+    }
+
+    @Test(expected = BusinessValidationException.class)
+    public void validateRange_rejects_days_which_are_not_retained_by_the_repository() {
+
+        // given
+        long fromEpochMillis = TODAY.minusDays(5).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        Mockito.when(repository.isInRetainedWindow(fromEpochMillis)).thenReturn(false);
+
+        // when
+        fieldConditionInputValidator.validateRange(TODAY.minusDays(5), TODAY);
+    }
+
+    @Test(expected = BusinessProcessingException.class)
+    public void range_max_days_should_not_exceed_the_retention() {
+
+        // when
+        newValidator(41, 40);
+    }
+
+    // --- utils ---
+
+    private FieldConditionInputValidator newValidator(int rangeMaxDays, int retentionDays) {
+        return new FieldConditionInputValidator(repository, clock, "reject", new int[]{7}, 30, rangeMaxDays, retentionDays, 2000);
+    }
+}
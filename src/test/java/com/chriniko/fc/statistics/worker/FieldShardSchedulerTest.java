@@ -0,0 +1,167 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+
+public class FieldShardSchedulerTest {
+
+    private final Instant occurrenceAt = Instant.parse("2019-03-10T08:00:00Z");
+
+    private FieldRepositoryShards fieldRepositoryShards;
+
+    // Note: the dispatched shard calculations, run on demand.
+    private List<Runnable> dispatched;
+    private List<String> calculatedFields;
+
+    @Before
+    public void setUp() {
+        Clock clock = Clock.fixed(Instant.parse("2019-03-10T10:15:30Z"), ZoneOffset.UTC);
+        fieldRepositoryShards = new FieldRepositoryShards(
+                Mockito.mock(FieldConditionRepository.class), new MathProvider(), clock, ForkJoinPool.commonPool(), new SimpleMeterRegistry(), 8, 100, 1, 256, false, false, "memoRepo"
+        );
+        dispatched = new ArrayList<>();
+        calculatedFields = new ArrayList<>();
+    }
+
+    @Test
+    public void dispatch_is_bounded_by_the_threads_and_a_shard_is_not_dispatched_twice() {
+
+        // given
+        FieldShardScheduler scheduler = new FieldShardScheduler(fieldRepositoryShards, dispatched::add, 2, 1.0, calculatedFields::add);
+        for (int i = 0; i < 32; i++) {
+            save("field-" + i, 1);
+        }
+        int dirtyShards = dirtyShards();
+
+        // when
+        int first = scheduler.dispatch(System.nanoTime());
+        int second = scheduler.dispatch(System.nanoTime());
+
+        // then
+        assertEquals(2, first);
+        assertEquals(0, second);
+        assertEquals(2, scheduler.running());
+
+        // when
+        dispatched.forEach(Runnable::run);
+        dispatched.clear();
+
+        // then
+        assertEquals(0, scheduler.running());
+        assertEquals(dirtyShards - 2, dirtyShards());
+    }
+
+    @Test
+    public void shard_with_more_pending_writes_is_dispatched_first() {
+
+        // given
+        FieldShardScheduler scheduler = new FieldShardScheduler(fieldRepositoryShards, dispatched::add, 1, 1.0, calculatedFields::add);
+        // Note: both shards are dirty since about the same time.
+        String busyField = fieldOfAnotherShard("quiet-field");
+        save("quiet-field", 1);
+        save(busyField, 1000);
+
+        // when
+        scheduler.dispatch(System.nanoTime());
+        dispatched.forEach(Runnable::run);
+
+        // then
+        assertEquals(busyField, calculatedFields.get(0));
+    }
+
+    @Test
+    public void stale_shard_is_not_starved() throws Exception {
+
+        // given
+        FieldShardScheduler scheduler = new FieldShardScheduler(fieldRepositoryShards, dispatched::add, 1, 1.0, calculatedFields::add);
+        save("quiet-field", 1);
+        TimeUnit.MILLISECONDS.sleep(50);
+        String busyField = fieldOfAnotherShard("quiet-field");
+        save(busyField, 10);
+
+        // when
+        scheduler.dispatch(System.nanoTime());
+        dispatched.forEach(Runnable::run);
+
+        // then
+        assertEquals("quiet-field", calculatedFields.get(0));
+    }
+
+    @Test
+    public void dispatch_pauses_when_the_budget_is_exhausted() {
+
+        // given
+        FieldShardScheduler scheduler = new FieldShardScheduler(fieldRepositoryShards, dispatched::add, 1, 0.1, fieldId -> spin(TimeUnit.MILLISECONDS.toNanos(1100)));
+        save("field-1", 1);
+        String otherField = fieldOfAnotherShard("field-1");
+        save(otherField, 1);
+
+        long now = System.nanoTime();
+        assertEquals(1, scheduler.dispatch(now));
+        dispatched.forEach(Runnable::run);
+        dispatched.clear();
+
+        // when - then (the spent time is more than the budget)
+        assertEquals(0, scheduler.dispatch(now));
+
+        // when - then (paid back: 10% of 2 seconds is more than 0.1 seconds of debt)
+        assertEquals(1, scheduler.dispatch(now + TimeUnit.SECONDS.toNanos(2)));
+        assertEquals(1, dispatched.size());
+    }
+
+    // --- utils ---
+
+    private void save(String fieldId, int captures) {
+        for (int i = 0; i < captures; i++) {
+            fieldRepositoryShards.save(fieldId, new FieldConditionCapture(0.40, occurrenceAt.plusMillis(i), fieldId));
+        }
+    }
+
+    private int dirtyShards() {
+        int result = 0;
+        for (int shardIdx = 0; shardIdx < fieldRepositoryShards.noOfShards(); shardIdx++) {
+            if (fieldRepositoryShards.hasDirtyFields(shardIdx)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private int shardOf(String fieldId) {
+        int h = fieldId.hashCode();
+        return (h ^ (h >>> 16)) & (fieldRepositoryShards.noOfShards() - 1);
+    }
+
+    private String fieldOfAnotherShard(String fieldId) {
+        for (int i = 0; ; i++) {
+            String candidate = "field-" + i;
+            if (shardOf(candidate) != shardOf(fieldId)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static void spin(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(deadline - System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.common.MathProvider;
+import com.chriniko.fc.statistics.dto.CaptureStatistics;
+import com.chriniko.fc.statistics.dto.FieldConditionCapture;
+import com.chriniko.fc.statistics.dto.FieldStatistics;
+import com.chriniko.fc.statistics.dto.MergedFieldConditionCapture;
+import com.chriniko.fc.statistics.dto.VegetationQuantiles;
+import com.chriniko.fc.statistics.dto.VegetationStatistic;
+import com.chriniko.fc.statistics.health.FieldStatisticsCalculatorHealthContext;
+import com.chriniko.fc.statistics.repository.DailyAggregate;
+import com.chriniko.fc.statistics.repository.EncodedStatistics;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import com.chriniko.fc.statistics.repository.QuantileSketch;
+import com.chriniko.fc.statistics.repository.WindowStatistics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.joor.Reflect;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FieldStatisticsCalculatorTest {
+
+    private static final long MILLIS = TimeUnit.NANOSECONDS.convert(1, TimeUnit.MILLISECONDS);
+
+    private FieldConditionRepository repository;
+    private FieldRepositoryShards fieldRepositoryShards;
+    private StatisticsPublicationListener listener;
+    private FieldStatisticsCalculator calculator;
+
+    @Before
+    public void setUp() {
+        repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(repository.encodedStatistics()).thenReturn(EncodedStatistics.EMPTY);
+
+        listener = Mockito.mock(StatisticsPublicationListener.class);
+
+        Clock clock = Clock.fixed(Instant.parse("2019-03-10T10:15:30Z"), ZoneOffset.UTC);
+        fieldRepositoryShards = new FieldRepositoryShards(
+                repository, new MathProvider(), clock, ForkJoinPool.commonPool(), new SimpleMeterRegistry(), 4, 100, 1, 256, false, false, "memoRepo"
+        );
+        calculator = new FieldStatisticsCalculator(
+                repository,
+                fieldRepositoryShards,
+                new PoolHandler(),
+                new MathProvider(),
+                new FieldStatisticsCalculatorHealthContext(clock),
+                clock,
+                new ObjectMapper(),
+                Collections.singletonList(listener)
+        );
+
+        Reflect.on(calculator).set("pastDays", 30);
+        Reflect.on(calculator).set("rangeMaxDays", 365);
+        Reflect.on(calculator).set("configuredWindows", new int[]{1, 7, 90});
+        Reflect.on(calculator).set("minLatency", 10L);
+        Reflect.on(calculator).set("maxLatency", 100L);
+
+        // Note: the shards are calculated on the calling thread.
+        Reflect.on(calculator).set("fieldShardScheduler", new FieldShardScheduler(
+                fieldRepositoryShards, Runnable::run, fieldRepositoryShards.noOfShards(), 1.0, fieldId -> Reflect.on(calculator).call("calculateField", fieldId)
+        ));
+    }
+
+    @Test
+    public void recalculateOnChange_skips_when_nothing_changed() {
+
+        // given
+        Mockito.when(repository.writeVersion()).thenReturn(7L);
+        assertTrue(calculator.recalculateOnChange(0));
+
+        // when
+        boolean recalculated = calculator.recalculateOnChange(10 * MILLIS);
+
+        // then
+        assertFalse(recalculated);
+        Mockito.verify(repository, Mockito.times(1)).findAllMergedOrderByOccurrenceDesc(90);
+        Mockito.verify(repository, Mockito.times(1)).findDailyAggregatesOfLastDays(365);
+    }
+
+    @Test
+    public void recalculateOnChange_coalesces_a_burst_until_it_settles() {
+
+        // given
+        Mockito.when(repository.writeVersion()).thenReturn(1L, 2L, 3L, 3L);
+        assertTrue(calculator.recalculateOnChange(0));
+
+        // when - then
+        assertFalse(calculator.recalculateOnChange(10 * MILLIS));
+        assertFalse(calculator.recalculateOnChange(20 * MILLIS));
+        assertTrue(calculator.recalculateOnChange(30 * MILLIS));
+    }
+
+    @Test
+    public void recalculateOnChange_does_not_wait_more_than_max_latency() {
+
+        // given
+        Mockito.when(repository.writeVersion()).thenReturn(1L, 2L, 3L, 4L);
+        assertTrue(calculator.recalculateOnChange(0));
+
+        // when - then
+        assertFalse(calculator.recalculateOnChange(10 * MILLIS));
+        assertFalse(calculator.recalculateOnChange(20 * MILLIS));
+        assertTrue(calculator.recalculateOnChange(110 * MILLIS));
+    }
+
+    @Test
+    public void extractWindowStatistics_calculates_all_windows_in_one_pass() {
+
+        // given
+        LocalDate today = LocalDate.parse("2019-03-10");
+        List<MergedFieldConditionCapture> mergedCaptures = Arrays.asList(
+                new MergedFieldConditionCapture(today, 0.40),
+                new MergedFieldConditionCapture(today.minusDays(1), 0.20),
+                new MergedFieldConditionCapture(today.minusDays(5), 0.90),
+                new MergedFieldConditionCapture(today.minusDays(60), 0.10)
+        );
+
+        // when
+        WindowStatistics windowStatistics = calculator.extractWindowStatistics(mergedCaptures, new int[]{0, 1, 7, 30, 90}, today);
+
+        // then
+        assertEquals(new VegetationStatistic(0.40, 0.40, 0.40), windowStatistics.get(0));
+        assertEquals(new VegetationStatistic(0.20, 0.40, 0.30), windowStatistics.get(1));
+        assertEquals(new VegetationStatistic(0.20, 0.90, 0.50), windowStatistics.get(7));
+        assertEquals(new VegetationStatistic(0.20, 0.90, 0.50), windowStatistics.get(30));
+        assertEquals(new VegetationStatistic(0.10, 0.90, 0.40), windowStatistics.get(90));
+        assertNull(windowStatistics.get(14));
+    }
+
+    @Test
+    public void extractWindowQuantiles_merges_the_sketches_of_the_days_of_each_window() {
+
+        // given
+        LocalDate today = LocalDate.parse("2019-03-10");
+        Map<LocalDate, QuantileSketch> sketchesByDay = new HashMap<>();
+        sketchesByDay.put(today, sketchOf(0.10, 0.20, 0.30));
+        sketchesByDay.put(today.minusDays(5), sketchOf(0.40, 0.50, 0.60, 0.70));
+        sketchesByDay.put(today.minusDays(60), sketchOf(0.90, 0.90, 0.90, 0.90, 0.90, 0.90, 0.90, 0.90));
+
+        // when
+        VegetationQuantiles[] quantiles = calculator.extractWindowQuantiles(sketchesByDay, new int[]{0, 1, 7, 30, 90}, today);
+
+        // then
+        assertEquals(0.20, quantiles[0].getMedian(), 0.01);
+        assertEquals(0.20, quantiles[1].getMedian(), 0.01);
+        assertEquals(0.40, quantiles[2].getMedian(), 0.01);
+        assertEquals(0.60, quantiles[2].getP99(), 0.01);
+        assertEquals(0.40, quantiles[3].getMedian(), 0.01);
+        assertEquals(0.90, quantiles[4].getMedian(), 0.01);
+    }
+
+    @Test
+    public void extractWindowQuantiles_without_sketches() {
+
+        // when
+        VegetationQuantiles[] quantiles = calculator.extractWindowQuantiles(Collections.emptyMap(), new int[]{1, 7}, LocalDate.parse("2019-03-10"));
+
+        // then
+        assertNull(quantiles[0]);
+        assertNull(quantiles[1]);
+    }
+
+    @Test
+    public void extractWindowCaptures_merges_the_aggregates_of_the_days_of_each_window() {
+
+        // given
+        LocalDate today = LocalDate.parse("2019-03-10");
+        Map<LocalDate, DailyAggregate> aggregatesByDay = new HashMap<>();
+        aggregatesByDay.put(today, aggregateOf(0.10, 0.20, 0.30));
+        aggregatesByDay.put(today.minusDays(5), aggregateOf(0.60));
+        aggregatesByDay.put(today.minusDays(60), aggregateOf(0.90, 0.90, 0.90, 0.90));
+
+        // when
+        CaptureStatistics[] captures = calculator.extractWindowCaptures(aggregatesByDay, new int[]{0, 7, 90}, today);
+
+        // then
+        assertEquals(new CaptureStatistics(3, 0.20, 0.08), captures[0]);
+        // Note: weighted by the captures, the average of the daily averages would be 0.40.
+        assertEquals(new CaptureStatistics(4, 0.30, 0.19), captures[1]);
+        assertEquals(new CaptureStatistics(8, 0.60, 0.33), captures[2]);
+    }
+
+    @Test
+    public void calculation_publishes_the_encoded_statistics_once_per_change() throws Exception {
+
+        // given
+        LocalDate today = LocalDate.parse("2019-03-10");
+        Mockito.when(repository.findAllMergedOrderByOccurrenceDesc(90)).thenReturn(Arrays.asList(
+                new MergedFieldConditionCapture(today, 0.40),
+                new MergedFieldConditionCapture(today.minusDays(1), 0.20)
+        ));
+        Mockito.when(repository.writeVersion()).thenReturn(1L, 2L, 2L);
+
+        ArgumentCaptor<EncodedStatistics> published = ArgumentCaptor.forClass(EncodedStatistics.class);
+
+        // when
+        calculator.recalculateOnChange(0);
+
+        Mockito.verify(repository).updateEncodedStatistics(published.capture());
+        Mockito.when(repository.encodedStatistics()).thenReturn(published.getValue());
+
+        calculator.recalculateOnChange(10 * MILLIS);
+        calculator.recalculateOnChange(20 * MILLIS);
+
+        // then
+        VegetationStatistic statistic = new VegetationStatistic(0.20, 0.40, 0.30);
+        assertEquals(1, published.getValue().version());
+        assertArrayEquals(new ObjectMapper().writeValueAsBytes(new FieldStatistics(statistic)), published.getValue().body());
+
+        Mockito.verify(repository, Mockito.times(2)).findAllMergedOrderByOccurrenceDesc(90);
+        Mockito.verify(repository, Mockito.times(1)).updateEncodedStatistics(Mockito.any());
+        Mockito.verify(listener, Mockito.times(1)).published(FieldRepositoryShards.DEFAULT_FIELD_ID, published.getValue());
+    }
+
+    @Test
+    public void calculateDirtyFields_calculates_only_the_changed_fields() {
+
+        // given
+        Instant occurrenceAt = Instant.parse("2019-03-10T08:00:00Z");
+        fieldRepositoryShards.save("field-1", new FieldConditionCapture(0.40, occurrenceAt, "field-1"));
+        fieldRepositoryShards.save("field-1", new FieldConditionCapture(0.20, occurrenceAt.plusSeconds(60), "field-1"));
+        fieldRepositoryShards.save("field-2", new FieldConditionCapture(0.70, occurrenceAt, "field-2"));
+
+        // when
+        calculator.calculateDirtyFields();
+
+        // then
+        FieldConditionRepository field1 = fieldRepositoryShards.find("field-1");
+        assertEquals(new VegetationStatistic(0.30, 0.30, 0.30), field1.vegetationStatistics());
+        assertEquals(new VegetationStatistic(0.70, 0.70, 0.70), fieldRepositoryShards.find("field-2").vegetationStatistics());
+        Mockito.verify(repository, Mockito.never()).findAllMergedOrderByOccurrenceDesc(Mockito.anyInt());
+
+        // when - a clean field is not calculated again
+        VegetationStatistic sentinel = new VegetationStatistic(1, 1, 1);
+        field1.updateVegetationStatistics(sentinel);
+        fieldRepositoryShards.save("field-2", new FieldConditionCapture(0.10, occurrenceAt.plusSeconds(60), "field-2"));
+        calculator.calculateDirtyFields();
+
+        // then
+        assertEquals(sentinel, field1.vegetationStatistics());
+        assertEquals(new VegetationStatistic(0.40, 0.40, 0.40), fieldRepositoryShards.find("field-2").vegetationStatistics());
+    }
+
+    @Test
+    public void calculateDirtyFields_publishes_the_statistics_of_each_field() {
+
+        // given
+        Instant occurrenceAt = Instant.parse("2019-03-10T08:00:00Z");
+        fieldRepositoryShards.save("field-1", new FieldConditionCapture(0.40, occurrenceAt, "field-1"));
+        fieldRepositoryShards.save("field-2", new FieldConditionCapture(0.70, occurrenceAt, "field-2"));
+
+        // when
+        calculator.calculateDirtyFields();
+
+        // then
+        Mockito.verify(listener).published("field-1", fieldRepositoryShards.find("field-1").encodedStatistics());
+        Mockito.verify(listener).published("field-2", fieldRepositoryShards.find("field-2").encodedStatistics());
+        Mockito.verify(listener, Mockito.never()).published(Mockito.eq(FieldRepositoryShards.DEFAULT_FIELD_ID), Mockito.any());
+    }
+
+    // --- utils ---
+
+    private static DailyAggregate aggregateOf(double... values) {
+        return DailyAggregate.of(values, values.length);
+    }
+
+    private static QuantileSketch sketchOf(double... values) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) {
+            sketch.add(value);
+        }
+        return sketch;
+    }
+}
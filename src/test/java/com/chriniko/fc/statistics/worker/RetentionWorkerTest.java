@@ -0,0 +1,128 @@
+package com.chriniko.fc.statistics.worker;
+
+import com.chriniko.fc.statistics.error.BusinessProcessingException;
+import com.chriniko.fc.statistics.repository.EvictedDays;
+import com.chriniko.fc.statistics.repository.FieldConditionRepository;
+import com.chriniko.fc.statistics.repository.FieldRepositoryShards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionWorkerTest {
+
+    private final Clock clock = Clock.fixed(Instant.parse("2019-03-10T10:15:30Z"), ZoneOffset.UTC);
+
+    @Test
+    public void evictStep_evicts_days_older_than_retention_and_records_metrics() {
+
+        // given
+        FieldConditionRepository repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(repository.evictDaysBefore(LocalDate.parse("2018-08-22"), 8)).thenReturn(EvictedDays.of(2, 10, 4096));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RetentionWorker retentionWorker = new RetentionWorker(shardsOf(repository), new PoolHandler(), clock, meterRegistry, 30, 200, 8, 0);
+
+        // when
+        EvictedDays evicted = retentionWorker.evictStep();
+
+        // then
+        assertEquals(2, evicted.getDays());
+        assertEquals(2.0, meterRegistry.counter("retention.evicted.days").count(), 0.0);
+        assertEquals(10.0, meterRegistry.counter("retention.evicted.captures").count(), 0.0);
+        assertEquals(4096.0, meterRegistry.counter("retention.reclaimed.bytes").count(), 0.0);
+    }
+
+    @Test
+    public void downsampleStep_discards_the_captures_of_days_older_than_raw_days() {
+
+        // given
+        FieldConditionRepository repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(repository.downsampleDaysBefore(LocalDate.parse("2019-02-28"), 8)).thenReturn(EvictedDays.of(3, 120, 8192));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RetentionWorker retentionWorker = new RetentionWorker(shardsOf(repository), new PoolHandler(), clock, meterRegistry, 30, 200, 8, 10);
+
+        // when
+        EvictedDays downsampled = retentionWorker.downsampleStep();
+
+        // then
+        assertEquals(3, downsampled.getDays());
+        assertEquals(3.0, meterRegistry.counter("retention.downsampled.days").count(), 0.0);
+        assertEquals(120.0, meterRegistry.counter("retention.discarded.captures").count(), 0.0);
+        assertEquals(8192.0, meterRegistry.counter("retention.reclaimed.bytes").count(), 0.0);
+    }
+
+    @Test
+    public void downsampleStep_is_disabled_by_default() {
+
+        // given
+        FieldConditionRepository repository = Mockito.mock(FieldConditionRepository.class);
+        RetentionWorker retentionWorker = new RetentionWorker(shardsOf(repository), new PoolHandler(), clock, new SimpleMeterRegistry(), 30, 200, 8, 0);
+
+        // when
+        EvictedDays downsampled = retentionWorker.downsampleStep();
+
+        // then
+        assertTrue(downsampled.isEmpty());
+        Mockito.verifyZeroInteractions(repository);
+    }
+
+    @Test
+    public void steps_cover_the_repositories_of_the_fields() {
+
+        // given
+        FieldConditionRepository repository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(repository.evictDaysBefore(LocalDate.parse("2018-08-22"), 8)).thenReturn(EvictedDays.of(2, 10, 4096));
+        Mockito.when(repository.downsampleDaysBefore(LocalDate.parse("2019-02-28"), 8)).thenReturn(EvictedDays.NONE);
+
+        FieldConditionRepository fieldRepository = Mockito.mock(FieldConditionRepository.class);
+        Mockito.when(fieldRepository.evictDaysBefore(LocalDate.parse("2018-08-22"), 8)).thenReturn(EvictedDays.of(1, 5, 1024));
+        Mockito.when(fieldRepository.downsampleDaysBefore(LocalDate.parse("2019-02-28"), 8)).thenReturn(EvictedDays.of(3, 120, 8192));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RetentionWorker retentionWorker = new RetentionWorker(shardsOf(repository, fieldRepository), new PoolHandler(), clock, meterRegistry, 30, 200, 8, 10);
+
+        // when
+        EvictedDays evicted = retentionWorker.evictStep();
+        EvictedDays downsampled = retentionWorker.downsampleStep();
+
+        // then
+        assertEquals(EvictedDays.of(3, 15, 5120), evicted);
+        assertEquals(EvictedDays.of(3, 120, 8192), downsampled);
+        assertEquals(3.0, meterRegistry.counter("retention.evicted.days").count(), 0.0);
+        assertEquals(3.0, meterRegistry.counter("retention.downsampled.days").count(), 0.0);
+        assertEquals(5120.0 + 8192.0, meterRegistry.counter("retention.reclaimed.bytes").count(), 0.0);
+    }
+
+    @Test(expected = BusinessProcessingException.class)
+    public void retention_should_cover_the_statistics_window() {
+
+        // when
+        new RetentionWorker(shardsOf(Mockito.mock(FieldConditionRepository.class)), new PoolHandler(), clock, new SimpleMeterRegistry(), 30, 30, 8, 0);
+    }
+
+    // --- utils ---
+
+    @SuppressWarnings("unchecked")
+    private FieldRepositoryShards shardsOf(FieldConditionRepository defaultFieldRepository, FieldConditionRepository... fieldRepositories) {
+        FieldRepositoryShards fieldRepositoryShards = Mockito.mock(FieldRepositoryShards.class);
+        Mockito.when(fieldRepositoryShards.defaultFieldRepository()).thenReturn(defaultFieldRepository);
+        Mockito.doAnswer(invocation -> {
+            BiConsumer<String, FieldConditionRepository> action = invocation.getArgument(0);
+            for (int i = 0; i < fieldRepositories.length; i++) {
+                action.accept("field-" + i, fieldRepositories[i]);
+            }
+            return null;
+        }).when(fieldRepositoryShards).forEachField(Mockito.any(BiConsumer.class));
+        return fieldRepositoryShards;
+    }
+}